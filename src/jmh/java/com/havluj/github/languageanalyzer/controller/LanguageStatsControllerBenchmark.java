@@ -0,0 +1,85 @@
+package com.havluj.github.languageanalyzer.controller;
+
+import com.havluj.github.languageanalyzer.LanguageAnalyzerApplication;
+import com.havluj.github.languageanalyzer.dao.StorageDao;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serving of {@code GET /org/{org}/languages} over HTTP, end to end, when the stats are already in memory
+ * (i.e. the way almost every request is served in production).
+ *
+ * The whole application is started with the "test" profile, so nothing is fetched from GitHub and the DB lives in a
+ * temporary file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LanguageStatsControllerBenchmark {
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        context = new SpringApplicationBuilder(LanguageAnalyzerApplication.class)
+                .properties(
+                        "spring.profiles.active=test",
+                        "server.port=0",
+                        "db.location=unused",
+                        "github.token=unused",
+                        "logging.level.com.havluj=WARN")
+                .run();
+
+        final Map<String, String> languageMap = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            languageMap.put("Language" + i, String.format("0.%02d", i));
+        }
+        context.getBean(StorageDao.class)
+                .updateLanguageStats("productboard", new LanguageStats(languageMap));
+
+        final int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        client = HttpClient.newHttpClient();
+        request = HttpRequest
+                .newBuilder(URI.create("http://localhost:" + port + "/org/productboard/languages"))
+                .GET()
+                .build();
+
+        // fail fast rather than benchmarking error responses
+        final HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unexpected response status: " + response.statusCode());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] getLanguages() throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+}
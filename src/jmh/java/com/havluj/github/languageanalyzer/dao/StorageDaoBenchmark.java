@@ -0,0 +1,156 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reads and writes of language stats through {@link StorageDao}, both from memory and from disk (MapDB and
+ * the snapshot file), and the cost of the value serializer on its own (compared to plain Java serialization used by
+ * older versions).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StorageDaoBenchmark {
+
+    private static final String ORG = "productboard";
+    private static final int COMMIT_MAX_PENDING = 100;
+
+    private Path dbFile;
+    private StorageDao storageDao;
+    private HTreeMap<String, LanguageStats> inMemMap;
+    private HTreeMap<String, LanguageStats> onDiskMap;
+    private StatsSnapshotFile snapshotFile;
+    private LanguageStatsSerializer serializer;
+    private LanguageStats stats;
+    private byte[] serialized;
+    private byte[] javaSerialized;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dbFile = Files.createTempFile("language-analyzer-bench", ".db");
+        Files.delete(dbFile); // MapDB refuses to open an empty file
+        storageDao = new StorageDao(dbFile.toString(), dbFile + ".snapshot", Duration.ofSeconds(1), COMMIT_MAX_PENDING,
+                DataSize.ofMegabytes(32), DataSize.ofMegabytes(16), DataSize.ofMegabytes(64), false,
+                new StandardEnvironment(), new SimpleMeterRegistry(), new InMemorySharedStatsStore());
+
+        final Map<String, String> languageMap = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            languageMap.put("Language" + i, String.format("0.%02d", i));
+        }
+        stats = new LanguageStats(languageMap);
+        storageDao.updateLanguageStats(ORG, stats);
+
+        inMemMap = storageDao.getInMemMap();
+        onDiskMap = storageDao.getOnDiskMap();
+        storageDao.writeSnapshotFile();
+        snapshotFile = StatsSnapshotFile.open(storageDao.getSnapshotPath());
+        final LanguageDictionary dictionary = new LanguageDictionary(new HashMap<>());
+        dictionary.registerAll(languageMap.keySet()); // same as StorageDao does before storing stats
+        serializer = new LanguageStatsSerializer(dictionary);
+        serialized = serialize(serializer, stats);
+        javaSerialized = serialize(Serializer.JAVA, languageMap);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storageDao.destroy();
+        Files.deleteIfExists(dbFile);
+        Files.deleteIfExists(Path.of(dbFile + ".wal.0"));
+        Files.deleteIfExists(Path.of(dbFile + ".snapshot"));
+    }
+
+    @Benchmark
+    public LanguageStats getWarm() {
+        return storageDao.getLanguageStats(ORG);
+    }
+
+    @Benchmark
+    public LanguageStatsJson getJson() {
+        return storageDao.getLanguageStatsJson(ORG);
+    }
+
+    @Benchmark
+    public LanguageStats getInMemory() {
+        return inMemMap.get(ORG);
+    }
+
+    @Benchmark
+    public LanguageStats getOnDisk() {
+        return onDiskMap.get(ORG);
+    }
+
+    @Benchmark
+    public LanguageStats getFromSnapshotFile() throws IOException {
+        return snapshotFile.get(ORG);
+    }
+
+    @Benchmark
+    public LanguageStats putInMemory() {
+        return inMemMap.put(ORG, stats);
+    }
+
+    @Benchmark
+    public void putOnDiskAndCommit() {
+        storageDao.updateLanguageStats(ORG, stats);
+        storageDao.commit();
+    }
+
+    /**
+     * Writes as the refresh makes them: committed in groups of {@value #COMMIT_MAX_PENDING}.
+     */
+    @Benchmark
+    public void putOnDiskGroupCommitted() {
+        storageDao.updateLanguageStats(ORG, stats);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serialize(serializer, stats);
+    }
+
+    @Benchmark
+    public LanguageStats deserialize() throws IOException {
+        return serializer.deserialize(new DataInput2.ByteArray(serialized), serialized.length);
+    }
+
+    @Benchmark
+    public byte[] serializeJava() throws IOException {
+        return serialize(Serializer.JAVA, stats.getLanguageMap());
+    }
+
+    @Benchmark
+    public Object deserializeJava() throws IOException {
+        return Serializer.JAVA.deserialize(new DataInput2.ByteArray(javaSerialized), javaSerialized.length);
+    }
+
+    private static <T> byte[] serialize(final Serializer<T> serializer, final T value) throws IOException {
+        final DataOutput2 out = new DataOutput2();
+        serializer.serialize(out, value);
+        return out.copyBytes();
+    }
+}
@@ -0,0 +1,59 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.RepoSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to turn per-repo language stats into org-wide percentages, for synthetic orgs of
+ * different sizes. Fetching from GitHub is not part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LanguageAggregationBenchmark {
+
+    private static final int LANGUAGE_CNT = 60;
+    private static final int MAX_LANGUAGES_PER_REPO = 8;
+
+    @Param({"10", "1000", "100000"})
+    private int repoCnt;
+
+    private List<RepoSnapshot> snapshots;
+
+    @Setup
+    public void setUp() {
+        // fixed seed, so that every run (and every commit) aggregates the same org
+        final Random random = new Random(42);
+        snapshots = new ArrayList<>(repoCnt);
+        for (int i = 0; i < repoCnt; i++) {
+            final int languageCnt = 1 + random.nextInt(MAX_LANGUAGES_PER_REPO);
+            final Map<String, Long> languages = new HashMap<>();
+            for (int j = 0; j < languageCnt; j++) {
+                // skew towards the first few languages, like real orgs
+                final int language = (int) (LANGUAGE_CNT * Math.pow(random.nextDouble(), 3));
+                languages.put("Language" + language, (long) random.nextInt(10_000_000));
+            }
+            snapshots.add(new RepoSnapshot(random.nextLong(), languages));
+        }
+    }
+
+    @Benchmark
+    public LanguageStats aggregate() {
+        return LanguageStatsComputeUtil.getLanguageSums(snapshots);
+    }
+}
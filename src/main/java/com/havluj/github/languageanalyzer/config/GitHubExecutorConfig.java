@@ -0,0 +1,58 @@
+package com.havluj.github.languageanalyzer.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the executor that runs blocking GitHub calls (see {@code AsyncGitHubDao}).
+ *
+ * The GitHub client does blocking network I/O, so the threads running it spend most of their time waiting. On a JVM
+ * that supports virtual threads (Java 21+) we use one virtual thread per call, which makes waiting practically free.
+ * The project is still compiled for Java 11, so the virtual thread executor is looked up reflectively. On older JVMs
+ * (or when {@code github.executor.type=pool}), we fall back to a bounded pool of platform threads.
+ *
+ * To plug in a different executor, define your own bean named {@value #GITHUB_EXECUTOR}.
+ */
+@Configuration
+@Slf4j
+public class GitHubExecutorConfig {
+
+    public static final String GITHUB_EXECUTOR = "gitHubExecutor";
+
+    @Bean(name = GITHUB_EXECUTOR, destroyMethod = "shutdownNow")
+    public ExecutorService gitHubExecutor(@Value("${github.executor.type:auto}") final String type,
+                                          @Value("${github.executor.pool-size:32}") final int poolSize) {
+        if (!"pool".equalsIgnoreCase(type)) {
+            final ExecutorService virtual = virtualThreadExecutor();
+            if (virtual != null) {
+                log.info("Running GitHub calls on virtual threads.");
+                return virtual;
+            }
+        }
+
+        log.info(String.format("Running GitHub calls on a pool of %d platform threads.", poolSize));
+        final AtomicInteger threadCnt = new AtomicInteger();
+        return Executors.newFixedThreadPool(poolSize, r -> {
+            final Thread t = new Thread(r, "github-io-" + threadCnt.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // virtual threads are not available on this JVM
+            return null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.havluj.github.languageanalyzer.controller;
+
+import com.havluj.github.languageanalyzer.exceptions.AdminAccessDeniedException;
+import com.havluj.github.languageanalyzer.logic.OrgRegistry;
+import com.havluj.github.languageanalyzer.logic.StatsRefreshEngine;
+import com.havluj.github.languageanalyzer.model.RefreshTask;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Admin API to manage the orgs we serve stats for (see {@link OrgRegistry}), and to watch their refreshes (see
+ * {@link StatsRefreshEngine}). Every request has to carry the {@code admin.token} in the {@value #ADMIN_TOKEN_HEADER}
+ * header. If no token is configured, the admin API is disabled.
+ */
+@RestController
+@RequestMapping("/admin")
+@Slf4j
+public class AdminController {
+
+    static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    @Autowired
+    private OrgRegistry orgRegistry;
+    @Autowired
+    private StatsRefreshEngine statsRefreshEngine;
+    @Value("${admin.token:}")
+    private String adminToken;
+
+    @GetMapping("/orgs")
+    public List<String> getOrgs(@RequestHeader(value = ADMIN_TOKEN_HEADER, required = false) String token) {
+        checkToken(token);
+        return names(orgRegistry.getOrgs());
+    }
+
+    /**
+     * Registers orgs given as a JSON array of names.
+     *
+     * @return Names of the orgs that were not registered before.
+     */
+    @PostMapping("/orgs")
+    public List<String> registerOrgs(@RequestHeader(value = ADMIN_TOKEN_HEADER, required = false) String token,
+                                     @NonNull @RequestBody List<String> orgs) {
+        checkToken(token);
+        log.info(String.format("Admin: registering %d orgs.", orgs.size()));
+        return names(orgRegistry.register(orgs));
+    }
+
+    @DeleteMapping("/orgs/{org}")
+    public ResponseEntity<Void> unregisterOrg(@RequestHeader(value = ADMIN_TOKEN_HEADER, required = false) String token,
+                                              @NonNull @PathVariable(value = "org") String org) {
+        checkToken(token);
+        log.info(String.format("Admin: unregistering org %s.", org));
+        if (orgRegistry.unregister(List.of(org)).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Progress and timing of the latest refresh of every org (which may still be running), by time slot.
+     */
+    @GetMapping("/refresh")
+    public List<RefreshTask> getRefreshTasks(
+            @RequestHeader(value = ADMIN_TOKEN_HEADER, required = false) String token) {
+        checkToken(token);
+        return statsRefreshEngine.getTasks();
+    }
+
+    private void checkToken(final String token) {
+        if (adminToken.isEmpty() || token == null
+                || !MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8))) {
+            log.warn("Rejected an admin request with a missing or invalid token.");
+            throw new AdminAccessDeniedException();
+        }
+    }
+
+    private static List<String> names(final List<SupportedOrg> orgs) {
+        return orgs.stream().map(SupportedOrg::getOrgName).collect(Collectors.toList());
+    }
+}
@@ -1,27 +1,185 @@
 package com.havluj.github.languageanalyzer.controller;
 
+import com.havluj.github.languageanalyzer.exceptions.TooManyOrgsException;
+import com.havluj.github.languageanalyzer.logic.LanguageStatsHistoryLogic;
 import com.havluj.github.languageanalyzer.logic.LanguageStatsLogic;
+import com.havluj.github.languageanalyzer.logic.LanguageStatsViewLogic;
+import com.havluj.github.languageanalyzer.logic.OrgRegistry;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
+import com.havluj.github.languageanalyzer.model.StatsView;
 import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import io.micrometer.core.annotation.Timed;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * Latency of every endpoint is recorded as {@code stats.requests} (tagged by URI, status and outcome, same as Spring's
+ * {@code http.server.requests}), with a histogram so that percentiles can be computed across instances.
+ */
 @RestController
 @Slf4j
+@Timed(value = "stats.requests", description = "Requests for language stats", histogram = true)
 public class LanguageStatsController {
 
     @Autowired
     private LanguageStatsLogic languageStatsLogic;
+    @Autowired
+    private LanguageStatsViewLogic languageStatsViewLogic;
+    @Autowired
+    private LanguageStatsHistoryLogic languageStatsHistoryLogic;
+    @Autowired
+    private OrgRegistry orgRegistry;
+    @Value("${http.cache.max-age:1h}")
+    private Duration cacheMaxAge;
+    @Value("${stats.batch.max-orgs:100}")
+    private int batchMaxOrgs;
+
+    /**
+     * Serves stats that were serialized when they were stored, so the response body is written as it is. Responses
+     * carry a strong ETag; Spring answers requests with a matching {@code If-None-Match} with 304 Not Modified.
+     *
+     * Optional {@code format}, {@code top} and {@code precision} parameters ask for another view of the stats (see
+     * {@link StatsView}), e.g. {@code ?format=bytes&top=10}. Those are projected from stored byte counts and cached.
+     */
+    @GetMapping(value = "/org/{org}/languages", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getLanguageStatistics(@NonNull @PathVariable(value = "org") String org,
+                                                        @RequestParam(required = false) String format,
+                                                        @RequestParam(required = false) Integer top,
+                                                        @RequestParam(required = false) Integer precision) {
+        log.info("Serving /org/{}/languages.", org);
+        SupportedOrg supportedOrg = orgRegistry.fromName(org);
+        StatsView view = StatsView.of(format, top, precision);
+        LanguageStatsJson json = languageStatsViewLogic.getLanguageStatsJsonForOrg(supportedOrg, view);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(json.getEtag())
+                .cacheControl(CacheControl.maxAge(cacheMaxAge).cachePublic());
+        if (json.getUpdatedAt() != 0) {
+            response.lastModified(json.getUpdatedAt());
+        }
+        return response.body(json.getBody());
+    }
+
+    /**
+     * History of an org's stats, e.g. {@code /org/{org}/languages/history?from=2024-01-01&to=2024-06-30}: a JSON
+     * object with the stats at the end of every day, week or month ({@code resolution}, picked by the length of the
+     * range if missing) under the period's first day. Takes the same view parameters as
+     * {@link #getLanguageStatistics(String, String, Integer, Integer)}.
+     */
+    @GetMapping(value = "/org/{org}/languages/history", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Map<String, Object>>> getLanguageStatisticsHistory(
+            @NonNull @PathVariable(value = "org") String org,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) Integer top,
+            @RequestParam(required = false) Integer precision) {
+        log.info("Serving /org/{}/languages/history.", org);
+        SupportedOrg supportedOrg = orgRegistry.fromName(org);
+        StatsView view = StatsView.of(format, top, precision);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.maxAge(cacheMaxAge).cachePublic())
+                .body(languageStatsHistoryLogic.getHistory(supportedOrg, from, to, resolution, view));
+    }
+
+    /**
+     * Stats of several orgs in a single response, e.g. {@code /orgs/languages?org=a&org=b}. The response is a JSON
+     * object with the stats of every org under its name, same as {@code /org/{org}/languages} would return them.
+     * Stats are streamed to the client as they were serialized when they were stored, nothing is serialized per request.
+     *
+     * The ETag of the response is derived from the ETags of all orgs' stats, so it changes whenever any of them does.
+     */
+    @GetMapping(value = "/orgs/languages", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getLanguageStatisticsBatch(
+            @NonNull @RequestParam(value = "org") List<String> orgs, WebRequest request) {
+        log.info("Serving /orgs/languages for {} orgs.", orgs.size());
+        Map<SupportedOrg, LanguageStatsJson> stats = getBatch(orgs);
+        String etag = batchEtag(stats);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(etag)
+                .cacheControl(CacheControl.maxAge(cacheMaxAge).cachePublic())
+                .body(streamBatch(stats));
+    }
+
+    /**
+     * Same as {@link #getLanguageStatisticsBatch(List, WebRequest)}, for org lists too long for a query string. Takes a
+     * JSON array of org names.
+     */
+    @PostMapping(value = "/orgs/languages", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> postLanguageStatisticsBatch(@NonNull @RequestBody List<String> orgs) {
+        log.info("Serving POST /orgs/languages for {} orgs.", orgs.size());
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(streamBatch(getBatch(orgs)));
+    }
+
+    private Map<SupportedOrg, LanguageStatsJson> getBatch(final List<String> orgs) {
+        if (orgs.size() > batchMaxOrgs) {
+            throw new TooManyOrgsException(String.format("Requested %d orgs, at most %d are allowed.", orgs.size(),
+                    batchMaxOrgs));
+        }
+        // duplicates are served once
+        Set<SupportedOrg> supportedOrgs = new LinkedHashSet<>();
+        for (String org : orgs) {
+            supportedOrgs.add(orgRegistry.fromName(org));
+        }
+        return languageStatsLogic.getLanguageStatsJsonForOrgs(supportedOrgs);
+    }
+
+    private static String batchEtag(final Map<SupportedOrg, LanguageStatsJson> stats) {
+        StringBuilder etags = new StringBuilder();
+        stats.forEach((org, json) -> etags.append(org.getOrgName()).append(json.getEtag()));
+        return "\"" + DigestUtils.md5DigestAsHex(etags.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
 
-    @GetMapping("/org/{org}/languages")
-    public Map<String, String> getLanguageStatistics(@NonNull @PathVariable(value = "org") String org) {
-        log.info(String.format("Serving /org/%s/languages.", org));
-        SupportedOrg supportedOrg = SupportedOrg.fromName(org);
-        return languageStatsLogic.getLanguageStatsForOrg(supportedOrg).getLanguageMap();
+    private static StreamingResponseBody streamBatch(final Map<SupportedOrg, LanguageStatsJson> stats) {
+        return out -> {
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<SupportedOrg, LanguageStatsJson> entry : stats.entrySet()) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                // org names are validated by the registry, so they never need escaping
+                out.write('"');
+                out.write(entry.getKey().getOrgName().getBytes(StandardCharsets.UTF_8));
+                out.write('"');
+                out.write(':');
+                out.write(entry.getValue().getBody());
+            }
+            out.write('}');
+        };
     }
 }
@@ -0,0 +1,39 @@
+package com.havluj.github.languageanalyzer.controller;
+
+import com.havluj.github.languageanalyzer.logic.LanguageStatsStreamLogic;
+import com.havluj.github.languageanalyzer.logic.OrgRegistry;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Streams of stats updates. Kept apart from {@link LanguageStatsController}, as a stream lasts until the client leaves
+ * (or it times out), and would skew the latency recorded for the other endpoints.
+ */
+@RestController
+@Slf4j
+public class LanguageStatsStreamController {
+
+    @Autowired
+    private LanguageStatsStreamLogic languageStatsStreamLogic;
+    @Autowired
+    private OrgRegistry orgRegistry;
+
+    /**
+     * Server-sent events with an org's stats: a {@code stats} event with the current stats right away, then another one
+     * whenever they change. The data of the events is the same JSON {@code /org/{org}/languages} returns, their ID is
+     * its ETag.
+     */
+    @GetMapping(value = "/org/{org}/languages/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamLanguageStatistics(@NonNull @PathVariable(value = "org") String org) {
+        log.info("Serving /org/{}/languages/stream.", org);
+        SupportedOrg supportedOrg = orgRegistry.fromName(org);
+        return languageStatsStreamLogic.subscribe(supportedOrg);
+    }
+}
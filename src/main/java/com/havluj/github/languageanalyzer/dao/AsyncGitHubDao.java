@@ -0,0 +1,96 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.config.GitHubExecutorConfig;
+import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
+import lombok.NonNull;
+import org.kohsuke.github.GHOrganization;
+import org.kohsuke.github.GHRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous variant of {@link GitHubDao}. Every call is run on the GitHub executor (see
+ * {@link GitHubExecutorConfig}) and returns a future, so callers can compose calls instead of blocking a thread on
+ * each of them. Failures complete the futures with the same exceptions {@link GitHubDao} would throw.
+ *
+ * Calls keep the request priority of the calling thread (see {@link GitHubRequestScheduler#currentPriority()}). That
+ * includes callbacks that run on the GitHub executor once a call completes, so chains of calls keep their priority
+ * too.
+ */
+@Service
+public class AsyncGitHubDao {
+
+    private final GitHubDao gitHubDao;
+    private final Executor executor;
+
+    public AsyncGitHubDao(@Autowired final GitHubDao gitHubDao,
+                          @Autowired @Qualifier(GitHubExecutorConfig.GITHUB_EXECUTOR) final Executor executor) {
+        this.gitHubDao = gitHubDao;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<GHOrganization> getOrg(@NonNull final String orgName) {
+        return CompletableFuture.supplyAsync(() -> gitHubDao.getOrg(orgName), executorWithCurrentPriority());
+    }
+
+    public CompletableFuture<Iterator<List<GHRepository>>> listOrgRepoPages(@NonNull final GHOrganization organization) {
+        return CompletableFuture.supplyAsync(() -> gitHubDao.listOrgRepoPages(organization),
+                executorWithCurrentPriority());
+    }
+
+    /**
+     * Lists the next page of repositories (see {@link GitHubDao#listOrgRepoPages(GHOrganization)}).
+     *
+     * @return Future of the next page. Completes with null if there are no more pages.
+     */
+    public CompletableFuture<List<GHRepository>> nextRepoPage(@NonNull final Iterator<List<GHRepository>> pages) {
+        return CompletableFuture.supplyAsync(() -> pages.hasNext() ? pages.next() : null,
+                executorWithCurrentPriority());
+    }
+
+    public CompletableFuture<Map<String, Long>> listRepoLanguages(@NonNull final GHRepository repository) {
+        return CompletableFuture.supplyAsync(() -> gitHubDao.listRepoLanguages(repository), executorWithCurrentPriority());
+    }
+
+    /**
+     * Same as {@link #listRepoLanguages(GHRepository)}, but fails with a {@link java.util.concurrent.TimeoutException}
+     * if sending the request (and reading the response) takes longer than the given timeout. Time spent waiting for
+     * the rate limit doesn't count (see {@link GitHubCall}). Once the future is complete (including when the caller
+     * cancels it), requests that haven't been sent yet are not sent at all.
+     */
+    public CompletableFuture<Map<String, Long>> listRepoLanguages(@NonNull final GHRepository repository,
+                                                                  final long timeoutMs) {
+        final GitHubCall<Map<String, Long>> call = new GitHubCall<>(timeoutMs);
+        executorWithCurrentPriority().execute(() -> call.run(() -> gitHubDao.listRepoLanguages(repository)));
+        return call.getFuture();
+    }
+
+    private Executor executorWithCurrentPriority() {
+        final GitHubRequestScheduler.SharedPriority priority = GitHubRequestScheduler.currentSharedPriority();
+        return task -> executor.execute(GitHubRequestScheduler.withPriority(priority, task));
+    }
+
+    /**
+     * Waits for the future to complete and returns its result. Unlike {@link CompletableFuture#join()}, this rethrows
+     * the original runtime exception (e.g. {@code OrgNotFoundException}) instead of wrapping it, so synchronous
+     * callers see the same exceptions they would see calling {@link GitHubDao} directly.
+     */
+    public static <T> T join(@NonNull final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new GitHubIoErrorException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A successful GitHub API response stored in {@link GitHubResponseCache}, to be served again when GitHub answers a
+ * conditional request for the same resource with 304 Not Modified.
+ */
+@Value
+class CachedGitHubResponse {
+
+    /**
+     * ETag GitHub sent with the response, sent back in {@code If-None-Match}.
+     */
+    @NonNull String etag;
+    /**
+     * Response headers, without the ones describing the encoding of the body (e.g. {@code Content-Encoding}).
+     */
+    @NonNull Map<String, List<String>> headers;
+    /**
+     * Response body, decoded. Shared, so it must not be modified.
+     */
+    @NonNull byte[] body;
+}
@@ -0,0 +1,74 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary MapDB serializer for {@link CachedGitHubResponse}.
+ *
+ * Format (version 1), all numbers packed (variable length):
+ * <pre>
+ *     byte    format version
+ *     UTF     ETag
+ *     int     number of headers
+ *     for every header:
+ *         UTF     name
+ *         int     number of values
+ *         UTF     every value
+ *     int     body length
+ *     bytes   body
+ * </pre>
+ */
+class CachedGitHubResponseSerializer implements Serializer<CachedGitHubResponse> {
+
+    static final byte VERSION_1 = 1;
+
+    @Override
+    public void serialize(@NonNull final DataOutput2 out, @NonNull final CachedGitHubResponse value)
+            throws IOException {
+        out.writeByte(VERSION_1);
+        out.writeUTF(value.getEtag());
+        out.packInt(value.getHeaders().size());
+        for (Map.Entry<String, List<String>> header : value.getHeaders().entrySet()) {
+            out.writeUTF(header.getKey());
+            out.packInt(header.getValue().size());
+            for (String headerValue : header.getValue()) {
+                out.writeUTF(headerValue);
+            }
+        }
+        out.packInt(value.getBody().length);
+        out.write(value.getBody());
+    }
+
+    @Override
+    public CachedGitHubResponse deserialize(@NonNull final DataInput2 input, final int available) throws IOException {
+        final byte version = input.readByte();
+        if (version != VERSION_1) {
+            throw new IOException(String.format("Unsupported cached response format version: %d.", version));
+        }
+
+        final String etag = input.readUTF();
+        final int headerCnt = input.unpackInt();
+        final Map<String, List<String>> headers = new HashMap<>(headerCnt * 4 / 3 + 1);
+        for (int i = 0; i < headerCnt; i++) {
+            final String name = input.readUTF();
+            final int valueCnt = input.unpackInt();
+            final List<String> values = new ArrayList<>(valueCnt);
+            for (int j = 0; j < valueCnt; j++) {
+                values.add(input.readUTF());
+            }
+            headers.put(name, values);
+        }
+        final byte[] body = new byte[input.unpackInt()];
+        input.readFully(body);
+        return new CachedGitHubResponse(etag, headers, body);
+    }
+}
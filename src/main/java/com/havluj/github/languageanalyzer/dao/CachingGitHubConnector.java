@@ -0,0 +1,168 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Makes GET requests of the GitHub client conditional. Successful responses carrying an ETag are stored in
+ * {@link GitHubResponseCache}; the next request for the same resource sends the ETag in {@code If-None-Match}, and if
+ * GitHub answers with 304 Not Modified, the stored response is returned instead. GitHub doesn't count 304 responses
+ * against the rate limit, and they come without a body, so refreshes of orgs that barely change become cheap.
+ *
+ * To the client, a response served from the cache looks like a regular 200 response, with the headers of the 304
+ * response (e.g. the rate limit ones) taking precedence over the stored ones.
+ */
+@Slf4j
+class CachingGitHubConnector implements GitHubConnector {
+
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    /**
+     * Headers describing how the body was transferred. Cached bodies are stored decoded, so these don't apply to them.
+     */
+    private static final Set<String> TRANSFER_HEADERS = Set.of("content-encoding", "content-length",
+            "transfer-encoding");
+
+    private final GitHubConnector delegate;
+    private final GitHubResponseCache cache;
+
+    CachingGitHubConnector(@NonNull final GitHubConnector delegate, @NonNull final GitHubResponseCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public GitHubConnectorResponse send(final GitHubConnectorRequest request) throws IOException {
+        if (!"GET".equals(request.method()) || request.hasBody() || request.header(IF_NONE_MATCH) != null) {
+            return delegate.send(request);
+        }
+
+        final String key = keyOf(request);
+        final CachedGitHubResponse cached = cache.get(key);
+        final GitHubConnectorResponse response = delegate.send(
+                cached == null ? request : new ConditionalRequest(request, cached.getEtag()));
+
+        if (response.statusCode() == 304 && cached != null) {
+            log.debug("{} not modified, serving the cached response.", request.url());
+            final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(cached.getHeaders());
+            headers.putAll(withoutTransferHeaders(response.allHeaders()));
+            response.close();
+            return new CachedResponse(request, headers, cached.getBody());
+        }
+
+        final String etag = response.header("ETag");
+        if (response.statusCode() != 200 || etag == null) {
+            return response;
+        }
+
+        final byte[] body;
+        try (InputStream in = response.bodyStream()) {
+            body = in.readAllBytes();
+        } finally {
+            response.close();
+        }
+        final Map<String, List<String>> headers = withoutTransferHeaders(response.allHeaders());
+        cache.put(key, new CachedGitHubResponse(etag, headers, body));
+        return new CachedResponse(request, headers, body);
+    }
+
+    private static String keyOf(final GitHubConnectorRequest request) {
+        final String accept = request.header("Accept");
+        return accept == null ? request.url().toString() : request.url() + " " + accept;
+    }
+
+    private static Map<String, List<String>> withoutTransferHeaders(final Map<String, List<String>> headers) {
+        final Map<String, List<String>> res = new HashMap<>(headers.size() * 4 / 3 + 1);
+        headers.forEach((name, values) -> {
+            // the status line shows up as a header without a name
+            if (name != null && !TRANSFER_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                res.put(name, new ArrayList<>(values));
+            }
+        });
+        return res;
+    }
+
+    /**
+     * The given request, with {@code If-None-Match} added.
+     */
+    private static final class ConditionalRequest implements GitHubConnectorRequest {
+        private final GitHubConnectorRequest request;
+        private final String etag;
+
+        private ConditionalRequest(final GitHubConnectorRequest request, final String etag) {
+            this.request = request;
+            this.etag = etag;
+        }
+
+        @Override
+        public String method() {
+            return request.method();
+        }
+
+        @Override
+        public Map<String, List<String>> allHeaders() {
+            final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(request.allHeaders());
+            headers.put(IF_NONE_MATCH, List.of(etag));
+            return headers;
+        }
+
+        @Override
+        public String header(final String name) {
+            return IF_NONE_MATCH.equalsIgnoreCase(name) ? etag : request.header(name);
+        }
+
+        @Override
+        public String contentType() {
+            return request.contentType();
+        }
+
+        @Override
+        public InputStream body() {
+            return request.body();
+        }
+
+        @Override
+        public URL url() {
+            return request.url();
+        }
+
+        @Override
+        public boolean hasBody() {
+            return request.hasBody();
+        }
+    }
+
+    /**
+     * A 200 response with a body that's already in memory.
+     */
+    private static final class CachedResponse extends GitHubConnectorResponse {
+        private final byte[] body;
+
+        private CachedResponse(final GitHubConnectorRequest request, final Map<String, List<String>> headers,
+                               final byte[] body) {
+            super(request, 200, headers);
+            this.body = body;
+        }
+
+        @Override
+        protected InputStream rawBodyStream() {
+            return new ByteArrayInputStream(body);
+        }
+    }
+}
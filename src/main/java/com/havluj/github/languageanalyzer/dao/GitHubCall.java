@@ -0,0 +1,105 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * A call of {@link AsyncGitHubDao} with a timeout, run on the thread that makes its requests. Time spent waiting for
+ * the rate limit in {@link GitHubRequestScheduler#acquire} doesn't count towards the timeout (that wait is bounded by
+ * {@code github.rate.max-wait}), only the time spent sending requests and handling their responses does.
+ *
+ * Once the call's future is complete (the call timed out, or the caller cancelled it), the call doesn't send any more
+ * requests: {@link RateLimitedGitHubConnector} checks before and after waiting for the rate limit.
+ *
+ * The call is tracked per thread, the same way the priority of requests is (see
+ * {@link GitHubRequestScheduler#currentPriority()}).
+ */
+final class GitHubCall<T> {
+
+    private static final ThreadLocal<GitHubCall<?>> CURRENT = new ThreadLocal<>();
+
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    private final long timeoutMs;
+
+    // all guarded by this
+    private long spentMs;
+    private long runningSince; // 0 while waiting for the rate limit
+    /**
+     * Incremented whenever the timer is started or stopped, so that timers started before don't fire.
+     */
+    private int timerGeneration;
+
+    GitHubCall(final long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * @return Call made by the current thread. Null outside of {@link #run(Supplier)}.
+     */
+    static GitHubCall<?> current() {
+        return CURRENT.get();
+    }
+
+    CompletableFuture<T> getFuture() {
+        return future;
+    }
+
+    /**
+     * @return True once the call is over, so that it shouldn't send any more requests.
+     */
+    boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Runs the call on the current thread and completes its future with the result. Does nothing if the future is
+     * complete already (e.g. cancelled while the call was queued on the executor).
+     */
+    void run(final Supplier<T> call) {
+        if (future.isDone()) {
+            return;
+        }
+        CURRENT.set(this);
+        resume();
+        try {
+            future.complete(call.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        } finally {
+            pause();
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Stops the timer, e.g. while waiting for the rate limit.
+     */
+    synchronized void pause() {
+        if (runningSince != 0) {
+            spentMs += System.currentTimeMillis() - runningSince;
+            runningSince = 0;
+        }
+        timerGeneration++;
+    }
+
+    /**
+     * Starts the timer again, with the time left.
+     */
+    synchronized void resume() {
+        runningSince = System.currentTimeMillis();
+        final int generation = ++timerGeneration;
+        CompletableFuture.delayedExecutor(Math.max(0, timeoutMs - spentMs), TimeUnit.MILLISECONDS)
+                .execute(() -> expire(generation));
+    }
+
+    private void expire(final int generation) {
+        synchronized (this) {
+            if (generation != timerGeneration) {
+                return;
+            }
+        }
+        future.completeExceptionally(new TimeoutException(String.format("GitHub call took over %d ms.", timeoutMs)));
+    }
+}
@@ -2,17 +2,25 @@ package com.havluj.github.languageanalyzer.dao;
 
 import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
 import com.havluj.github.languageanalyzer.exceptions.OrgNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.kohsuke.github.GHException;
 import org.kohsuke.github.GHOrganization;
 import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubAbuseLimitHandler;
 import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.GitHubRateLimitHandler;
+import org.kohsuke.github.PagedIterator;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -20,7 +28,13 @@ import java.util.Map;
 @Slf4j
 public class GitHubDao {
 
-    private GitHub client;
+    /**
+     * Most items GitHub returns per page.
+     */
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private final GitHub client;
+    private final int pageSize;
 
     /**
      * This is a wrapper for https://github-api.kohsuke.org/. Note that the library lazy-loads a lot of information.
@@ -29,43 +43,97 @@ public class GitHubDao {
      * Therefore, if you only need to build certain objects to make other API calls (e.g. to get organization's repos),
      * don't access the organization's other metadata unless you truly need it.
      *
+     * All requests are paced by the given scheduler (see {@link GitHubRequestScheduler}). The library's own rate
+     * limit handling is turned off, so requests rejected by a rate limit that the scheduler gives up on fail right away
+     * instead of blocking.
+     *
+     * GET requests are made conditional using the given cache, if it's enabled (see {@link CachingGitHubConnector}).
+     * Every request that goes out is timed (see {@link MeteredGitHubConnector}).
+     *
      * @throws IOException if a connection to GitHub fails.
      */
-    public GitHubDao(@Value("${github.token}") final String token) throws IOException {
-        this.client = (new GitHubBuilder()).withOAuthToken(token).build();
+    @Autowired
+    public GitHubDao(@Value("${github.token}") final String token,
+                     @Value("${github.endpoint:https://api.github.com}") final String endpoint,
+                     @Value("${github.list.page-size:100}") final int pageSize,
+                     final GitHubRequestScheduler scheduler,
+                     final GitHubResponseCache responseCache,
+                     final MeterRegistry meterRegistry) throws IOException {
+        this((new GitHubBuilder())
+                .withEndpoint(endpoint)
+                .withOAuthToken(token)
+                .withConnector(connector(scheduler, responseCache, meterRegistry))
+                .withRateLimitHandler(GitHubRateLimitHandler.FAIL)
+                .withAbuseLimitHandler(GitHubAbuseLimitHandler.FAIL)
+                .build(), pageSize);
+    }
+
+    private GitHubDao(@NonNull final GitHub client, final int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("github.list.page-size has to be in [1, %d].",
+                    MAX_PAGE_SIZE));
+        }
+        this.client = client;
+        this.pageSize = pageSize;
     }
 
-    public static GitHubDao withClient(@NonNull final GitHub client) throws IOException {
-        GitHubDao ghd = new GitHubDao("");
-        ghd.client = client;
-        return ghd;
+    private static GitHubConnector connector(final GitHubRequestScheduler scheduler,
+                                             final GitHubResponseCache responseCache,
+                                             final MeterRegistry meterRegistry) {
+        final GitHubConnector metered = new MeteredGitHubConnector(GitHubConnector.DEFAULT, meterRegistry);
+        return new RateLimitedGitHubConnector(responseCache.isEnabled()
+                ? new CachingGitHubConnector(metered, responseCache)
+                : metered, scheduler);
+    }
+
+    public static GitHubDao withClient(@NonNull final GitHub client) {
+        return new GitHubDao(client, MAX_PAGE_SIZE);
     }
 
     public GHOrganization getOrg(@NonNull String orgName) {
         try {
-            log.debug(String.format("Getting org info from GitHub. Org name: [%s].", orgName));
+            log.debug("Getting org info from GitHub. Org name: [{}].", orgName);
             return client.getOrganization(orgName);
         } catch (IOException e) {
-            log.error(String.format("Failed getting org info from GitHub. Org name: [%s].", orgName), e);
+            log.error("Failed getting org info from GitHub. Org name: [{}].", orgName, e);
             throw new OrgNotFoundException(e);
         }
     }
 
     /**
-     * Obtains a list of all repositories we have access to. That means all public repositories and those private
-     * repositories that we are authorized to see.
+     * Lists all repositories we have access to, page by page. That means all public repositories and those private
+     * repositories that we are authorized to see. Nothing is requested until the first page is; every page is a single
+     * request for {@code github.list.page-size} repositories. That lets callers work on a page (e.g. fetch languages of
+     * its repos) while the next one is being listed, and never hold all of an org's repositories at once.
      * API description: https://docs.github.com/en/rest/repos/repos#list-organization-repositories
      *
-     * @return A list of all repositories that we have access to.
+     * @return Iterator over pages of repositories. {@link Iterator#hasNext()} and {@link Iterator#next()} make
+     *         requests to GitHub, so they block, and they throw {@link GitHubIoErrorException} if a request fails.
      */
-    public List<GHRepository> listOrgRepos(@NonNull GHOrganization organization) {
-        try {
-            log.debug("Getting a list of repos.");
-            return new ArrayList<>(organization.getRepositories().values());
-        } catch (IOException e) {
-            log.error("Failed getting a list of repos from GitHub.", e);
-            throw new GitHubIoErrorException(e);
-        }
+    public Iterator<List<GHRepository>> listOrgRepoPages(@NonNull GHOrganization organization) {
+        log.debug("Listing repos, {} per page.", pageSize);
+        final PagedIterator<GHRepository> repos = organization.listRepositories().withPageSize(pageSize).iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return repos.hasNext();
+                } catch (GHException | UncheckedIOException e) {
+                    log.error("Failed getting a page of repos from GitHub.", e);
+                    throw new GitHubIoErrorException(e);
+                }
+            }
+
+            @Override
+            public List<GHRepository> next() {
+                try {
+                    return repos.nextPage();
+                } catch (GHException | UncheckedIOException e) {
+                    log.error("Failed getting a page of repos from GitHub.", e);
+                    throw new GitHubIoErrorException(e);
+                }
+            }
+        };
     }
 
     /**
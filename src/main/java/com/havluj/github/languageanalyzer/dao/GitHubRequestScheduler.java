@@ -0,0 +1,371 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decides when requests to GitHub may be sent, so that a big refresh doesn't run out of API quota halfway through.
+ * Every HTTP request made by {@link GitHubDao} goes through {@link #acquire(Priority)} first, and every response is
+ * reported back through {@link #onResponse(int, Function, int)}.
+ * <ul>
+ *     <li>Requests are paced with a token bucket ({@code github.rate.requests-per-second}, with bursts of up to
+ *     {@code github.rate.burst} requests).</li>
+ *     <li>Remaining quota and the time it resets are tracked from GitHub's {@code x-ratelimit-*} response headers.
+ *     Once the quota is used up, requests wait for the reset.</li>
+ *     <li>A part of the quota ({@code github.rate.background-reserve}) is reserved for {@link Priority#INTERACTIVE}
+ *     requests. {@link Priority#BACKGROUND} requests never dip into it; they are spread evenly over the time left until
+ *     the reset instead, and they always yield to waiting interactive requests.</li>
+ *     <li>Secondary rate limits (429, or 403 with {@code Retry-After}) pause all requests for {@code Retry-After}, or
+ *     for an exponentially growing, jittered backoff ({@code github.rate.backoff}) if GitHub doesn't say.</li>
+ * </ul>
+ * The priority of requests already waiting can be raised (see {@link #promote(SharedPriority)}), e.g. once somebody
+ * starts waiting for a background refresh.
+ *
+ * Requests that would have to wait longer than {@code github.rate.max-wait} fail right away instead. Time spent waiting
+ * here doesn't count towards {@code github.fetch.timeout-ms} (see {@link GitHubCall}), so a fetch paced by a low quota
+ * doesn't time out; it's bounded by the max wait only.
+ *
+ * The priority of requests is taken from the calling thread (see {@link #callWithPriority(Priority, Supplier)}).
+ */
+@Component
+@Slf4j
+public class GitHubRequestScheduler {
+
+    public enum Priority {
+        /**
+         * Requests somebody is waiting for, e.g. the first request for an org's stats.
+         */
+        INTERACTIVE,
+        /**
+         * Refreshes of stats we already have.
+         */
+        BACKGROUND
+    }
+
+    /**
+     * Priority of all requests made for one fetch. Unlike a plain {@link Priority}, it can be raised while the requests
+     * are in flight (see {@link #promote(SharedPriority)}).
+     */
+    public static final class SharedPriority {
+
+        private volatile Priority priority; // written under lock
+
+        public SharedPriority(@NonNull final Priority priority) {
+            this.priority = priority;
+        }
+
+        public Priority get() {
+            return priority;
+        }
+    }
+
+    private static final ThreadLocal<SharedPriority> PRIORITY =
+            ThreadLocal.withInitial(() -> new SharedPriority(Priority.INTERACTIVE));
+
+    private final double requestsPerMs;
+    private final double burst;
+    private final double backgroundReserve;
+    private final int maxRetries;
+    private final long backoffMs;
+    private final long maxWaitMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // all guarded by lock
+    private double tokens;
+    private long refilledAt = System.currentTimeMillis();
+    private long lastBackgroundAt;
+    private int waitingInteractive;
+    private long pausedUntil;
+    private int limit = -1; // -1 until GitHub tells us
+    private int remaining = -1;
+    private long resetAt;
+
+    public GitHubRequestScheduler(@Value("${github.rate.requests-per-second:10}") final double requestsPerSecond,
+                                  @Value("${github.rate.burst:10}") final int burst,
+                                  @Value("${github.rate.background-reserve:0.1}") final double backgroundReserve,
+                                  @Value("${github.rate.max-retries:5}") final int maxRetries,
+                                  @Value("${github.rate.backoff:1s}") final Duration backoff,
+                                  @Value("${github.rate.max-wait:10m}") final Duration maxWait) {
+        if (requestsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("github.rate.requests-per-second and github.rate.burst have to be positive.");
+        }
+        if (backgroundReserve < 0 || backgroundReserve >= 1) {
+            throw new IllegalArgumentException("github.rate.background-reserve has to be in [0, 1).");
+        }
+        this.requestsPerMs = requestsPerSecond / 1000;
+        this.burst = burst;
+        this.tokens = burst;
+        this.backgroundReserve = backgroundReserve;
+        this.maxRetries = maxRetries;
+        this.backoffMs = backoff.toMillis();
+        this.maxWaitMs = maxWait.toMillis();
+    }
+
+    /**
+     * @return Priority of GitHub requests made by the current thread. {@link Priority#INTERACTIVE} unless set.
+     */
+    public static Priority currentPriority() {
+        return PRIORITY.get().get();
+    }
+
+    /**
+     * @return Priority of GitHub requests made by the current thread, as shared with the other threads of its fetch.
+     */
+    static SharedPriority currentSharedPriority() {
+        return PRIORITY.get();
+    }
+
+    /**
+     * Runs the supplier with GitHub requests made by the current thread marked with the given priority. Note that
+     * {@link AsyncGitHubDao} carries the priority over to the threads it runs requests on.
+     */
+    public static <T> T callWithPriority(@NonNull final Priority priority, @NonNull final Supplier<T> supplier) {
+        return callWithPriority(new SharedPriority(priority), supplier);
+    }
+
+    /**
+     * Same as {@link #callWithPriority(Priority, Supplier)}, with a priority that can be raised later on.
+     */
+    public static <T> T callWithPriority(@NonNull final SharedPriority priority, @NonNull final Supplier<T> supplier) {
+        final SharedPriority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+        try {
+            return supplier.get();
+        } finally {
+            PRIORITY.set(previous);
+        }
+    }
+
+    /**
+     * @return Task that runs the given task with the given priority (see
+     *         {@link #callWithPriority(SharedPriority, Supplier)}).
+     */
+    public static Runnable withPriority(@NonNull final SharedPriority priority, @NonNull final Runnable task) {
+        return () -> callWithPriority(priority, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Blocks until a request with the given priority may be sent.
+     *
+     * @return False if the request would have to wait longer than {@code github.rate.max-wait}. Nothing is acquired
+     *         in that case.
+     */
+    public boolean acquire(@NonNull final Priority priority) throws InterruptedException {
+        return acquire(new SharedPriority(priority));
+    }
+
+    /**
+     * Same as {@link #acquire(Priority)}. The priority is read again whenever the request wakes up, so a promoted
+     * request stops yielding to interactive ones right away.
+     */
+    public boolean acquire(@NonNull final SharedPriority sharedPriority) throws InterruptedException {
+        lock.lock();
+        boolean countedInteractive = false;
+        try {
+            while (true) {
+                final Priority priority = sharedPriority.get();
+                if (priority == Priority.INTERACTIVE && !countedInteractive) {
+                    waitingInteractive++;
+                    countedInteractive = true;
+                }
+                final long now = System.currentTimeMillis();
+                if (priority == Priority.BACKGROUND && waitingInteractive > 0) {
+                    changed.await();
+                    continue;
+                }
+                final long waitMs = waitTime(priority, now);
+                if (waitMs <= 0) {
+                    tokens -= 1;
+                    if (remaining > 0) {
+                        remaining--; // corrected by the response headers
+                    }
+                    if (priority == Priority.BACKGROUND) {
+                        lastBackgroundAt = now;
+                    }
+                    return true;
+                } else if (waitMs > maxWaitMs) {
+                    log.warn("GitHub request would have to wait {} ms for the rate limit. Giving up.", waitMs);
+                    return false;
+                }
+                changed.await(waitMs, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            if (countedInteractive) {
+                waitingInteractive--;
+                changed.signalAll();
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Raises the given priority to {@link Priority#INTERACTIVE}. Requests with that priority that are waiting in
+     * {@link #acquire(SharedPriority)} already are woken up and compete as interactive ones from then on.
+     *
+     * @return False if the priority was interactive already.
+     */
+    public boolean promote(@NonNull final SharedPriority priority) {
+        lock.lock();
+        try {
+            if (priority.priority == Priority.INTERACTIVE) {
+                return false;
+            }
+            priority.priority = Priority.INTERACTIVE;
+            changed.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the tracked quota from a response's headers and decides whether the request should be retried. Retries
+     * wait in {@link #acquire(Priority)} as usual, so the caller can send them right away.
+     *
+     * @param status HTTP status of the response.
+     * @param headers Looks up response headers by name. Returns null for missing headers.
+     * @param attempt Number of previous attempts of the same request.
+     * @return True if the request was rejected by a rate limit and should be retried.
+     */
+    public boolean onResponse(final int status, @NonNull final Function<String, String> headers, final int attempt) {
+        final long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            updateQuota(headers);
+            if (status != 403 && status != 429) {
+                return false;
+            }
+
+            final String retryAfter = headers.apply("retry-after");
+            if (retryAfter == null && "0".equals(headers.apply("x-ratelimit-remaining"))) {
+                // primary rate limit, acquire() waits for the reset
+                log.warn("GitHub API quota used up, it resets in {} ms.", resetAt - now);
+                return attempt < maxRetries;
+            } else if (retryAfter == null && status == 403) {
+                // a plain 403, e.g. a repo we don't have access to
+                return false;
+            } else if (attempt >= maxRetries) {
+                log.warn("Hit GitHub's secondary rate limit {} times in a row. Giving up.", attempt + 1);
+                return false;
+            }
+
+            final long backoff = retryAfterMs(retryAfter, attempt);
+            final long jittered = backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            pausedUntil = Math.max(pausedUntil, now + jittered);
+            log.warn("Hit GitHub's secondary rate limit. Pausing requests for {} ms.", jittered);
+            return true;
+        } finally {
+            changed.signalAll();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Remaining GitHub API quota, as of the last response. -1 if unknown.
+     */
+    public int getRemaining() {
+        lock.lock();
+        try {
+            return remaining;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Epoch millis of the time the GitHub API quota resets. 0 if unknown.
+     */
+    public long getResetAt() {
+        lock.lock();
+        try {
+            return resetAt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long waitTime(final Priority priority, final long now) {
+        tokens = Math.min(burst, tokens + (now - refilledAt) * requestsPerMs);
+        refilledAt = now;
+        if (resetAt != 0 && now >= resetAt) {
+            remaining = limit;
+            resetAt = 0;
+        }
+
+        long waitMs = Math.max(0, pausedUntil - now);
+        if (tokens < 1) {
+            waitMs = Math.max(waitMs, (long) Math.ceil((1 - tokens) / requestsPerMs));
+        }
+        if (remaining >= 0 && resetAt > now) {
+            if (priority == Priority.INTERACTIVE) {
+                if (remaining == 0) {
+                    waitMs = Math.max(waitMs, resetAt - now);
+                }
+            } else {
+                final long usable = remaining - (long) Math.ceil(limit * backgroundReserve);
+                if (usable <= 0) {
+                    waitMs = Math.max(waitMs, resetAt - now);
+                } else {
+                    // spread what's left evenly until the reset
+                    waitMs = Math.max(waitMs, lastBackgroundAt + (resetAt - now) / usable - now);
+                }
+            }
+        }
+        return waitMs;
+    }
+
+    private void updateQuota(final Function<String, String> headers) {
+        final Long newLimit = parseLong(headers.apply("x-ratelimit-limit"));
+        final Long newRemaining = parseLong(headers.apply("x-ratelimit-remaining"));
+        final Long newReset = parseLong(headers.apply("x-ratelimit-reset")); // epoch seconds
+        if (newLimit == null || newRemaining == null || newReset == null) {
+            return;
+        }
+
+        final long newResetAt = newReset * 1000L;
+        if (newResetAt == resetAt) {
+            // responses can arrive out of order, the lowest count is the most recent one
+            remaining = Math.min(remaining, newRemaining.intValue());
+        } else if (newResetAt > resetAt) {
+            remaining = newRemaining.intValue();
+            resetAt = newResetAt;
+        }
+        limit = newLimit.intValue();
+    }
+
+    private long retryAfterMs(final String retryAfter, final int attempt) {
+        if (retryAfter != null) {
+            final Long seconds = parseLong(retryAfter);
+            if (seconds != null) {
+                return seconds * 1000L;
+            }
+        }
+        return backoffMs << Math.min(attempt, 16);
+    }
+
+    private static Long parseLong(final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.mapdb.DB;
+import org.mapdb.DBException;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * On-disk cache of GitHub API responses, used to make conditional requests (see {@link CachingGitHubConnector}).
+ *
+ * Responses live in a MapDB file of their own ({@code github.cache.location}), separate from {@link StorageDao}'s:
+ * the cache can be thrown away at any time, so it doesn't need the write ahead log, and a cache file that didn't
+ * survive a crash is simply recreated. Once the file grows over {@code github.cache.max-size}, the least recently used
+ * responses are evicted.
+ *
+ * Responses are keyed by URL (and {@code Accept} header), not by token. The cache is meant for a single GitHub token,
+ * so delete the file when changing it to a token with different access.
+ */
+@Component
+@Slf4j
+public class GitHubResponseCache {
+
+    private static final String DB_HTREEMAP_NAME = "responses";
+
+    private final DB db;
+    private final HTreeMap<String, CachedGitHubResponse> responses;
+
+    public GitHubResponseCache(@Value("${github.cache.enabled:true}") final boolean enabled,
+                               @Value("${github.cache.location:${HOME}/githubCache.db}") final String location,
+                               @Value("${github.cache.max-size:256MB}") final DataSize maxSize,
+                               @Autowired final Environment env) {
+        if (!enabled) {
+            log.info("GitHub response cache is disabled.");
+            db = null;
+            responses = null;
+            return;
+        }
+
+        if (Arrays.asList(env.getActiveProfiles()).contains("test")) {
+            db = DBMaker.tempFileDB().make();
+        } else {
+            db = open(location);
+        }
+        responses = db.hashMap(DB_HTREEMAP_NAME)
+                .keySerializer(Serializer.STRING)
+                .valueSerializer(new CachedGitHubResponseSerializer())
+                // evicts least recently used responses once the file is over the limit
+                .expireStoreSize(maxSize.toBytes())
+                .expireAfterCreate()
+                .expireAfterUpdate()
+                .expireAfterGet()
+                .createOrOpen();
+        log.info(String.format("GitHub response cache holds %d responses.", responses.size()));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (db != null) {
+            log.info("Closing the GitHub response cache");
+            db.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return responses != null;
+    }
+
+    /**
+     * @return Cached response for the given key. Null if there is none (or the cache is disabled).
+     */
+    CachedGitHubResponse get(@NonNull final String key) {
+        return responses == null ? null : responses.get(key);
+    }
+
+    void put(@NonNull final String key, @NonNull final CachedGitHubResponse response) {
+        if (responses != null) {
+            responses.put(key, response);
+        }
+    }
+
+    /**
+     * @return Number of cached responses. 0 if the cache is disabled.
+     */
+    public int size() {
+        return responses == null ? 0 : responses.size();
+    }
+
+    private static DB open(final String location) {
+        try {
+            return make(location);
+        } catch (DBException e) {
+            // most likely the JVM was killed while writing; it's just a cache, so start over
+            log.warn(String.format("GitHub response cache at %s is broken. Recreating it.", location), e);
+            if (!new File(location).delete()) {
+                log.warn(String.format("Couldn't delete %s.", location));
+            }
+            return make(location);
+        }
+    }
+
+    private static DB make(final String location) {
+        return DBMaker.fileDB(location)
+                // see StorageDao
+                .closeOnJvmShutdown()
+                .fileMmapEnableIfSupported()
+                .make();
+    }
+}
@@ -0,0 +1,116 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Commits writes to a MapDB DB in groups. With the write ahead log, every commit is an fsync, so committing every write
+ * on its own makes a refresh of many orgs spend most of its time committing. Writes join the open transaction instead,
+ * which is committed once {@code maxPending} writes are pending or {@code maxDelay} after the first of them, whichever
+ * comes first (or whenever {@link #commit()} is called, e.g. at the end of a refresh run). A crash loses at most the
+ * writes of the last {@code maxDelay}.
+ */
+@Slf4j
+final class GroupCommitter {
+
+    private final Runnable commitAction;
+    private final IntConsumer onCommitted;
+    private final Duration maxDelay;
+    private final int maxPending;
+    private final ScheduledExecutorService committer;
+    /**
+     * Writes since the last commit, and the commit scheduled for them. Guarded by the lock of {@link #committer}.
+     */
+    private int pendingWrites;
+    private ScheduledFuture<?> scheduledCommit;
+
+    /**
+     * @param threadName Name of the thread running scheduled commits.
+     * @param commitAction Commits the DB, e.g. {@code db::commit}.
+     * @param onCommitted Called with the number of writes made durable by every commit.
+     */
+    GroupCommitter(@NonNull final String threadName, @NonNull final Runnable commitAction,
+                   @NonNull final IntConsumer onCommitted, @NonNull final Duration maxDelay, final int maxPending) {
+        this.commitAction = commitAction;
+        this.onCommitted = onCommitted;
+        this.maxDelay = maxDelay;
+        this.maxPending = maxPending;
+        committer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Commits all pending writes right away.
+     */
+    void commit() {
+        final int writes;
+        synchronized (committer) {
+            if (scheduledCommit != null) {
+                scheduledCommit.cancel(false);
+                scheduledCommit = null;
+            }
+            writes = pendingWrites;
+            pendingWrites = 0;
+        }
+        if (writes == 0) {
+            return;
+        }
+
+        // Outside of the lock, so that writers don't wait for the fsync. Every write counted above was made before
+        // this, so it's part of the commit; writes made in the meantime may be as well, and get committed (again) with
+        // the next group.
+        commitAction.run();
+        onCommitted.accept(writes);
+        log.debug("Committed {} writes.", writes);
+    }
+
+    /**
+     * Marks a write as pending. It's committed once {@code maxPending} writes are pending, or {@code maxDelay} after
+     * the first one.
+     */
+    void commitLater() {
+        synchronized (committer) {
+            pendingWrites++;
+            if (pendingWrites < maxPending) {
+                if (scheduledCommit == null) {
+                    scheduledCommit = committer.schedule(this::runScheduledCommit, maxDelay.toMillis(),
+                            TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        commit();
+    }
+
+    /**
+     * Commits all pending writes and stops scheduling commits.
+     */
+    void close() {
+        commit();
+        committer.shutdownNow();
+    }
+
+    int getPendingWrites() {
+        synchronized (committer) {
+            return pendingWrites;
+        }
+    }
+
+    private void runScheduledCommit() {
+        try {
+            commit();
+        } catch (RuntimeException e) {
+            log.error("Group commit failed.", e);
+        }
+    }
+}
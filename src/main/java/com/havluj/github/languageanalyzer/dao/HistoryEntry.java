@@ -0,0 +1,67 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Byte counts of an org's languages, as recorded in {@link StatsHistoryDao}. Either the counts themselves (a keyframe),
+ * or the difference to the counts recorded before (a delta), which is usually much smaller: most languages of an org
+ * don't change from one day to the next, and unchanged languages are left out of deltas entirely.
+ */
+@Value
+class HistoryEntry {
+
+    /**
+     * True if {@link #getByteCounts()} are absolute, false if they are differences to the previous entry.
+     */
+    boolean keyframe;
+    @NonNull
+    Map<String, Long> byteCounts;
+
+    static HistoryEntry keyframe(@NonNull final Map<String, Long> byteCounts) {
+        return new HistoryEntry(true, byteCounts);
+    }
+
+    /**
+     * @return Delta that turns the previous byte counts into the current ones. Languages that are gone get a negative
+     *         difference of all their bytes.
+     */
+    static HistoryEntry delta(@NonNull final Map<String, Long> previous, @NonNull final Map<String, Long> current) {
+        final Map<String, Long> diff = new HashMap<>();
+        current.forEach((language, bytes) -> {
+            final long change = bytes - previous.getOrDefault(language, 0L);
+            if (change != 0) {
+                diff.put(language, change);
+            }
+        });
+        previous.forEach((language, bytes) -> {
+            if (!current.containsKey(language)) {
+                diff.put(language, -bytes);
+            }
+        });
+        return new HistoryEntry(false, diff);
+    }
+
+    /**
+     * @param previous Absolute byte counts of the previous entry. Ignored if this is a keyframe.
+     * @return Absolute byte counts of this entry.
+     */
+    Map<String, Long> applyTo(final Map<String, Long> previous) {
+        if (keyframe) {
+            return byteCounts;
+        }
+        final Map<String, Long> res = new HashMap<>(previous);
+        byteCounts.forEach((language, change) -> {
+            final long bytes = res.getOrDefault(language, 0L) + change;
+            if (bytes == 0) {
+                res.remove(language);
+            } else {
+                res.put(language, bytes);
+            }
+        });
+        return res;
+    }
+}
@@ -0,0 +1,62 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.serializer.GroupSerializerObjectArray;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary MapDB serializer for {@link HistoryEntry}. Format (version 1), all numbers packed (variable length):
+ * <pre>
+ *     byte    format version
+ *     boolean keyframe
+ *     int     number of languages
+ *     for every language:
+ *         int     language ID + 1 (see {@link LanguageDictionary}), or 0 followed by the name as UTF
+ *         long    bytes (or change of bytes in a delta), zigzag encoded
+ * </pre>
+ * Zigzag encoding keeps small negative changes as short as small positive ones.
+ */
+class HistoryEntrySerializer extends GroupSerializerObjectArray<HistoryEntry> {
+
+    static final byte VERSION_1 = 1;
+
+    private final LanguageDictionary dictionary;
+
+    HistoryEntrySerializer(@NonNull final LanguageDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void serialize(@NonNull final DataOutput2 out, @NonNull final HistoryEntry value) throws IOException {
+        out.writeByte(VERSION_1);
+        out.writeBoolean(value.isKeyframe());
+        out.packInt(value.getByteCounts().size());
+        for (Map.Entry<String, Long> entry : value.getByteCounts().entrySet()) {
+            dictionary.write(out, entry.getKey());
+            out.packLong((entry.getValue() << 1) ^ (entry.getValue() >> 63));
+        }
+    }
+
+    @Override
+    public HistoryEntry deserialize(@NonNull final DataInput2 input, final int available) throws IOException {
+        final byte version = input.readByte();
+        if (version != VERSION_1) {
+            throw new IOException(String.format("Unsupported history entry format version: %d.", version));
+        }
+
+        final boolean keyframe = input.readBoolean();
+        final int size = input.unpackInt();
+        final Map<String, Long> byteCounts = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            final String language = dictionary.read(input);
+            final long zigzag = input.unpackLong();
+            byteCounts.put(language, (zigzag >>> 1) ^ -(zigzag & 1));
+        }
+        return new HistoryEntry(keyframe, byteCounts);
+    }
+}
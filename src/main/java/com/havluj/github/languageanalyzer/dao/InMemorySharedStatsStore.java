@@ -0,0 +1,81 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import lombok.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link SharedStatsStore} that lives in this process only. That's all a single instance needs: it's always the leader,
+ * and there is nobody to notify. Stats are kept by reference, so they don't take any memory on top of
+ * {@link StorageDao}'s.
+ *
+ * Several {@link StorageDao}s in one JVM can share an instance of this, the same way instances of the service share
+ * Redis, which is how tests exercise the sharing.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.shared.type", havingValue = "memory", matchIfMissing = true)
+public class InMemorySharedStatsStore implements SharedStatsStore {
+
+    private final Map<String, LanguageStats> stats = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private String leader;
+    private long leaseExpiresAt;
+
+    @Override
+    public void put(@NonNull final String orgName, @NonNull final LanguageStats stats) {
+        this.stats.put(orgName, stats);
+        for (Consumer<String> listener : listeners) {
+            listener.accept(orgName);
+        }
+    }
+
+    @Override
+    public LanguageStats get(@NonNull final String orgName) {
+        return stats.get(orgName);
+    }
+
+    @Override
+    public Map<String, LanguageStats> getAll() {
+        return new HashMap<>(stats);
+    }
+
+    /**
+     * Listeners are notified of every change, including the ones made by the {@link StorageDao} that registered them,
+     * as this store can't tell which one made it. {@link StorageDao} ignores stats it has already.
+     */
+    @Override
+    public void addChangeListener(@NonNull final Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public synchronized boolean tryLead(@NonNull final String instanceId, @NonNull final Duration lease) {
+        final long now = System.currentTimeMillis();
+        if (leader == null || leader.equals(instanceId) || leaseExpiresAt <= now) {
+            leader = instanceId;
+            leaseExpiresAt = now + lease.toMillis();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void resign(@NonNull final String instanceId) {
+        if (instanceId.equals(leader)) {
+            leader = null;
+        }
+    }
+
+    Map<String, LanguageStats> getStats() {
+        return stats;
+    }
+}
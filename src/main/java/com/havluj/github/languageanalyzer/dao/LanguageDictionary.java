@@ -0,0 +1,113 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns small, stable integer IDs to language names, so that stored stats don't have to repeat the same names over
+ * and over. IDs are dense (0, 1, 2, ...) and never reassigned. The assignments are written through to the given
+ * backing map, which is expected to be persisted (and committed) together with the stats that use them.
+ *
+ * Lookups are lock-free. Registering new languages is synchronized, but it only happens when GitHub reports a
+ * language we haven't seen before.
+ */
+class LanguageDictionary {
+
+    private final Map<String, Integer> persisted;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names;
+
+    LanguageDictionary(@NonNull final Map<String, Integer> persisted) {
+        this.persisted = persisted;
+        final int size = persisted.values().stream().mapToInt(id -> id + 1).max().orElse(0);
+        final String[] loaded = new String[size];
+        persisted.forEach((name, id) -> {
+            loaded[id] = name;
+            ids.put(name, id);
+        });
+        names = loaded;
+    }
+
+    /**
+     * @return ID of the language. Null if the language was never registered.
+     */
+    Integer idOf(@NonNull final String language) {
+        return ids.get(language);
+    }
+
+    /**
+     * @return Name of the language with the given ID (always the same instance). Null if there's no such ID.
+     */
+    String nameOf(final int id) {
+        final String[] current = names;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * Assigns IDs to all languages that don't have one yet.
+     */
+    synchronized void registerAll(@NonNull final Collection<String> languages) {
+        final String[] current = names;
+        final List<String> added = new ArrayList<>();
+        for (String language : languages) {
+            if (!ids.containsKey(language) && !added.contains(language)) {
+                added.add(language);
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+
+        final String[] extended = Arrays.copyOf(current, current.length + added.size());
+        for (int i = 0; i < added.size(); i++) {
+            extended[current.length + i] = added.get(i);
+            persisted.put(added.get(i), current.length + i);
+        }
+        // publish names before IDs, so that any ID a reader can see can also be resolved
+        names = extended;
+        for (int i = 0; i < added.size(); i++) {
+            ids.put(added.get(i), current.length + i);
+        }
+    }
+
+    /**
+     * Writes a reference to the language: its ID + 1, or 0 followed by the name as UTF if it has no ID.
+     */
+    void write(@NonNull final DataOutput2 out, @NonNull final String language) throws IOException {
+        final Integer id = idOf(language);
+        if (id != null) {
+            out.packInt(id + 1);
+        } else {
+            out.packInt(0);
+            out.writeUTF(language);
+        }
+    }
+
+    /**
+     * Reads a reference written by {@link #write(DataOutput2, String)}.
+     */
+    String read(@NonNull final DataInput2 input) throws IOException {
+        final int ref = input.unpackInt();
+        if (ref == 0) {
+            return input.readUTF();
+        }
+        final String language = nameOf(ref - 1);
+        if (language == null) {
+            throw new IOException(String.format("Unknown language ID: %d.", ref - 1));
+        }
+        return language;
+    }
+
+    int size() {
+        return names.length;
+    }
+}
@@ -0,0 +1,119 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import lombok.NonNull;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary MapDB serializer for {@link LanguageStats}. Replaces {@code Serializer.JAVA}, which wrote the class
+ * descriptors of the map and every string into each value and was slow to read back.
+ *
+ * Format (version 2), all numbers packed (variable length):
+ * <pre>
+ *     byte    format version
+ *     long    updatedAt
+ *     int     number of languages
+ *     for every language:
+ *         int     language ID + 1 (see {@link LanguageDictionary}), or 0 followed by the name as UTF
+ *         long    percentage as fixed point with 2 decimal places, shifted left by 1
+ *                 (or 1 followed by the percentage as UTF, if it's not in that format)
+ *     int     number of byte counts
+ *     for every byte count:
+ *         int     language, same as above
+ *         long    bytes
+ * </pre>
+ * Percentages are computed with 2 decimal places, so the string fallback only exists to never lose data. Version 1 is
+ * the same without the byte counts; values in that format are still read (with no byte counts), and rewritten in
+ * version 2 once the stats are refreshed.
+ */
+class LanguageStatsSerializer implements Serializer<LanguageStats> {
+
+    static final byte VERSION_1 = 1;
+    static final byte VERSION_2 = 2;
+    private static final int PERCENTAGE_SCALE = 2;
+
+    private final LanguageDictionary dictionary;
+
+    LanguageStatsSerializer(@NonNull final LanguageDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void serialize(@NonNull final DataOutput2 out, @NonNull final LanguageStats value) throws IOException {
+        out.writeByte(VERSION_2);
+        out.packLong(value.getUpdatedAt());
+        out.packInt(value.getLanguageMap().size());
+        for (Map.Entry<String, String> entry : value.getLanguageMap().entrySet()) {
+            dictionary.write(out, entry.getKey());
+
+            final Long fixedPoint = toFixedPoint(entry.getValue());
+            if (fixedPoint != null) {
+                out.packLong(fixedPoint << 1);
+            } else {
+                out.packLong(1);
+                out.writeUTF(entry.getValue());
+            }
+        }
+
+        out.packInt(value.getByteCounts().size());
+        for (Map.Entry<String, Long> entry : value.getByteCounts().entrySet()) {
+            dictionary.write(out, entry.getKey());
+            out.packLong(entry.getValue());
+        }
+    }
+
+    @Override
+    public LanguageStats deserialize(@NonNull final DataInput2 input, final int available) throws IOException {
+        final byte version = input.readByte();
+        if (version != VERSION_1 && version != VERSION_2) {
+            throw new IOException(String.format("Unsupported language stats format version: %d.", version));
+        }
+
+        final long updatedAt = input.unpackLong();
+        final int size = input.unpackInt();
+        final Map<String, String> languageMap = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            final String language = dictionary.read(input);
+            final long percentage = input.unpackLong();
+            if ((percentage & 1) == 0) {
+                languageMap.put(language, BigDecimal.valueOf(percentage >>> 1, PERCENTAGE_SCALE).toPlainString());
+            } else {
+                languageMap.put(language, input.readUTF());
+            }
+        }
+        if (version == VERSION_1) {
+            return new LanguageStats(languageMap, updatedAt);
+        }
+
+        final int byteCountsSize = input.unpackInt();
+        final Map<String, Long> byteCounts = new HashMap<>(byteCountsSize * 4 / 3 + 1);
+        for (int i = 0; i < byteCountsSize; i++) {
+            final String language = dictionary.read(input);
+            byteCounts.put(language, input.unpackLong());
+        }
+        return new LanguageStats(languageMap, byteCounts, updatedAt);
+    }
+
+    /**
+     * @return The percentage as a fixed point number, if it can be restored to the exact same string. Null otherwise.
+     */
+    private static Long toFixedPoint(final String percentage) {
+        try {
+            final BigDecimal num = new BigDecimal(percentage);
+            if (num.scale() != PERCENTAGE_SCALE || num.signum() < 0
+                    || !num.toPlainString().equals(percentage)) {
+                return null;
+            }
+            return num.unscaledValue().longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+    }
+}
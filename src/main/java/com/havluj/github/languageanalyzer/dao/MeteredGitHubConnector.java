@@ -0,0 +1,75 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.NonNull;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+import org.springframework.boot.actuate.metrics.http.Outcome;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Times every HTTP request the GitHub client sends ({@code github.requests}), tagged by endpoint, status and outcome,
+ * so that latency and error rate can be watched per endpoint. It sits right above the HTTP client, below retries and
+ * the response cache, so every attempt is recorded once, 304 Not Modified responses included.
+ *
+ * Endpoints are tagged by their path template (e.g. {@code /repos/{owner}/{repo}/languages}), not by the actual path,
+ * to keep the number of time series independent of the number of orgs and repos.
+ */
+class MeteredGitHubConnector implements GitHubConnector {
+
+    static final String METRIC_NAME = "github.requests";
+    private static final String OTHER_ENDPOINT = "other";
+    /**
+     * Path templates of the endpoints we call. Matched against the end of the path, so that an endpoint with a path
+     * prefix (GitHub Enterprise's {@code /api/v3}) is tagged the same way.
+     */
+    private static final List<Map.Entry<Pattern, String>> ENDPOINTS = List.of(
+            Map.entry(Pattern.compile(".*/orgs/[^/]+"), "/orgs/{org}"),
+            Map.entry(Pattern.compile(".*/(orgs|users)/[^/]+/repos"), "/orgs/{org}/repos"),
+            Map.entry(Pattern.compile(".*/repos/[^/]+/[^/]+/languages"), "/repos/{owner}/{repo}/languages"),
+            Map.entry(Pattern.compile(".*/rate_limit"), "/rate_limit"));
+
+    private final GitHubConnector delegate;
+    private final MeterRegistry meterRegistry;
+
+    MeteredGitHubConnector(@NonNull final GitHubConnector delegate, @NonNull final MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GitHubConnectorResponse send(final GitHubConnectorRequest request) throws IOException {
+        final Timer.Sample sample = Timer.start(meterRegistry);
+        String status = "IO_ERROR";
+        String outcome = Outcome.UNKNOWN.name();
+        try {
+            final GitHubConnectorResponse response = delegate.send(request);
+            status = Integer.toString(response.statusCode());
+            outcome = Outcome.forStatus(response.statusCode()).name();
+            return response;
+        } finally {
+            sample.stop(Timer.builder(METRIC_NAME)
+                    .description("HTTP requests sent to the GitHub API")
+                    .tag("endpoint", endpointOf(request.url().getPath()))
+                    .tag("method", request.method())
+                    .tag("status", status)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    static String endpointOf(final String path) {
+        for (Map.Entry<Pattern, String> endpoint : ENDPOINTS) {
+            if (endpoint.getKey().matcher(path).matches()) {
+                return endpoint.getValue();
+            }
+        }
+        return OTHER_ENDPOINT;
+    }
+}
@@ -0,0 +1,72 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Sends every HTTP request of the GitHub client through {@link GitHubRequestScheduler}, and retries requests that
+ * were rejected by a rate limit. Works on the HTTP level, so paged listings wait for every page, not just the first
+ * one.
+ *
+ * Requests of a {@link GitHubCall} that is over (timed out or cancelled) are not sent, even if they were already
+ * waiting for the rate limit, and the call's timer is stopped while its requests wait.
+ */
+@Slf4j
+class RateLimitedGitHubConnector implements GitHubConnector {
+
+    private final GitHubConnector delegate;
+    private final GitHubRequestScheduler scheduler;
+
+    RateLimitedGitHubConnector(@NonNull final GitHubConnector delegate,
+                               @NonNull final GitHubRequestScheduler scheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public GitHubConnectorResponse send(final GitHubConnectorRequest request) throws IOException {
+        final GitHubRequestScheduler.SharedPriority priority = GitHubRequestScheduler.currentSharedPriority();
+        final GitHubCall<?> call = GitHubCall.current();
+        for (int attempt = 0; ; attempt++) {
+            checkNotDone(call, request);
+            if (call != null) {
+                call.pause();
+            }
+            try {
+                if (!scheduler.acquire(priority)) {
+                    throw new IOException("GitHub API rate limit exceeded.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the GitHub API rate limit.");
+            } finally {
+                if (call != null) {
+                    call.resume();
+                }
+            }
+            // the call may have been cancelled while waiting
+            checkNotDone(call, request);
+
+            final GitHubConnectorResponse response = delegate.send(request);
+            if (!scheduler.onResponse(response.statusCode(), response::header, attempt)) {
+                return response;
+            }
+            log.debug("Retrying {} (attempt {}).", request.url(), attempt + 2);
+            response.close();
+        }
+    }
+
+    private static void checkNotDone(final GitHubCall<?> call, final GitHubConnectorRequest request)
+            throws IOException {
+        if (call != null && call.isDone()) {
+            log.debug("Not sending {}, its call is over.", request.url());
+            throw new IOException("GitHub call is over (timed out or cancelled), the request was not sent.");
+        }
+    }
+}
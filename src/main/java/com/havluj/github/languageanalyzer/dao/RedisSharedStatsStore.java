@@ -0,0 +1,184 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link SharedStatsStore} in Redis (or anything speaking its protocol), configured by Spring's {@code spring.redis.*}
+ * properties:
+ * <ul>
+ *     <li>Stats of all orgs are in a single hash ({@code <prefix>stats}), keyed by org name, in the same binary
+ *     format as on disk (see {@link LanguageStatsSerializer}), only with language names written out, as the
+ *     dictionaries of the instances differ.</li>
+ *     <li>Every put is announced on a pub/sub channel ({@code <prefix>stats-changed}) as the ID of the sending
+ *     instance followed by the org name, so that instances skip their own announcements.</li>
+ *     <li>The leader lease is a key ({@code <prefix>refresh-leader}) holding the leader's ID, with an expiry. It's
+ *     set only if missing, and renewed or deleted only by its holder (checked atomically by a script).</li>
+ * </ul>
+ * Pub/sub doesn't queue messages for disconnected subscribers; an instance that was disconnected catches up on its
+ * next start (see {@link StorageDao#loadAllLanguageStats()}) or when it next misses an org.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.shared.type", havingValue = "redis")
+@Slf4j
+public class RedisSharedStatsStore implements SharedStatsStore {
+
+    private static final RedisScript<Long> RENEW_LEASE = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) "
+                    + "else return 0 end", Long.class);
+    private static final RedisScript<Long> RELEASE_LEASE = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final String statsKey;
+    private final String leaderKey;
+    private final String channel;
+    /**
+     * Identifies this store's announcements. Not the same as the instance ID used for the lease, which belongs to the
+     * caller.
+     */
+    private final String senderId = UUID.randomUUID().toString();
+    private final RedisTemplate<String, byte[]> redis;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * Writes all language names out, so that any instance can read the stats.
+     */
+    private final LanguageStatsSerializer serializer =
+            new LanguageStatsSerializer(new LanguageDictionary(new HashMap<>()));
+
+    public RedisSharedStatsStore(@Autowired final RedisConnectionFactory connectionFactory,
+                                 @Value("${storage.shared.redis.key-prefix:languageanalyzer:}")
+                                 final String keyPrefix) {
+        statsKey = keyPrefix + "stats";
+        leaderKey = keyPrefix + "refresh-leader";
+        channel = keyPrefix + "stats-changed";
+
+        redis = new RedisTemplate<>();
+        redis.setConnectionFactory(connectionFactory);
+        redis.setKeySerializer(RedisSerializer.string());
+        redis.setValueSerializer(RedisSerializer.byteArray());
+        redis.setHashKeySerializer(RedisSerializer.string());
+        redis.setHashValueSerializer(RedisSerializer.byteArray());
+        redis.afterPropertiesSet();
+
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.addMessageListener((message, pattern) -> onMessage(message.getBody()),
+                new ChannelTopic(channel));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+        log.info("Sharing stats through Redis, under {}.", statsKey);
+    }
+
+    @PreDestroy
+    public void destroy() throws Exception {
+        listenerContainer.destroy();
+    }
+
+    @Override
+    public void put(@NonNull final String orgName, @NonNull final LanguageStats stats) {
+        hash().put(statsKey, orgName, serialize(stats));
+        redis.convertAndSend(channel, (senderId + " " + orgName).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public LanguageStats get(@NonNull final String orgName) {
+        final byte[] stats = hash().get(statsKey, orgName);
+        return stats == null ? null : deserialize(stats);
+    }
+
+    @Override
+    public Map<String, LanguageStats> getAll() {
+        final Map<String, LanguageStats> res = new HashMap<>();
+        hash().entries(statsKey).forEach((orgName, stats) -> res.put(orgName, deserialize(stats)));
+        return res;
+    }
+
+    @Override
+    public void addChangeListener(@NonNull final Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean tryLead(@NonNull final String instanceId, @NonNull final Duration lease) {
+        final byte[] id = instanceId.getBytes(StandardCharsets.UTF_8);
+        if (Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(leaderKey, id, lease))) {
+            return true;
+        }
+        final Long renewed = redis.execute(RENEW_LEASE, List.of(leaderKey), id,
+                Long.toString(lease.toMillis()).getBytes(StandardCharsets.UTF_8));
+        return renewed != null && renewed == 1;
+    }
+
+    @Override
+    public void resign(@NonNull final String instanceId) {
+        redis.execute(RELEASE_LEASE, List.of(leaderKey), instanceId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void onMessage(final byte[] body) {
+        final String message = new String(body, StandardCharsets.UTF_8);
+        final int separator = message.indexOf(' ');
+        if (separator < 0 || message.substring(0, separator).equals(senderId)) {
+            return;
+        }
+        final String orgName = message.substring(separator + 1);
+        log.debug("Stats of {} were changed by another instance.", orgName);
+        for (Consumer<String> listener : listeners) {
+            try {
+                listener.accept(orgName);
+            } catch (RuntimeException e) {
+                log.error("Handling a change of {}'s stats failed.", orgName, e);
+            }
+        }
+    }
+
+    private HashOperations<String, String, byte[]> hash() {
+        return redis.opsForHash();
+    }
+
+    private byte[] serialize(final LanguageStats stats) {
+        try {
+            final DataOutput2 out = new DataOutput2();
+            serializer.serialize(out, stats);
+            return out.copyBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private LanguageStats deserialize(final byte[] stats) {
+        try {
+            return serializer.deserialize(new DataInput2.ByteArray(stats), stats.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Storage tier shared by all instances of the service, behind every instance's own {@link StorageDao}. Stats stored by
+ * any instance are put here, and the other instances are notified about them, so that all instances serve the same
+ * stats while only one of them crawls GitHub. It also holds the lease that decides which instance that is.
+ *
+ * Picked by {@code storage.shared.type}: {@code memory} (default) is a single instance on its own, {@code redis}
+ * shares stats between instances through Redis.
+ */
+public interface SharedStatsStore {
+
+    /**
+     * Stores stats of an org and notifies the other instances about them.
+     */
+    void put(String orgName, LanguageStats stats);
+
+    /**
+     * @return Stats of the org. Null if no instance has stored any.
+     */
+    LanguageStats get(String orgName);
+
+    /**
+     * @return Stats of all orgs stored by any instance.
+     */
+    Map<String, LanguageStats> getAll();
+
+    /**
+     * Registers a listener that is called with the name of every org whose stats were stored by another instance.
+     * Stores may report changes made by this instance as well, so listeners have to tolerate those.
+     */
+    void addChangeListener(Consumer<String> listener);
+
+    /**
+     * Acquires the leader lease for the given instance, or renews it if the instance holds it already. The lease
+     * expires unless it's renewed within the given duration.
+     *
+     * @return True if the instance holds the lease now.
+     */
+    boolean tryLead(String instanceId, Duration lease);
+
+    /**
+     * Releases the leader lease, if the given instance holds it.
+     */
+    void resign(String instanceId);
+}
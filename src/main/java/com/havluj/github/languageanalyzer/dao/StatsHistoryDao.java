@@ -0,0 +1,208 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.HistoryResolution;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.mapdb.serializer.SerializerArrayTuple;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Append-only history of language stats: the byte counts of every org, as recorded on every day it was refreshed (days
+ * are in UTC). {@link StorageDao} only keeps the latest stats of every org; this is what answers how they changed.
+ *
+ * History lives in a MapDB file of its own ({@code stats.history.location}), in three sorted maps (BTreeMaps) keyed by
+ * org and day, so that the history of an org over a range of days is a single range scan:
+ * <ul>
+ *     <li>Days. The first day recorded in every week is a keyframe with all byte counts; the other days of the week
+ *     only store how the byte counts changed since the day before (see {@link HistoryEntry}). Reading a day never
+ *     needs more than the days since the start of its week.</li>
+ *     <li>Weeks and months, rolled up upon every record: the last byte counts recorded in the period, keyed by the
+ *     first day of the period. Long ranges are served from these without touching the days at all.</li>
+ * </ul>
+ * Recording a day again (e.g. after a manual refresh) replaces what was recorded for it before. Days before the last
+ * recorded one are never rewritten, so the deltas that follow stay valid.
+ *
+ * Records are group committed the same way as stats are (see {@link GroupCommitter}, with the same
+ * {@code db.commit.*} settings), and at the end of every refresh run (see {@link #commit()}), so a refresh doesn't
+ * cost an fsync per org. A crash loses at most the records of the last {@code db.commit.max-delay}; unlike stats,
+ * those days are not recorded again until the orgs are refreshed the next time.
+ */
+@Service
+@Slf4j
+public class StatsHistoryDao {
+
+    private static final String DB_LANGUAGES_HTREEMAP_NAME = "languages";
+    private static final String DB_DAYS_TREEMAP_NAME = "days";
+    private static final String DB_WEEKS_TREEMAP_NAME = "weeks";
+    private static final String DB_MONTHS_TREEMAP_NAME = "months";
+
+    private final DB db;
+    private final LanguageDictionary languageDictionary;
+    private final BTreeMap<Object[], HistoryEntry> days;
+    private final BTreeMap<Object[], HistoryEntry> weeks;
+    private final BTreeMap<Object[], HistoryEntry> months;
+    private final GroupCommitter committer;
+
+    public StatsHistoryDao(@Value("${stats.history.location:${HOME}/languageStatsHistory.db}") final String location,
+                           @Value("${db.commit.max-delay:1s}") final Duration commitMaxDelay,
+                           @Value("${db.commit.max-pending:100}") final int commitMaxPending,
+                           @Autowired final Environment env) {
+        DBMaker.Maker dbBuilder;
+        if (Arrays.asList(env.getActiveProfiles()).contains("test")) {
+            dbBuilder = DBMaker.tempFileDB();
+        } else {
+            dbBuilder = DBMaker.fileDB(location);
+        }
+        db = dbBuilder
+                // see StorageDao; unlike GitHubResponseCache, history can't be recreated, so it's worth the WAL
+                .transactionEnable()
+                .closeOnJvmShutdown()
+                .fileMmapEnableIfSupported()
+                .make();
+        committer = new GroupCommitter("history-commit", db::commit, writes -> {
+        }, commitMaxDelay, commitMaxPending);
+
+        languageDictionary = new LanguageDictionary(db
+                .hashMap(DB_LANGUAGES_HTREEMAP_NAME, Serializer.STRING, Serializer.INTEGER)
+                .createOrOpen());
+        days = createPeriodMap(DB_DAYS_TREEMAP_NAME);
+        weeks = createPeriodMap(DB_WEEKS_TREEMAP_NAME);
+        months = createPeriodMap(DB_MONTHS_TREEMAP_NAME);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        committer.close();
+        log.info("Closing the history DB");
+        db.close();
+    }
+
+    /**
+     * Commits all pending records to disk right away, e.g. at the end of a refresh run.
+     */
+    public void commit() {
+        committer.commit();
+    }
+
+    /**
+     * Records the byte counts of the given stats as the org's history for today.
+     */
+    public void record(@NonNull final String orgName, @NonNull final LanguageStats stats) {
+        record(orgName, stats.getByteCounts(), LocalDate.now(ZoneOffset.UTC));
+    }
+
+    synchronized void record(@NonNull final String orgName, @NonNull final Map<String, Long> byteCounts,
+                             @NonNull final LocalDate day) {
+        final Map.Entry<Object[], HistoryEntry> last = days.floorEntry(key(orgName, LocalDate.MAX));
+        if (last != null && orgName.equals(last.getKey()[0]) && (Long) last.getKey()[1] > day.toEpochDay()) {
+            log.warn("History of {} is recorded up to {} already, not recording {}.", orgName,
+                    LocalDate.ofEpochDay((Long) last.getKey()[1]), day);
+            return;
+        }
+
+        final LocalDate week = HistoryResolution.WEEK.periodOf(day);
+        Map<String, Long> previous = null;
+        for (HistoryEntry entry : days.subMap(key(orgName, week), true, key(orgName, day), false).values()) {
+            previous = entry.applyTo(previous);
+        }
+        final HistoryEntry keyframe = HistoryEntry.keyframe(byteCounts);
+
+        languageDictionary.registerAll(byteCounts.keySet());
+        days.put(key(orgName, day), previous == null ? keyframe : HistoryEntry.delta(previous, byteCounts));
+        weeks.put(key(orgName, week), keyframe);
+        months.put(key(orgName, HistoryResolution.MONTH.periodOf(day)), keyframe);
+        committer.commitLater();
+    }
+
+    /**
+     * Reads the history of an org between two days (both included) at the given resolution.
+     *
+     * @return Map of the first day of every period to the last byte counts recorded in it, sorted by day. Periods
+     *         without records are missing. Weeks and months the range starts in the middle of are included.
+     */
+    public NavigableMap<LocalDate, Map<String, Long>> getHistory(@NonNull final String orgName,
+                                                                 @NonNull final LocalDate from,
+                                                                 @NonNull final LocalDate to,
+                                                                 @NonNull final HistoryResolution resolution) {
+        final NavigableMap<LocalDate, Map<String, Long>> res = new TreeMap<>();
+        if (from.isAfter(to)) {
+            return res;
+        }
+
+        switch (resolution) {
+            case DAY:
+                // deltas are applied from the keyframe at the start of the week
+                Map<String, Long> byteCounts = null;
+                for (Map.Entry<Object[], HistoryEntry> entry : range(days, orgName,
+                        HistoryResolution.WEEK.periodOf(from), to).entrySet()) {
+                    byteCounts = entry.getValue().applyTo(byteCounts);
+                    final LocalDate day = dayOf(entry.getKey());
+                    if (!day.isBefore(from)) {
+                        res.put(day, Collections.unmodifiableMap(byteCounts));
+                    }
+                }
+                break;
+            case WEEK:
+                range(weeks, orgName, resolution.periodOf(from), to)
+                        .forEach((key, entry) -> res.put(dayOf(key), entry.getByteCounts()));
+                break;
+            case MONTH:
+                range(months, orgName, resolution.periodOf(from), to)
+                        .forEach((key, entry) -> res.put(dayOf(key), entry.getByteCounts()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown resolution: " + resolution);
+        }
+        return res;
+    }
+
+    BTreeMap<Object[], HistoryEntry> getDays() {
+        return days;
+    }
+
+    BTreeMap<Object[], HistoryEntry> getWeeks() {
+        return weeks;
+    }
+
+    BTreeMap<Object[], HistoryEntry> getMonths() {
+        return months;
+    }
+
+    private static Map<Object[], HistoryEntry> range(final BTreeMap<Object[], HistoryEntry> map, final String orgName,
+                                                     final LocalDate from, final LocalDate to) {
+        return map.subMap(key(orgName, from), true, key(orgName, to), true);
+    }
+
+    private static Object[] key(final String orgName, final LocalDate day) {
+        return new Object[]{orgName, day.toEpochDay()};
+    }
+
+    private static LocalDate dayOf(final Object[] key) {
+        return LocalDate.ofEpochDay((Long) key[1]);
+    }
+
+    private BTreeMap<Object[], HistoryEntry> createPeriodMap(final String name) {
+        return db.treeMap(name)
+                .keySerializer(new SerializerArrayTuple(Serializer.STRING, Serializer.LONG))
+                .valueSerializer(new HistoryEntrySerializer(languageDictionary))
+                .createOrOpen();
+    }
+}
@@ -0,0 +1,251 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import lombok.NonNull;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable file with stats of many orgs, memory-mapped for reading. Lookups binary search the index right in the
+ * mapped buffer, and only the record of the requested org is decoded, so opening the file costs nothing no matter
+ * how many orgs it holds, and nothing is read from it until an org is requested.
+ *
+ * Format (version 1), numbers in big endian:
+ * <pre>
+ *     int     magic
+ *     int     format version
+ *     int     number of orgs
+ *     int[]   offsets of the records, sorted by org name (by its UTF-8 bytes)
+ *     for every org:
+ *         short   length of the org name
+ *         byte[]  org name, UTF-8
+ *         long    updatedAt, so that it can be read without decoding the stats
+ *         int     length of the stats
+ *         byte[]  stats, see {@link LanguageStatsSerializer}, with language names written out
+ * </pre>
+ * Files are replaced as a whole (see {@link #write(Path, Map)}), never modified. A replaced file stays mapped (and
+ * readable) until it's garbage collected.
+ */
+class StatsSnapshotFile {
+
+    static final int MAGIC = 0x4c415353; // "LASS"
+    static final int VERSION_1 = 1;
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Writes all language names out, so that the file can be read without the dictionary of the DB.
+     */
+    private static final LanguageStatsSerializer SERIALIZER =
+            new LanguageStatsSerializer(new LanguageDictionary(new HashMap<>()));
+
+    private final ByteBuffer buffer;
+    private final int size;
+
+    private StatsSnapshotFile(final ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a stats snapshot file.");
+        }
+        if (buffer.getInt(4) != VERSION_1) {
+            throw new IOException(String.format("Unsupported stats snapshot format version: %d.", buffer.getInt(4)));
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+    }
+
+    /**
+     * Maps an existing file into memory.
+     */
+    static StatsSnapshotFile open(@NonNull final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StatsSnapshotFile(buffer);
+        }
+    }
+
+    /**
+     * Writes stats of the given orgs into a new file, which then atomically replaces the one at the given path. The
+     * file is synced to disk before that, so the path holds either the previous file or the complete new one.
+     */
+    static void write(@NonNull final Path path, @NonNull final Map<String, LanguageStats> stats) throws IOException {
+        write(path, stats.entrySet());
+    }
+
+    /**
+     * Same as {@link #write(Path, Map)}, for stats read one org at a time (e.g. while iterating over a map on disk).
+     * Records are streamed into a temporary file as they come, so only the names of the orgs (and the positions of
+     * their records) are kept on heap, never the stats of all orgs. The sorted index is written in front of them
+     * once all orgs are known.
+     */
+    static void write(@NonNull final Path path,
+                      @NonNull final Iterable<? extends Map.Entry<String, LanguageStats>> stats) throws IOException {
+        final Path recordsTmp = path.resolveSibling(path.getFileName() + ".records.tmp");
+        try {
+            final List<IndexEntry> index = new ArrayList<>();
+            int recordsSize = 0;
+            try (DataOutputStream records = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                    recordsTmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)))) {
+                final DataOutput2 value = new DataOutput2();
+                for (Map.Entry<String, LanguageStats> entry : stats) {
+                    final byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    value.pos = 0;
+                    SERIALIZER.serialize(value, entry.getValue());
+
+                    index.add(new IndexEntry(name, recordsSize));
+                    records.writeShort(name.length);
+                    records.write(name);
+                    records.writeLong(entry.getValue().getUpdatedAt());
+                    records.writeInt(value.pos);
+                    records.write(value.buf, 0, value.pos);
+                    recordsSize += 2 + name.length + 8 + 4 + value.pos;
+                }
+            }
+            index.sort((a, b) -> Arrays.compareUnsigned(a.name, b.name));
+
+            final int recordsStart = HEADER_SIZE + 4 * index.size();
+            final ByteBuffer header = ByteBuffer.allocate(recordsStart);
+            header.putInt(MAGIC).putInt(VERSION_1).putInt(index.size());
+            for (IndexEntry entry : index) {
+                header.putInt(recordsStart + entry.position);
+            }
+            header.flip();
+
+            final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                 FileChannel body = FileChannel.open(recordsTmp, StandardOpenOption.READ)) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                long copied = 0;
+                while (copied < recordsSize) {
+                    copied += body.transferTo(copied, recordsSize - copied, channel);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(recordsTmp);
+        }
+    }
+
+    /**
+     * @return Number of orgs in the file.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return Stats of the org, decoded from the file. Null if the org is not in the file.
+     */
+    LanguageStats get(@NonNull final String orgName) throws IOException {
+        final int record = find(orgName);
+        if (record < 0) {
+            return null;
+        }
+        final int statsStart = record + 2 + buffer.getShort(record) + 8;
+        return SERIALIZER.deserialize(new DataInput2.ByteBuffer(buffer, statsStart + 4), buffer.getInt(statsStart));
+    }
+
+    /**
+     * @return Time the org's stats were stored at (see {@link LanguageStats#getUpdatedAt()}), without decoding them.
+     *         -1 if the org is not in the file.
+     */
+    long getUpdatedAt(@NonNull final String orgName) {
+        final int record = find(orgName);
+        return record < 0 ? -1 : buffer.getLong(record + 2 + buffer.getShort(record));
+    }
+
+    /**
+     * @return Names of all orgs in the file, sorted.
+     */
+    List<String> getOrgNames() {
+        final List<String> res = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            res.add(nameAt(recordOffset(i)));
+        }
+        return res;
+    }
+
+    /**
+     * @return Offset of the org's record. -1 if the org is not in the file.
+     */
+    private int find(final String orgName) {
+        final byte[] name = orgName.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int record = recordOffset(mid);
+            final int cmp = compareName(record, name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the name of the record at the given offset with the given name, byte by byte in the buffer.
+     */
+    private int compareName(final int record, final byte[] name) {
+        final int length = buffer.getShort(record);
+        final int common = Math.min(length, name.length);
+        for (int i = 0; i < common; i++) {
+            final int cmp = Byte.compareUnsigned(buffer.get(record + 2 + i), name[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, name.length);
+    }
+
+    private int recordOffset(final int idx) {
+        return buffer.getInt(HEADER_SIZE + 4 * idx);
+    }
+
+    private String nameAt(final int record) {
+        final byte[] name = new byte[buffer.getShort(record)];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = buffer.get(record + 2 + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Position of an org's record among the records, kept while writing a file.
+     */
+    private static final class IndexEntry {
+
+        private final byte[] name;
+        private final int position;
+
+        private IndexEntry(final byte[] name, final int position) {
+            this.name = name;
+            this.position = position;
+        }
+    }
+}
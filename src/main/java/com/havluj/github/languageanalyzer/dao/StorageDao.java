@@ -1,6 +1,14 @@
 package com.havluj.github.languageanalyzer.dao;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
+import com.havluj.github.languageanalyzer.model.RepoSnapshot;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
@@ -11,43 +19,212 @@ import org.mapdb.Serializer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /**
  * DAO to store language stats in memory and on disk. The DAO will always try to return data from memory when it's
  * there, otherwise data will be reloaded form disk.
  *
  * Implementation wise, we use MapDB's HTreeMaps to store our data. They are thread-safe (it employs read-write locks)
- * and scale under parallel updates. Because of that, we don't need to synchronize access in this DAO.
+ * and scale under parallel updates. Because of that, we don't need to synchronize access in this DAO. The maps are
+ * opened once, upon construction.
  *
- * We also employ MapDB's eviction strategies. All data will be evicted after 25 hrs (which should never happen when
- * the server is up and running), but it's useful upon startup.
+ * Reads don't go to MapDB at all once an org's stats are in memory, though: stats are also kept deserialized in a
+ * cache on heap (the hot tier), so a read is a hash lookup, without locking or deserializing anything. MapDB stays the
+ * durable tier, and the fallback for orgs that are not in the hot tier.
+ *
+ * Memory is bounded, no matter how many orgs are registered:
+ * <ul>
+ *     <li>The hot tier (deserialized stats, and their JSON, see below) is a Caffeine cache bounded by the estimated
+ *     size of its entries on heap ({@code stats.memory.stats-max-size} and {@code stats.memory.json-max-size}). It
+ *     evicts by W-TinyLFU: an org has to be requested more often than the org it would replace to get in, so a burst
+ *     of one-off requests doesn't flush the orgs everybody asks for.</li>
+ *     <li>The in-memory MapDB map keeps stats serialized, which takes a fraction of the heap of deserialized ones,
+ *     and is bounded by the size of its store ({@code stats.memory.spill-max-size}), evicting least recently used
+ *     stats. With {@code stats.memory.spill-off-heap}, the store is off heap (direct memory) entirely.</li>
+ * </ul>
+ * Evicted stats are reloaded from the snapshot file or from disk once requested again, the same as stats that were
+ * never loaded. Hits, misses and evictions of the hot tier are exposed as {@code cache.*} metrics (tagged with
+ * {@code cache=languageStats} and {@code cache=languageStatsJson}), evictions from the in-memory MapDB map as
+ * {@code stats.storage.spill.evictions}.
+ *
+ * Writes to disk are group committed (see {@link GroupCommitter}). With the write ahead log, every commit is an fsync,
+ * and a refresh of many orgs used to spend most of its time committing one org at a time. Writes now join the open
+ * transaction, which is committed once {@code db.commit.max-pending} writes are pending or {@code db.commit.max-delay}
+ * after the first of them, whichever comes first (and at the end of every refresh run, see {@link #commit()}). Memory
+ * is updated right away, so readers see new stats before they are durable. A crash loses at most the writes of the
+ * last {@code db.commit.max-delay}: orgs whose stats didn't make it to disk are fetched again, the same as new orgs.
+ *
+ * On top of that, every refresh run writes stats of all orgs into an immutable, memory-mapped file (see
+ * {@link StatsSnapshotFile}, at {@code db.snapshot.location}). Upon startup, the file is only mapped, not read:
+ * stats of an org are decoded from it when the org is first requested, so an instance serves all of its orgs right
+ * away instead of loading each of them from MapDB first. Orgs stored since the file was written are tracked in the DB
+ * (in the same transaction as their stats), and read from MapDB instead.
+ *
+ * Stats are stored with the time they were stored at (see {@link LanguageStats#getUpdatedAt()}). They don't expire on
+ * their own; it's up to the caller to decide how old is too old.
+ *
+ * Stats are stored in a compact binary format (see {@link LanguageStatsSerializer}), with language names replaced by
+ * IDs from a dictionary that's persisted in the same DB. Both the percentages and the raw byte counts they were
+ * computed from are stored, so that other views of the stats can be projected without fetching anything. Files
+ * written by older versions (plain Java serialization, freshness stored in a separate map) are migrated upon startup.
+ *
+ * Next to the computed stats, we keep per-repo snapshots (languages and last push time of every repo) on disk. Those
+ * let the refresh skip repos that haven't changed since the previous run. They are only needed while refreshing, so
+ * they never get loaded into memory and they don't expire.
+ *
+ * Finally, we keep the stats of every org that has been read serialized into a JSON response body (see
+ * {@link LanguageStatsJson}) on heap. That's what gets served to clients, and it's rebuilt only when the stats change.
+ *
+ * Every read of that JSON counts as an access of the org. Access counts are kept in memory and added to the counts on
+ * disk periodically ({@code stats.access-counts.flush-interval}) and upon shutdown, so that counting doesn't cost a
+ * commit per request. Warmup uses them to fetch the most requested orgs first.
+ *
+ * Behind the on-disk DB, there is a storage tier shared by all instances of the service (see
+ * {@link SharedStatsStore}). Stored stats are put there as well, and stats stored by other instances are taken over
+ * from there, either when they are announced or when this instance misses them. Taken over stats are stored locally
+ * as they are, with the time they were stored at by the other instance, so all instances agree on how fresh they are.
+ * Local stats are only ever replaced by newer ones. If the shared tier fails (e.g. Redis is down), this instance goes
+ * on without it: stats are stored locally only, and stats missing here are missing.
+ *
+ * Reads are counted by where the stats were found ({@code stats.storage.reads}): {@code json} for the JSON on heap,
+ * {@code memory} for the snapshot and the in-memory MapDB map, {@code file} for the snapshot file, {@code disk} for the
+ * on-disk MapDB map, {@code shared} for the shared tier, and {@code miss} for orgs without stats.
  */
 @Service
 @Slf4j
 public class StorageDao {
 
-    private static final String DB_HTREEMAP_NAME = "stats";
+    private static final String DB_HTREEMAP_NAME = "languageStats";
+    private static final String DB_LANGUAGES_HTREEMAP_NAME = "languages";
+    private static final String DB_REPOS_HTREEMAP_NAME = "repos";
+    private static final String DB_ACCESS_COUNTS_HTREEMAP_NAME = "accessCounts";
+    private static final String DB_UNSNAPSHOTTED_HTREEMAP_NAME = "unsnapshotted";
+    private static final String DB_LEGACY_HTREEMAP_NAME = "stats";
+    private static final String DB_LEGACY_UPDATED_HTREEMAP_NAME = "updated";
 
     private final DB inMemDb;
     private final DB onDiskDb;
+    private final LanguageDictionary languageDictionary;
+    private final LanguageStatsSerializer languageStatsSerializer;
+    private final HTreeMap<String, LanguageStats> inMemMap;
+    private final HTreeMap<String, LanguageStats> onDiskMap;
+    private final HTreeMap<String, Long> accessCountMap;
+    private final HTreeMap<String, Map<String, RepoSnapshot>> repoSnapshotMap;
+    /**
+     * Orgs stored since the snapshot file was written, with the time their stats were stored at.
+     */
+    private final HTreeMap<String, Long> unsnapshottedMap;
+    private final Path snapshotPath;
+    /**
+     * Null if no snapshot file was written yet.
+     */
+    private volatile StatsSnapshotFile snapshotFile;
+    /**
+     * Held while writing the snapshot file, so that only one file is written at a time.
+     */
+    private final Object snapshotWriteLock = new Object();
+    /**
+     * The hot tier: deserialized stats of the most requested orgs.
+     */
+    private final Cache<String, LanguageStats> statsCache;
+    private final Cache<String, LanguageStatsJson> languageStatsJsonCache;
+    /**
+     * Accesses since startup. Never reset, so that no increment gets lost while flushing; {@link #flushedAccessCounts}
+     * says how much of it is on disk already.
+     */
+    private final Map<String, LongAdder> accessCounts = new ConcurrentHashMap<>();
+    private final Map<String, Long> flushedAccessCounts = new ConcurrentHashMap<>();
+    private final Counter jsonHitCount;
+    private final Counter memoryHitCount;
+    private final Counter fileHitCount;
+    private final Counter diskHitCount;
+    private final Counter sharedHitCount;
+    private final Counter missCount;
+    private final DistributionSummary commitSize;
+    private final Counter spillEvictionCount;
+    private final SharedStatsStore sharedStatsStore;
+    private final List<BiConsumer<String, LanguageStats>> updateListeners = new CopyOnWriteArrayList<>();
+
+    private final GroupCommitter committer;
 
     public StorageDao(@Value("${db.location}") final String dbLocation,
-                      @Autowired Environment env) {
-        inMemDb = DBMaker
-                .memoryDB()
-                .make();
+                      @Value("${db.snapshot.location}") final String snapshotLocation,
+                      @Value("${db.commit.max-delay:1s}") final Duration commitMaxDelay,
+                      @Value("${db.commit.max-pending:100}") final int commitMaxPending,
+                      @Value("${stats.memory.stats-max-size:32MB}") final DataSize statsMaxSize,
+                      @Value("${stats.memory.json-max-size:16MB}") final DataSize jsonMaxSize,
+                      @Value("${stats.memory.spill-max-size:64MB}") final DataSize spillMaxSize,
+                      @Value("${stats.memory.spill-off-heap:false}") final boolean spillOffHeap,
+                      @Autowired Environment env,
+                      @Autowired MeterRegistry meterRegistry,
+                      @Autowired SharedStatsStore sharedStatsStore) {
+        this.sharedStatsStore = sharedStatsStore;
+        commitSize = DistributionSummary.builder("stats.storage.commit.writes")
+                .description("Writes to disk made durable by a single commit")
+                .register(meterRegistry);
+        jsonHitCount = readCounter(meterRegistry, "json");
+        memoryHitCount = readCounter(meterRegistry, "memory");
+        fileHitCount = readCounter(meterRegistry, "file");
+        diskHitCount = readCounter(meterRegistry, "disk");
+        sharedHitCount = readCounter(meterRegistry, "shared");
+        missCount = readCounter(meterRegistry, "miss");
+        spillEvictionCount = Counter.builder("stats.storage.spill.evictions")
+                .description("Stats evicted from the in-memory MapDB map")
+                .register(meterRegistry);
+
+        statsCache = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumWeight(statsMaxSize.toBytes())
+                .weigher((String orgName, LanguageStats stats) -> estimateSize(orgName, stats))
+                // evicts on the calling thread, so that the bound holds as soon as a put returns
+                .executor(Runnable::run)
+                .recordStats()
+                .build(), "languageStats");
+        languageStatsJsonCache = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumWeight(jsonMaxSize.toBytes())
+                .weigher((String orgName, LanguageStatsJson json) -> estimateSize(orgName, json))
+                .executor(Runnable::run)
+                .recordStats()
+                .build(), "languageStatsJson");
+
+        inMemDb = (spillOffHeap ? DBMaker.memoryDirectDB() : DBMaker.memoryDB()).make();
 
         DBMaker.Maker onDiskDbBuilder;
         if (Arrays.asList(env.getActiveProfiles()).contains("test")) {
             onDiskDbBuilder = DBMaker.tempFileDB();
+            try {
+                snapshotPath = Files.createTempDirectory("languageStats").resolve("languageStats.snapshot");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         } else {
             onDiskDbBuilder = DBMaker.fileDB(dbLocation);
+            snapshotPath = Paths.get(snapshotLocation);
         }
         onDiskDb = onDiskDbBuilder
                 // To protect file from corruption, MapDB offers Write Ahead Log (WAL). It is reliable and simple way
@@ -62,26 +239,157 @@ public class StorageDao {
                 // limit, which we are easily going to fit into. Read more here: https://mapdb.org/book/performance/
                 .fileMmapEnableIfSupported()
                 .make();
+        committer = new GroupCommitter("storage-commit", onDiskDb::commit, writes -> commitSize.record(writes),
+                commitMaxDelay, commitMaxPending);
+
+        languageDictionary = new LanguageDictionary(onDiskDb
+                .hashMap(DB_LANGUAGES_HTREEMAP_NAME, Serializer.STRING, Serializer.INTEGER)
+                .createOrOpen());
+        languageStatsSerializer = new LanguageStatsSerializer(languageDictionary);
+        inMemMap = inMemDb.hashMap(DB_HTREEMAP_NAME)
+                .keySerializer(Serializer.STRING)
+                .valueSerializer(languageStatsSerializer)
+                // no expiry by time, the queues only order entries for eviction by store size
+                .expireAfterCreate()
+                .expireAfterUpdate()
+                .expireAfterGet()
+                .expireStoreSize(spillMaxSize.toBytes())
+                .modificationListener((key, oldValue, newValue, triggered) -> {
+                    if (triggered) {
+                        spillEvictionCount.increment();
+                    }
+                })
+                .createOrOpen();
+        onDiskMap = onDiskDb.hashMap(DB_HTREEMAP_NAME)
+                .keySerializer(Serializer.STRING)
+                .valueSerializer(languageStatsSerializer)
+                .createOrOpen();
+        accessCountMap = onDiskDb.hashMap(DB_ACCESS_COUNTS_HTREEMAP_NAME)
+                .keySerializer(Serializer.STRING)
+                .valueSerializer(Serializer.LONG)
+                .createOrOpen();
+        repoSnapshotMap = createRepoSnapshotMap();
+        unsnapshottedMap = onDiskDb.hashMap(DB_UNSNAPSHOTTED_HTREEMAP_NAME)
+                .keySerializer(Serializer.STRING)
+                .valueSerializer(Serializer.LONG)
+                .createOrOpen();
+        migrateLegacyStats();
+        snapshotFile = openSnapshotFile();
+    }
+
+    private StatsSnapshotFile openSnapshotFile() {
+        if (!Files.exists(snapshotPath)) {
+            return null;
+        }
+        try {
+            final StatsSnapshotFile file = StatsSnapshotFile.open(snapshotPath);
+            log.info("Mapped the stats snapshot file with {} orgs, {} orgs stored since.", file.size(),
+                    unsnapshottedMap.size());
+            return file;
+        } catch (IOException e) {
+            // everything in it is in MapDB as well
+            log.error("Mapping the stats snapshot file failed, reading stats from the DB.", e);
+            return null;
+        }
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        sharedStatsStore.addChangeListener(this::reloadFromShared);
     }
 
     @PreDestroy
     public void destroy() {
+        flushAccessCounts();
+        if (!unsnapshottedMap.isEmpty()) {
+            // so that the next start serves them from the file too
+            try {
+                writeSnapshotFile();
+            } catch (RuntimeException e) {
+                log.error("Writing the stats snapshot file failed.", e);
+            }
+        }
+        committer.close();
         log.info("Closing the on disk DB");
         onDiskDb.close();
     }
 
     /**
-     * Save new language stats for a given org into persistent db and into memory.
+     * Save new language stats for a given org into persistent db and into memory, and share them with the other
+     * instances. The stats are marked as updated now. They are served from memory right away, and committed to disk
+     * with the next group commit.
+     *
+     * @return The stats as stored, i.e. marked as updated now.
      */
-    public void updateLanguageStats(@NonNull final String orgName, @NonNull final LanguageStats stats) {
-        // Write to disk first, as we are not blocking clients from reading (now stale) data from memory.
-        val onDiskMap = getOnDiskMap();
-        onDiskMap.put(orgName, stats.getLanguageMap());
-        onDiskDb.commit();
+    public LanguageStats updateLanguageStats(@NonNull final String orgName, @NonNull final LanguageStats stats) {
+        final LanguageStats stored = new LanguageStats(stats.getLanguageMap(), stats.getByteCounts(),
+                System.currentTimeMillis());
+        synchronized (this) {
+            storeLocally(orgName, stored);
+        }
+        cacheJson(orgName, stored);
+        try {
+            sharedStatsStore.put(orgName, stored);
+        } catch (RuntimeException e) {
+            // stored here already; the other instances take them over once they miss them, or with the next refresh
+            log.error("Sharing {}'s new stats failed, they are stored by this instance only.", orgName, e);
+        }
+        return stored;
+    }
+
+    /**
+     * Takes over stats of a given org stored by another instance, unless the stats stored here are as fresh already.
+     * Called when the shared tier announces a change.
+     */
+    void reloadFromShared(@NonNull final String orgName) {
+        final LanguageStats shared = getShared(orgName);
+        if (shared == null) {
+            return;
+        }
+        synchronized (this) {
+            if (storedAt(orgName) >= shared.getUpdatedAt()) {
+                return;
+            }
+            log.debug("Taking over stats of {} stored by another instance.", orgName);
+            storeLocally(orgName, shared);
+        }
+        cacheJson(orgName, shared);
+    }
+
+    /**
+     * Stores stats on disk and in memory. Called with the lock of this DAO held, so that stats of an org are stored
+     * one at a time. The JSON is left to the caller, who caches it once the lock is released (see
+     * {@link #cacheJson(String, LanguageStats)}).
+     */
+    private void storeLocally(final String orgName, final LanguageStats stored) {
+        // Write to disk first, as we are not blocking clients from reading (now stale) data from memory. New languages
+        // get their IDs in the same transaction as the stats using them.
+        languageDictionary.registerAll(stored.getLanguageMap().keySet());
+        languageDictionary.registerAll(stored.getByteCounts().keySet());
+        onDiskMap.put(orgName, stored);
+        unsnapshottedMap.put(orgName, stored.getUpdatedAt());
+        commitLater();
 
         // Update value in-memory.
-        val inMemMap = getInMemMap();
-        inMemMap.put(orgName, stats.getLanguageMap());
+        inMemMap.put(orgName, stored);
+        publishStats(Map.of(orgName, stored), true);
+
+        for (BiConsumer<String, LanguageStats> listener : updateListeners) {
+            try {
+                listener.accept(orgName, stored);
+            } catch (RuntimeException e) {
+                log.error("Notifying a listener of {}'s new stats failed.", orgName, e);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener notified of new stats of any org, once they are stored here. That includes stats taken
+     * over from other instances. Listeners are called on the thread storing the stats, with the lock of this DAO held,
+     * so they should return quickly and not call back into this DAO.
+     */
+    public void addUpdateListener(@NonNull final BiConsumer<String, LanguageStats> listener) {
+        updateListeners.add(listener);
     }
 
     /**
@@ -90,38 +398,508 @@ public class StorageDao {
      *
      * @return Languages stats if they exist. Null if they don't.
      */
-    public Map<String, String> getLanguageStats(@NonNull final String orgName) {
-        val inMemMap = getInMemMap();
-        Map<String, String> stats = inMemMap.get(orgName);
+    public LanguageStats getLanguageStats(@NonNull final String orgName) {
+        final LanguageStats stats = statsCache.getIfPresent(orgName);
+        if (stats != null) {
+            memoryHitCount.increment();
+            return stats;
+        }
+        return loadLanguageStats(orgName);
+    }
+
+    /**
+     * Reads stats missing in the hot tier from MapDB memory, the snapshot file or MapDB disk (in that order) and adds
+     * them to the hot tier. Stats that are not on disk either are taken over from the shared tier, if another instance
+     * has stored them.
+     */
+    private LanguageStats loadLanguageStats(final String orgName) {
+        LanguageStats stats = inMemMap.get(orgName);
 
         // reload from disk if not found
         if (stats == null) {
-            stats = getOnDiskMap().get(orgName);
+            stats = readSnapshotFile(orgName);
             if (stats != null) {
-                inMemMap.put(orgName, stats);
+                fileHitCount.increment();
+            } else {
+                stats = onDiskMap.get(orgName);
+                if (stats == null) {
+                    return loadSharedLanguageStats(orgName);
+                }
+                diskHitCount.increment();
+            }
+            // stats stored in the meantime are newer than the ones we've just read
+            final LanguageStats stored = inMemMap.putIfAbsent(orgName, stats);
+            if (stored != null) {
+                stats = stored;
             }
+        } else {
+            memoryHitCount.increment();
         }
 
+        publishStats(Map.of(orgName, stats), false);
         return stats;
     }
 
+    /**
+     * @return Stats of the org from the snapshot file. Null if they are not there, or if newer stats were stored since
+     *         the file was written.
+     */
+    private LanguageStats readSnapshotFile(final String orgName) {
+        final StatsSnapshotFile file = snapshotFile;
+        if (file == null || unsnapshottedMap.containsKey(orgName)) {
+            return null;
+        }
+        try {
+            return file.get(orgName);
+        } catch (IOException e) {
+            log.error("Reading stats of {} from the snapshot file failed, reading them from the DB.", orgName, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return Time the stats of the org on disk were stored at, without decoding them if possible. -1 if there are no
+     *         stats of the org on disk.
+     */
+    private long storedAt(final String orgName) {
+        final Long unsnapshotted = unsnapshottedMap.get(orgName);
+        final StatsSnapshotFile file = snapshotFile;
+        if (unsnapshotted == null && file != null) {
+            final long updatedAt = file.getUpdatedAt(orgName);
+            if (updatedAt >= 0) {
+                return updatedAt;
+            }
+        }
+        final LanguageStats stats = onDiskMap.get(orgName);
+        return stats == null ? -1 : stats.getUpdatedAt();
+    }
+
+    /**
+     * Reads stats of an org from the shared tier. If that fails (e.g. Redis is down), the stats are treated as missing,
+     * so that callers carry on without the shared tier, the same as a single instance would.
+     */
+    private LanguageStats getShared(final String orgName) {
+        try {
+            return sharedStatsStore.get(orgName);
+        } catch (RuntimeException e) {
+            log.error("Reading {}'s stats from the shared storage failed.", orgName, e);
+            return null;
+        }
+    }
+
+    private LanguageStats loadSharedLanguageStats(final String orgName) {
+        final LanguageStats shared = getShared(orgName);
+        if (shared == null) {
+            missCount.increment();
+            return null;
+        }
+        sharedHitCount.increment();
+        synchronized (this) {
+            // stats stored in the meantime are newer than the ones we've just read
+            final LanguageStats stored = onDiskMap.get(orgName);
+            if (stored != null && stored.getUpdatedAt() >= shared.getUpdatedAt()) {
+                publishStats(Map.of(orgName, stored), false);
+                return stored;
+            }
+            storeLocally(orgName, shared);
+        }
+        return shared;
+    }
+
+    /**
+     * Caches the JSON of the given stats, unless the JSON of stats updated at the same time or later is cached already
+     * (e.g. stats stored while these were being loaded), so that JSON never goes back in time.
+     *
+     * Locks: this is never called with the lock of this DAO held, and nothing but serializing happens under the cache's
+     * lock for the org (no loading, no storing). The two locks are never held in the opposite order, so they can't
+     * deadlock.
+     *
+     * @return The JSON cached for the org.
+     */
+    private LanguageStatsJson cacheJson(final String orgName, final LanguageStats stats) {
+        return languageStatsJsonCache.asMap().compute(orgName, (org, cached) ->
+                cached != null && cached.getUpdatedAt() >= stats.getUpdatedAt() ? cached : LanguageStatsJson.of(stats));
+    }
+
+    /**
+     * Read language stats for a given org serialized into JSON. The JSON is kept on heap, so unless the stats have
+     * changed, this neither touches MapDB nor serializes anything.
+     *
+     * @return Serialized languages stats if they exist. Null if they don't.
+     */
+    public LanguageStatsJson getLanguageStatsJson(@NonNull final String orgName) {
+        accessCounts.computeIfAbsent(orgName, org -> new LongAdder()).increment();
+        final LanguageStatsJson json = languageStatsJsonCache.getIfPresent(orgName);
+        if (json != null) {
+            jsonHitCount.increment();
+            return json;
+        }
+        final LanguageStats stats = getLanguageStats(orgName);
+        return stats == null ? null : cacheJson(orgName, stats);
+    }
+
+    /**
+     * JSON of the given stats of an org, taken from the same cache as {@link #getLanguageStatsJson(String)}, so that
+     * stats are serialized once no matter who asks. Unlike that, it's not counted as an access of the org. It's the
+     * JSON of newer stats if those are cached already.
+     *
+     * Must not be called with the lock of this DAO held, i.e. not right from an update listener (see
+     * {@link #addUpdateListener}).
+     */
+    public LanguageStatsJson getLanguageStatsJson(@NonNull final String orgName, @NonNull final LanguageStats stats) {
+        return cacheJson(orgName, stats);
+    }
+
+    /**
+     * Batch variant of {@link #getLanguageStatsJson(String)}: reads serialized stats of all given orgs in a single
+     * pass. Orgs whose JSON is not on heap yet are looked up in memory (and on disk) together afterwards.
+     *
+     * @return Map of org name to its serialized stats, in the order of the given names. Orgs without stats are missing.
+     */
+    public Map<String, LanguageStatsJson> getLanguageStatsJsonBatch(@NonNull final Collection<String> orgNames) {
+        final Map<String, LanguageStatsJson> res = new LinkedHashMap<>(orgNames.size() * 4 / 3 + 1);
+        List<String> misses = null;
+        for (String orgName : orgNames) {
+            accessCounts.computeIfAbsent(orgName, org -> new LongAdder()).increment();
+            final LanguageStatsJson json = languageStatsJsonCache.getIfPresent(orgName);
+            if (json != null) {
+                jsonHitCount.increment();
+                res.put(orgName, json);
+            } else {
+                if (misses == null) {
+                    misses = new ArrayList<>();
+                }
+                misses.add(orgName);
+                res.put(orgName, null); // keeps the order, removed below if there are no stats
+            }
+        }
+
+        if (misses != null) {
+            for (String orgName : misses) {
+                final LanguageStats stats = getLanguageStats(orgName);
+                if (stats == null) {
+                    res.remove(orgName);
+                } else {
+                    res.put(orgName, cacheJson(orgName, stats));
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Loads stats of all orgs stored on disk into memory (and serializes them into JSON) in a single pass over the
+     * on-disk map. Stats that are already in memory are kept, as they can't be older than the ones on disk. Afterwards,
+     * stats that other instances have stored while this one was down are taken over from the shared tier.
+     *
+     * If there is a snapshot file, nothing is loaded from it: its stats are read once requested, and only the orgs
+     * stored since it was written are loaded from the on-disk map.
+     *
+     * @return Names of the orgs whose stats are on disk (or in the shared tier).
+     */
+    public Set<String> loadAllLanguageStats() {
+        final long start = System.currentTimeMillis();
+        final StatsSnapshotFile file = snapshotFile;
+        if (file != null) {
+            final Set<String> orgNames = new HashSet<>(file.getOrgNames());
+            orgNames.addAll(unsnapshottedMap.keySet());
+            log.info("Found stats of {} orgs in the snapshot file in {} ms.", orgNames.size(),
+                    System.currentTimeMillis() - start);
+            return takeOverSharedStats(orgNames);
+        }
+
+        final Map<String, LanguageStats> loaded = new HashMap<>();
+        for (Map.Entry<String, LanguageStats> entry : onDiskMap.entrySet()) {
+            final LanguageStats inMem = inMemMap.putIfAbsent(entry.getKey(), entry.getValue());
+            final LanguageStats stats = inMem == null ? entry.getValue() : inMem;
+            cacheJson(entry.getKey(), stats);
+            loaded.put(entry.getKey(), stats);
+        }
+        publishStats(loaded, false);
+        log.info(String.format("Loaded stats of %d orgs from disk in %d ms.", loaded.size(),
+                System.currentTimeMillis() - start));
+
+        return takeOverSharedStats(new HashSet<>(loaded.keySet()));
+    }
+
+    /**
+     * Takes over stats from the shared tier that are newer than the ones on disk.
+     *
+     * @param orgNames Names of the orgs whose stats are on disk. Orgs that are in the shared tier are added.
+     */
+    private Set<String> takeOverSharedStats(final Set<String> orgNames) {
+        final Map<String, LanguageStats> shared;
+        try {
+            shared = sharedStatsStore.getAll();
+        } catch (RuntimeException e) {
+            log.error("Reading stats from the shared storage failed, starting with the stats on disk only.", e);
+            return orgNames;
+        }
+        int takenOver = 0;
+        for (Map.Entry<String, LanguageStats> entry : shared.entrySet()) {
+            if (storedAt(entry.getKey()) < entry.getValue().getUpdatedAt()) {
+                reloadFromShared(entry.getKey());
+                takenOver++;
+            }
+            orgNames.add(entry.getKey());
+        }
+        if (takenOver > 0) {
+            log.info("Took over stats of {} orgs from the shared storage.", takenOver);
+        }
+        return orgNames;
+    }
+
+    /**
+     * Writes stats of all orgs on disk into a new snapshot file, which replaces the previous one, e.g. at the end of a
+     * refresh run. Takes a single pass over the on-disk map, streaming the stats into the file one org at a time, so
+     * that the stats of all orgs are never on heap at once.
+     *
+     * Stats are stored while the file is being written; the lock of this DAO is only taken to swap the file in once
+     * it's complete.
+     */
+    public void writeSnapshotFile() {
+        synchronized (snapshotWriteLock) {
+            final long start = System.currentTimeMillis();
+            final StatsSnapshotFile file;
+            try {
+                StatsSnapshotFile.write(snapshotPath, onDiskMap.entrySet());
+                file = StatsSnapshotFile.open(snapshotPath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            synchronized (this) {
+                snapshotFile = file;
+                // orgs stored while the file was being written stay unsnapshotted, unless the file has their latest
+                // stats
+                final Map<String, Long> snapshotted = new HashMap<>();
+                for (Map.Entry<String, Long> entry : unsnapshottedMap.entrySet()) {
+                    if (file.getUpdatedAt(entry.getKey()) == entry.getValue()) {
+                        snapshotted.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                snapshotted.forEach(unsnapshottedMap::remove);
+            }
+            commitLater();
+            log.info("Wrote stats of {} orgs into the snapshot file in {} ms.", file.size(),
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * @return Number of times the JSON stats of every org were read, including accesses that were not flushed to disk
+     *         yet. Orgs that were never read are missing.
+     */
+    public Map<String, Long> getAccessCounts() {
+        final Map<String, Long> counts = new HashMap<>(accessCountMap);
+        accessCounts.forEach((org, count) -> {
+            final long pending = count.sum() - flushedAccessCounts.getOrDefault(org, 0L);
+            if (pending > 0) {
+                counts.merge(org, pending, Long::sum);
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Adds access counts collected in memory to the counts on disk.
+     */
+    @Scheduled(fixedDelayString = "${stats.access-counts.flush-interval:PT5M}")
+    public synchronized void flushAccessCounts() {
+        boolean changed = false;
+        for (Map.Entry<String, LongAdder> entry : accessCounts.entrySet()) {
+            final long total = entry.getValue().sum();
+            final long pending = total - flushedAccessCounts.getOrDefault(entry.getKey(), 0L);
+            if (pending > 0) {
+                accessCountMap.merge(entry.getKey(), pending, Long::sum);
+                flushedAccessCounts.put(entry.getKey(), total);
+                changed = true;
+            }
+        }
+        if (changed) {
+            commitLater();
+        }
+    }
+
+    /**
+     * Save per-repo snapshots of a given org, replacing the previous ones. Repos that are not in the map (e.g. deleted
+     * ones) are forgotten.
+     */
+    public void updateRepoSnapshots(@NonNull final String orgName, @NonNull final Map<String, RepoSnapshot> repos) {
+        repoSnapshotMap.put(orgName, new HashMap<>(repos));
+        commitLater();
+    }
+
+    /**
+     * Commits all pending writes to disk right away, e.g. at the end of a refresh run.
+     */
+    public void commit() {
+        committer.commit();
+    }
+
+    private void commitLater() {
+        committer.commitLater();
+    }
+
+    /**
+     * Read per-repo snapshots saved by the last refresh of a given org.
+     *
+     * @return Map of repo name to its snapshot. Empty if the org has never been refreshed.
+     */
+    public Map<String, RepoSnapshot> getRepoSnapshots(@NonNull final String orgName) {
+        final Map<String, RepoSnapshot> repos = repoSnapshotMap.get(orgName);
+        return repos == null ? Collections.emptyMap() : repos;
+    }
+
+    /**
+     * Moves stats stored by older versions (Java-serialized language maps, with the update time in a separate map)
+     * into the current format. Migrated stats are removed from the old maps, so this is a no-op once done.
+     */
+    void migrateLegacyStats() {
+        if (!onDiskDb.exists(DB_LEGACY_HTREEMAP_NAME)) {
+            return;
+        }
+
+        val legacyMap = getLegacyOnDiskMap();
+        val legacyUpdatedMap = getLegacyOnDiskUpdatedMap();
+        if (legacyMap.isEmpty()) {
+            return;
+        }
+
+        log.info(String.format("Migrating stats of %d orgs to the binary format.", legacyMap.size()));
+        for (Map.Entry<String, Map<String, String>> entry : legacyMap.entrySet()) {
+            final Long updatedAt = legacyUpdatedMap.get(entry.getKey());
+            languageDictionary.registerAll(entry.getValue().keySet());
+            if (onDiskMap.putIfAbsent(entry.getKey(),
+                    new LanguageStats(new HashMap<>(entry.getValue()), updatedAt == null ? 0 : updatedAt)) == null) {
+                unsnapshottedMap.put(entry.getKey(), updatedAt == null ? 0 : updatedAt);
+            }
+        }
+        legacyMap.clear();
+        legacyUpdatedMap.clear();
+        onDiskDb.commit();
+    }
+
+    /**
+     * Adds the given stats to the hot tier.
+     *
+     * @param overwrite Whether the given stats replace stats that are in the hot tier already. Stats loaded from MapDB
+     *                  don't, as stats stored in the meantime are newer.
+     */
+    private void publishStats(final Map<String, LanguageStats> stats, final boolean overwrite) {
+        if (overwrite) {
+            statsCache.putAll(stats);
+        } else {
+            for (Map.Entry<String, LanguageStats> entry : stats.entrySet()) {
+                statsCache.asMap().putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return Rough size of the stats on heap, in bytes: the objects holding them, and every language's name, share
+     *         and byte count (each with its map entry).
+     */
+    static int estimateSize(final String orgName, final LanguageStats stats) {
+        int size = 128 + 2 * orgName.length();
+        for (String language : stats.getLanguageMap().keySet()) {
+            size += 120 + 2 * language.length();
+        }
+        for (String language : stats.getByteCounts().keySet()) {
+            size += 72 + 2 * language.length();
+        }
+        return size;
+    }
+
+    /**
+     * @return Rough size of the JSON on heap, in bytes: the body, the ETag, and the objects holding them.
+     */
+    public static int estimateSize(final String orgName, final LanguageStatsJson json) {
+        return 160 + 2 * orgName.length() + json.getBody().length;
+    }
+
+    private static Counter readCounter(final MeterRegistry meterRegistry, final String source) {
+        return Counter.builder("stats.storage.reads")
+                .description("Reads of language stats, by where they were found")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+
+    int getPendingWrites() {
+        return committer.getPendingWrites();
+    }
+
+    Map<String, LanguageStatsJson> getLanguageStatsJsonCache() {
+        return languageStatsJsonCache.asMap();
+    }
+
+    Map<String, LanguageStats> getStatsSnapshot() {
+        return statsCache.asMap();
+    }
+
+    void clearStatsSnapshot() {
+        statsCache.invalidateAll();
+    }
+
+    HTreeMap<String, LanguageStats> getInMemMap() {
+        return inMemMap;
+    }
+
+    HTreeMap<String, LanguageStats> getOnDiskMap() {
+        return onDiskMap;
+    }
+
     @SuppressWarnings("unchecked")
-    HTreeMap<String, Map<String, String>> getInMemMap() {
-        return inMemDb.hashMap(DB_HTREEMAP_NAME)
+    HTreeMap<String, Map<String, String>> getLegacyOnDiskMap() {
+        return onDiskDb.hashMap(DB_LEGACY_HTREEMAP_NAME)
                 .keySerializer(Serializer.STRING)
                 .valueSerializer(Serializer.JAVA)
-                .expireAfterCreate(25, TimeUnit.HOURS)
-                .expireAfterUpdate(25, TimeUnit.HOURS)
                 .createOrOpen();
     }
 
+    HTreeMap<String, Long> getLegacyOnDiskUpdatedMap() {
+        return onDiskDb.hashMap(DB_LEGACY_UPDATED_HTREEMAP_NAME)
+                .keySerializer(Serializer.STRING)
+                .valueSerializer(Serializer.LONG)
+                .createOrOpen();
+    }
+
+    HTreeMap<String, Long> getUnsnapshottedMap() {
+        return unsnapshottedMap;
+    }
+
+    Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    /**
+     * Forgets the snapshot file, as if it was never written.
+     */
+    synchronized void deleteSnapshotFile() throws IOException {
+        snapshotFile = null;
+        Files.deleteIfExists(snapshotPath);
+    }
+
+    /**
+     * Maps the snapshot file again, as upon startup.
+     */
+    synchronized void reopenSnapshotFile() {
+        snapshotFile = openSnapshotFile();
+    }
+
+    HTreeMap<String, Long> getAccessCountMap() {
+        return accessCountMap;
+    }
+
+    HTreeMap<String, Map<String, RepoSnapshot>> getRepoSnapshotMap() {
+        return repoSnapshotMap;
+    }
+
     @SuppressWarnings("unchecked")
-    HTreeMap<String, Map<String, String>> getOnDiskMap() {
-        return onDiskDb.hashMap(DB_HTREEMAP_NAME)
+    private HTreeMap<String, Map<String, RepoSnapshot>> createRepoSnapshotMap() {
+        return onDiskDb.hashMap(DB_REPOS_HTREEMAP_NAME)
                 .keySerializer(Serializer.STRING)
                 .valueSerializer(Serializer.JAVA)
-                .expireAfterCreate(25, TimeUnit.HOURS)
-                .expireAfterUpdate(25, TimeUnit.HOURS)
                 .createOrOpen();
     }
 }
@@ -0,0 +1,11 @@
+package com.havluj.github.languageanalyzer.exceptions;
+
+import lombok.experimental.StandardException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.BAD_REQUEST, reason = "Invalid history range requested.")
+@StandardException
+public class InvalidHistoryRangeException extends RuntimeException {
+
+}
@@ -0,0 +1,145 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sums up byte counts per language and turns them into percentages.
+ *
+ * This sits in the hot loop of every refresh (once per language of every repo), so it avoids allocation: byte counts
+ * are kept as primitive longs in an open-addressing hash table keyed by language name, and percentages are computed
+ * with integer arithmetic. The results are identical to dividing with {@link BigDecimal} (2 decimal places,
+ * {@link RoundingMode#HALF_EVEN}).
+ *
+ * Not thread-safe.
+ */
+class LanguageByteAccumulator {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int PERCENTAGE_SCALE = 100;
+
+    private String[] languages = new String[INITIAL_CAPACITY];
+    private long[] bytes = new long[INITIAL_CAPACITY];
+    private int size;
+    private long total;
+
+    /**
+     * Adds the byte count of a language.
+     *
+     * @throws ArithmeticException if the total number of bytes overflows a long.
+     */
+    void add(@NonNull final String language, final long byteCnt) {
+        if (byteCnt < 0) {
+            throw new IllegalArgumentException(String.format("Negative byte count for %s: %d.", language, byteCnt));
+        }
+        total = Math.addExact(total, byteCnt);
+
+        int slot = slotOf(language, languages.length);
+        while (languages[slot] != null) {
+            if (languages[slot].equals(language)) {
+                bytes[slot] += byteCnt; // can't overflow, since it's at most the total
+                return;
+            }
+            slot = (slot + 1) & (languages.length - 1);
+        }
+
+        languages[slot] = language;
+        bytes[slot] = byteCnt;
+        if (++size * 2 > languages.length) {
+            grow();
+        }
+    }
+
+    /**
+     * @return Total number of bytes across all languages.
+     */
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Map of language to its total number of bytes.
+     */
+    Map<String, Long> getByteCounts() {
+        final Map<String, Long> res = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < languages.length; i++) {
+            if (languages[i] != null) {
+                res.put(languages[i], bytes[i]);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return Map of language to its share of the total, formatted with 2 decimal places (e.g. "0.40"). Empty if the
+     *         total is 0.
+     */
+    Map<String, String> getPercentages() {
+        final Map<String, String> res = new HashMap<>(size * 4 / 3 + 1);
+        if (total == 0) {
+            return res;
+        }
+        for (int i = 0; i < languages.length; i++) {
+            if (languages[i] != null) {
+                res.put(languages[i], format(hundredths(bytes[i], total)));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return numerator / denominator in hundredths, rounded half-even.
+     */
+    static long hundredths(final long numerator, final long denominator) {
+        if (numerator > Long.MAX_VALUE / PERCENTAGE_SCALE) {
+            // numerator * 100 would overflow; this needs more than ~92 PB of code, so don't bother optimizing
+            return BigDecimal.valueOf(numerator)
+                    .divide(BigDecimal.valueOf(denominator), 2, RoundingMode.HALF_EVEN)
+                    .unscaledValue()
+                    .longValueExact();
+        }
+
+        final long scaled = numerator * PERCENTAGE_SCALE;
+        final long quotient = scaled / denominator;
+        final long remainder = scaled % denominator;
+        final long rest = denominator - remainder;
+        if (remainder > rest || (remainder == rest && (quotient & 1) == 1)) {
+            return quotient + 1;
+        }
+        return quotient;
+    }
+
+    /**
+     * @return Hundredths formatted as a decimal number with 2 decimal places (e.g. 40 -> "0.40").
+     */
+    static String format(final long hundredths) {
+        final long fraction = hundredths % PERCENTAGE_SCALE;
+        return (hundredths / PERCENTAGE_SCALE) + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    private void grow() {
+        final String[] oldLanguages = languages;
+        final long[] oldBytes = bytes;
+        languages = new String[oldLanguages.length * 2];
+        bytes = new long[oldBytes.length * 2];
+        for (int i = 0; i < oldLanguages.length; i++) {
+            if (oldLanguages[i] != null) {
+                int slot = slotOf(oldLanguages[i], languages.length);
+                while (languages[slot] != null) {
+                    slot = (slot + 1) & (languages.length - 1);
+                }
+                languages[slot] = oldLanguages[i];
+                bytes[slot] = oldBytes[i];
+            }
+        }
+    }
+
+    private static int slotOf(final String language, final int capacity) {
+        final int h = language.hashCode();
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+}
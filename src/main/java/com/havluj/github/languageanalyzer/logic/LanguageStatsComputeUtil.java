@@ -1,7 +1,9 @@
 package com.havluj.github.languageanalyzer.logic;
 
-import com.havluj.github.languageanalyzer.dao.GitHubDao;
+import com.havluj.github.languageanalyzer.dao.AsyncGitHubDao;
+import com.havluj.github.languageanalyzer.dao.StorageDao;
 import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.RepoSnapshot;
 import com.havluj.github.languageanalyzer.model.SupportedOrg;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
@@ -9,66 +11,171 @@ import org.kohsuke.github.GHRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Computes language stats of an org.
+ *
+ * Refreshes are incremental: we remember the languages and the last push time of every repo (see
+ * {@link StorageDao#getRepoSnapshots(String)}), and only fetch languages of repos that were added or pushed to since
+ * the previous refresh. Org totals are then rebuilt from the per-repo snapshots. Listing repos takes a request per 100
+ * repos, so for large, mostly idle orgs, this saves almost all requests to GitHub.
+ */
 @Service
 @Slf4j
 public class LanguageStatsComputeUtil {
 
     @Autowired
-    private GitHubDao gitHubDao;
+    private AsyncGitHubDao asyncGitHubDao;
+    @Autowired
+    private ParallelLanguageFetcher parallelLanguageFetcher;
+    @Autowired
+    private StorageDao storageDao;
 
     public LanguageStats fetchFreshLanguageStatsForOrg(@NonNull final SupportedOrg org) {
+        return AsyncGitHubDao.join(fetchFreshLanguageStatsForOrgAsync(org));
+    }
+
+    /**
+     * Asynchronous variant of {@link #fetchFreshLanguageStatsForOrg(SupportedOrg)}. No thread is blocked while
+     * waiting for GitHub.
+     */
+    public CompletableFuture<LanguageStats> fetchFreshLanguageStatsForOrgAsync(@NonNull final SupportedOrg org) {
         log.debug("Computing sums for all languages across all repos.");
-        final List<GHRepository> repos = gitHubDao.listOrgRepos(gitHubDao.getOrg(org.getOrgName()));
+        return asyncGitHubDao.getOrg(org.getOrgName())
+                .thenCompose(asyncGitHubDao::listOrgRepoPages)
+                .thenCompose(pages -> refreshRepoSnapshots(org, pages))
+                .thenApply(LanguageStatsComputeUtil::getLanguageSums);
+    }
+
+    /**
+     * Reuses stored snapshots of repos that haven't been pushed to since the last refresh and fetches languages of the
+     * rest. Repos that no longer exist are dropped from the stored snapshots.
+     */
+    private CompletableFuture<List<RepoSnapshot>> refreshRepoSnapshots(@NonNull final SupportedOrg org,
+                                                                      @NonNull final Iterator<List<GHRepository>> pages) {
+        final RepoSnapshotRefresh refresh = new RepoSnapshotRefresh(storageDao.getRepoSnapshots(org.getOrgName()));
+        return refreshPages(refresh, pages, CompletableFuture.completedFuture(null)).thenApply(ignored -> {
+            log.debug("{}: {} repos unchanged, {} new or changed, {} deleted since the last refresh.",
+                    org, refresh.unchanged, refresh.changed, refresh.previous.size() - refresh.known);
+            storageDao.updateRepoSnapshots(org.getOrgName(), refresh.current);
+            return refresh.snapshots;
+        });
+    }
+
+    /**
+     * Lists repos page by page, and fetches languages of changed repos of every page as soon as the page arrives. The
+     * next page is listed while languages of the current one are being fetched, so listing and fetching overlap. But
+     * languages of a page are only fetched once the previous page's are done (so that {@code github.fetch.parallelism}
+     * holds), and a page is only listed once languages of the page before the previous one are done. That way, at
+     * most two pages of repos are held at once, no matter how big the org is.
+     *
+     * @param previousFetch Fetch of languages of the previous page.
+     * @return Future that completes once all pages are listed and all languages are fetched.
+     */
+    private CompletableFuture<Void> refreshPages(final RepoSnapshotRefresh refresh,
+                                                 final Iterator<List<GHRepository>> pages,
+                                                 final CompletableFuture<Void> previousFetch) {
+        return asyncGitHubDao.nextRepoPage(pages).thenCompose(page -> {
+            if (page == null) {
+                return previousFetch;
+            }
 
-        final Map<String, String> langStats = getLanguageSums(repos);
-        return new LanguageStats(langStats);
+            final List<GHRepository> changed = refresh.addPage(page);
+            final CompletableFuture<Void> fetch = previousFetch
+                    .thenCompose(ignored -> parallelLanguageFetcher.fetchRepoLanguagesAsync(changed))
+                    .thenAccept(fetched -> refresh.addFetched(changed, fetched));
+            return previousFetch.thenCompose(ignored -> refreshPages(refresh, pages, fetch));
+        });
     }
 
-    private Map<String, String> getLanguageSums(@NonNull final List<GHRepository> repos) {
+    /**
+     * Sums up bytes per language across all repos and converts them to percentages. Both are kept in the stats.
+     * Package-private so that it can be benchmarked on its own.
+     */
+    static LanguageStats getLanguageSums(@NonNull final List<RepoSnapshot> snapshots) {
         log.debug("Computing sums for all languages across all repos.");
-        BigDecimal totalSum = new BigDecimal(0);
-        Map<String, BigDecimal> languageSums = new HashMap<>();
-        for (GHRepository repo : repos) {
-            for (Map.Entry<String, Long> lang : gitHubDao.listRepoLanguages(repo).entrySet()) {
-                final BigDecimal byteCnt = new BigDecimal(lang.getValue());
-                languageSums.compute(lang.getKey(), (k, v) -> v == null ? byteCnt : v.add(byteCnt));
-                totalSum = totalSum.add(byteCnt);
+        final LanguageByteAccumulator accumulator = new LanguageByteAccumulator();
+        for (RepoSnapshot snapshot : snapshots) {
+            for (Map.Entry<String, Long> lang : snapshot.getLanguages().entrySet()) {
+                accumulator.add(lang.getKey(), lang.getValue());
             }
         }
-        log.debug(String.format("Finished computing sums for all languages across all repos. Total bytes: [%s]", totalSum));
-        if (totalSum.compareTo(new BigDecimal(0)) > 0) {
-            return computePercentages(totalSum, languageSums);
+        log.debug("Finished computing sums for all languages across all repos. Total bytes: [{}]", accumulator.getTotal());
+        if (accumulator.getTotal() > 0) {
+            log.debug("Computing percentages for languages used.");
+            final Map<String, String> percentages = accumulator.getPercentages();
+            if (log.isDebugEnabled()) {
+                percentages.forEach((language, percentage) -> log.debug("[{}]: {}.", language, percentage));
+            }
+            log.debug("Finished computing percentages for languages used.");
+            return new LanguageStats(percentages, accumulator.getByteCounts(), 0);
         } else {
             log.debug("All repositories are empty.");
-            return new HashMap<>();
+            return new LanguageStats(new HashMap<>());
         }
     }
 
-    private Map<String, String> computePercentages(@NonNull final BigDecimal total,
-                                                   @NonNull final Map<String, BigDecimal> components) {
-        log.debug("Computing percentages for languages used.");
-        Map<String, String> languageSums = new HashMap<>();
-        for (Map.Entry<String, BigDecimal> entry : components.entrySet()) {
-            final String language = entry.getKey();
-            final String serializedPercentage = serialize(getPercentage(total, entry.getValue()));
-            languageSums.put(language, serializedPercentage);
-            log.debug(String.format("[%s]: %s.", language, serializedPercentage));
+    /**
+     * State of a refresh of repo snapshots, filled in page by page. Listing of a page and fetching of languages of the
+     * previous one can run at the same time, so access is synchronized.
+     */
+    private static final class RepoSnapshotRefresh {
+        private final Map<String, RepoSnapshot> previous;
+        private final Map<String, RepoSnapshot> current = new HashMap<>();
+        private final List<RepoSnapshot> snapshots = new ArrayList<>();
+        private int known;
+        private int unchanged;
+        private int changed;
+
+        private RepoSnapshotRefresh(final Map<String, RepoSnapshot> previous) {
+            this.previous = previous;
         }
-        log.debug("Finished computing percentages for languages used.");
-        return languageSums;
-    }
 
-    private BigDecimal getPercentage(@NonNull final BigDecimal denominator, @NonNull final BigDecimal numerator) {
-        return numerator.divide(denominator, 2, RoundingMode.HALF_EVEN);
-    }
+        /**
+         * Takes snapshots of repos of the page that haven't changed since the previous refresh.
+         *
+         * @return Repos of the page whose languages have to be fetched.
+         */
+        private synchronized List<GHRepository> addPage(final List<GHRepository> page) {
+            final List<GHRepository> changedRepos = new ArrayList<>();
+            for (GHRepository repo : page) {
+                final RepoSnapshot snapshot = repo.getName() == null ? null : previous.get(repo.getName());
+                known += snapshot == null ? 0 : 1;
+                final Date pushedAt = repo.getPushedAt();
+                if (snapshot != null && pushedAt != null && snapshot.getPushedAt() == pushedAt.getTime()) {
+                    snapshots.add(snapshot);
+                    current.put(repo.getName(), snapshot);
+                } else {
+                    changedRepos.add(repo);
+                }
+            }
+            unchanged += page.size() - changedRepos.size();
+            changed += changedRepos.size();
+            return changedRepos;
+        }
 
-    private String serialize(@NonNull final BigDecimal num) {
-        return String.format("%,.2f", num.setScale(2, RoundingMode.HALF_EVEN));
+        /**
+         * Takes snapshots of changed repos once their languages are fetched.
+         */
+        private synchronized void addFetched(final List<GHRepository> repos, final List<Map<String, Long>> fetched) {
+            for (int i = 0; i < repos.size(); i++) {
+                final GHRepository repo = repos.get(i);
+                final Date pushedAt = repo.getPushedAt();
+                final RepoSnapshot snapshot = new RepoSnapshot(pushedAt == null ? 0 : pushedAt.getTime(),
+                        new HashMap<>(fetched.get(i)));
+                snapshots.add(snapshot);
+                if (repo.getName() != null && pushedAt != null) {
+                    // without a push time, we can't tell whether the repo changed, so there's no point in storing it
+                    current.put(repo.getName(), snapshot);
+                }
+            }
+        }
     }
 }
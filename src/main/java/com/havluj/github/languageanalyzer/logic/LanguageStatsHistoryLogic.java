@@ -0,0 +1,109 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.dao.StatsHistoryDao;
+import com.havluj.github.languageanalyzer.exceptions.InvalidHistoryRangeException;
+import com.havluj.github.languageanalyzer.model.HistoryResolution;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.StatsView;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves the history of language stats (see {@link StatsHistoryDao}). Every point of the history is projected into
+ * the requested {@link StatsView}, same as current stats.
+ *
+ * When no resolution is requested, the finest one that fits the range into {@code stats.history.max-points} points is
+ * used: days for short ranges, weekly and monthly rollups for longer ones. A resolution that doesn't fit is rejected,
+ * so a single request never reads more than that many points.
+ */
+@Service
+@Slf4j
+public class LanguageStatsHistoryLogic {
+
+    /**
+     * Range served when none is requested.
+     */
+    static final int DEFAULT_DAYS = 30;
+
+    @Autowired
+    private StatsHistoryDao statsHistoryDao;
+    @Value("${stats.history.max-points:120}")
+    private int maxPoints;
+
+    /**
+     * Records stats that were just stored as the org's history for today. History is a side note of a refresh, so a
+     * failure is logged and doesn't fail the refresh.
+     */
+    public void record(@NonNull final SupportedOrg org, @NonNull final LanguageStats stats) {
+        try {
+            statsHistoryDao.record(org.getOrgName(), stats);
+        } catch (RuntimeException e) {
+            log.error("Recording history of {}'s stats failed.", org, e);
+        }
+    }
+
+    /**
+     * Gets the history of an org's stats between two days (both included, in UTC).
+     *
+     * @param from       Defaults to {@value #DEFAULT_DAYS} days before {@code to}.
+     * @param to         Defaults to today.
+     * @param resolution "day", "week" or "month". Picked by the length of the range if null.
+     * @return Map of the first day of every period (ISO format) to the stats at its end, sorted by day. Periods without
+     *         recorded stats are missing.
+     * @throws InvalidHistoryRangeException if the range or the resolution is invalid, or if the range has too many
+     *                                      points at the requested resolution.
+     */
+    public Map<String, Map<String, Object>> getHistory(@NonNull final SupportedOrg org, final LocalDate from,
+                                                       final LocalDate to, final String resolution,
+                                                       @NonNull final StatsView view) {
+        final LocalDate end = to == null ? LocalDate.now(ZoneOffset.UTC) : to;
+        final LocalDate start = from == null ? end.minusDays(DEFAULT_DAYS) : from;
+        if (start.isAfter(end)) {
+            throw new InvalidHistoryRangeException(String.format("from (%s) is after to (%s).", start, end));
+        }
+        final HistoryResolution res = resolution == null
+                ? resolutionFor(start, end)
+                : parseResolution(resolution);
+        final long points = res.periodsBetween(start, end);
+        if (points > maxPoints) {
+            throw new InvalidHistoryRangeException(String.format("%d points requested, at most %d are allowed.",
+                    points, maxPoints));
+        }
+
+        log.debug("Reading history of {} from {} to {} by {}.", org, start, end, res);
+        final Map<String, Map<String, Object>> history = new LinkedHashMap<>();
+        statsHistoryDao.getHistory(org.getOrgName(), start, end, res).forEach((day, byteCounts) ->
+                history.put(day.toString(), LanguageStatsViewLogic.project(byteCounts, view)));
+        return history;
+    }
+
+    /**
+     * @return The finest resolution that fits the range into the max number of points (months if none does).
+     */
+    HistoryResolution resolutionFor(final LocalDate from, final LocalDate to) {
+        for (HistoryResolution resolution : HistoryResolution.values()) {
+            if (resolution.periodsBetween(from, to) <= maxPoints) {
+                return resolution;
+            }
+        }
+        return HistoryResolution.MONTH;
+    }
+
+    private static HistoryResolution parseResolution(final String resolution) {
+        try {
+            return HistoryResolution.valueOf(resolution.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidHistoryRangeException(String.format("Unknown resolution [%s].", resolution));
+        }
+    }
+}
@@ -1,15 +1,52 @@
 package com.havluj.github.languageanalyzer.logic;
 
+import com.havluj.github.languageanalyzer.dao.AsyncGitHubDao;
+import com.havluj.github.languageanalyzer.dao.GitHubRequestScheduler;
+import com.havluj.github.languageanalyzer.dao.GitHubRequestScheduler.Priority;
+import com.havluj.github.languageanalyzer.dao.GitHubRequestScheduler.SharedPriority;
 import com.havluj.github.languageanalyzer.dao.StorageDao;
 import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
 import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Serves language stats using a stale-while-revalidate policy:
+ * <ul>
+ *     <li>Stats younger than the soft TTL ({@code stats.ttl.soft}) are returned as they are.</li>
+ *     <li>Stats older than the soft TTL are returned right away, while fresh stats are fetched in the background.</li>
+ *     <li>Stats older than the hard TTL ({@code stats.ttl.hard}) are considered too old to serve. The caller has to
+ *     wait for fresh stats, same as if there were no stats at all.</li>
+ * </ul>
+ * The daily refresh normally keeps all stats younger than the soft TTL, so callers only wait when an org is requested
+ * for the first time or when the service was down for a long time.
+ *
+ * Fetches somebody waits for are sent to GitHub with {@link Priority#INTERACTIVE} priority, refreshes with
+ * {@link Priority#BACKGROUND} priority (see {@link GitHubRequestScheduler}). Somebody who starts waiting for a refresh
+ * already in flight promotes it to interactive, so they don't wait behind the pacing of background requests.
+ *
+ * Fetched stats are stored and also recorded in the org's history (see {@link LanguageStatsHistoryLogic}).
+ *
+ * Every fetch is timed per org ({@code stats.refresh}), and the fetches started, joined by concurrent callers and in
+ * flight are exposed as metrics too ({@code stats.fetches.*}).
+ */
 @Service
 @Slf4j
 public class LanguageStatsLogic {
@@ -18,23 +55,157 @@ public class LanguageStatsLogic {
     private StorageDao storageDao;
     @Autowired
     private LanguageStatsComputeUtil languageStatsComputeUtil;
+    @Autowired
+    private LanguageStatsHistoryLogic languageStatsHistoryLogic;
+    @Autowired
+    private GitHubRequestScheduler gitHubRequestScheduler;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Value("${stats.ttl.soft:25h}")
+    private Duration softTtl;
+    @Value("${stats.ttl.hard:7d}")
+    private Duration hardTtl;
+
+    /**
+     * Concurrent fetches of the same org share a single crawl of GitHub (e.g. when many requests for an org arrive
+     * before its stats are stored). The priority of a fetch is shared with the callers joining it.
+     */
+    private final SingleFlight<SupportedOrg, LanguageStats> fetches = new SingleFlight<>();
+
+    @PostConstruct
+    void registerMetrics() {
+        FunctionCounter.builder("stats.fetches.started", this, LanguageStatsLogic::getStartedFetchCount)
+                .description("Fetches of fresh stats from GitHub that were started")
+                .register(meterRegistry);
+        FunctionCounter.builder("stats.fetches.coalesced", this, LanguageStatsLogic::getCoalescedFetchCount)
+                .description("Callers that joined an in-flight fetch instead of starting their own")
+                .register(meterRegistry);
+        Gauge.builder("stats.fetches.in.flight", this, LanguageStatsLogic::getInFlightFetchCount)
+                .description("Fetches of fresh stats from GitHub currently in flight")
+                .register(meterRegistry);
+    }
 
     /**
-     * Gets language stats for a given org. It will try to fetch data from the storage DAO. If no stats are returned,
-     * it will try to fetch, compute, and store fresh data from GitHub.
+     * Gets language stats for a given org. It will try to fetch data from the storage DAO. If no stats are returned
+     * (or they are past the hard TTL), it will try to fetch, compute, and store fresh data from GitHub.
      */
     public LanguageStats getLanguageStatsForOrg(@NonNull final SupportedOrg org) {
-        log.debug(String.format("Trying to fetch languages stats for org [%s].", org));
-        Map<String, String> stats = storageDao.getLanguageStats(org.getOrgName());
+        return AsyncGitHubDao.join(getLanguageStatsForOrgAsync(org));
+    }
+
+    /**
+     * Asynchronous variant of {@link #getLanguageStatsForOrg(SupportedOrg)}. Stats that are already stored are
+     * returned as a completed future; otherwise the future completes once fresh stats are fetched and stored.
+     */
+    public CompletableFuture<LanguageStats> getLanguageStatsForOrgAsync(@NonNull final SupportedOrg org) {
+        log.debug("Trying to fetch languages stats for org [{}].", org);
+        final LanguageStats stats = storageDao.getLanguageStats(org.getOrgName());
 
         if (stats == null) {
             // this means we don't have the data in memory or on disk
             log.debug("No stats found, will refresh.");
-            return fetchAndStore(org);
+            return fetchAndStore(org, Priority.INTERACTIVE);
+        }
+
+        if (!isServable(org, stats.getUpdatedAt())) {
+            return fetchAndStore(org, Priority.INTERACTIVE);
+        }
+        return CompletableFuture.completedFuture(stats);
+    }
+
+    /**
+     * Same as {@link #getLanguageStatsForOrg(SupportedOrg)}, but returns the stats serialized into JSON, ready to be
+     * sent to clients. Stats that are already stored are served without reading MapDB or serializing anything.
+     */
+    public LanguageStatsJson getLanguageStatsJsonForOrg(@NonNull final SupportedOrg org) {
+        log.debug("Trying to fetch serialized languages stats for org [{}].", org);
+        final LanguageStatsJson json = storageDao.getLanguageStatsJson(org.getOrgName());
+        if (json != null && isServable(org, json.getUpdatedAt())) {
+            return json;
+        }
+
+        if (json == null) {
+            log.debug("No stats found, will refresh.");
+        }
+        // serialized (once) from the stats just stored, as reading them again would count as another access
+        final LanguageStats fetched = AsyncGitHubDao.join(fetchAndStore(org, Priority.INTERACTIVE));
+        return storageDao.getLanguageStatsJson(org.getOrgName(), fetched);
+    }
+
+    /**
+     * Same as {@link #getLanguageStatsForOrg(SupportedOrg)}, but the returned stats always carry byte counts (see
+     * {@link LanguageStats#getByteCounts()}): stats stored by older versions, which have percentages only, are
+     * refreshed first.
+     */
+    public LanguageStats getLanguageStatsWithByteCountsForOrg(@NonNull final SupportedOrg org) {
+        final LanguageStats stats = getLanguageStatsForOrg(org);
+        if (stats.hasByteCounts()) {
+            return stats;
+        }
+
+        log.debug("Stats of {} have no byte counts, will refresh.", org);
+        AsyncGitHubDao.join(fetchAndStore(org, Priority.INTERACTIVE));
+        return storageDao.getLanguageStats(org.getOrgName());
+    }
+
+    /**
+     * Batch variant of {@link #getLanguageStatsJsonForOrg(SupportedOrg)}. Stored stats of all orgs are read in a single
+     * pass; orgs that have to be fetched are fetched concurrently, and this waits for all of them.
+     *
+     * @return Map of org to its serialized stats, in the order of the given orgs.
+     */
+    public Map<SupportedOrg, LanguageStatsJson> getLanguageStatsJsonForOrgs(@NonNull final Collection<SupportedOrg> orgs) {
+        log.debug("Trying to fetch serialized languages stats for {} orgs.", orgs.size());
+        final List<String> orgNames = new ArrayList<>(orgs.size());
+        for (SupportedOrg org : orgs) {
+            orgNames.add(org.getOrgName());
+        }
+        final Map<String, LanguageStatsJson> stored = storageDao.getLanguageStatsJsonBatch(orgNames);
+
+        final Map<SupportedOrg, LanguageStatsJson> res = new LinkedHashMap<>(orgs.size() * 4 / 3 + 1);
+        final List<SupportedOrg> fetched = new ArrayList<>();
+        final List<CompletableFuture<LanguageStats>> fetches = new ArrayList<>();
+        for (SupportedOrg org : orgs) {
+            final LanguageStatsJson json = stored.get(org.getOrgName());
+            res.put(org, json);
+            if (json == null || !isServable(org, json.getUpdatedAt())) {
+                fetched.add(org);
+                fetches.add(fetchAndStore(org, Priority.INTERACTIVE));
+            }
+        }
+
+        if (!fetches.isEmpty()) {
+            log.debug("Fetching stats of {} orgs.", fetches.size());
+            AsyncGitHubDao.join(CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0])));
+            for (int i = 0; i < fetched.size(); i++) {
+                final SupportedOrg org = fetched.get(i);
+                res.put(org, storageDao.getLanguageStatsJson(org.getOrgName(), fetches.get(i).join()));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Applies the TTL policy to stats stored at a given time. Starts a background refresh if they are past the soft
+     * TTL.
+     *
+     * @return False if the stats are past the hard TTL and the caller has to wait for fresh ones.
+     */
+    private boolean isServable(@NonNull final SupportedOrg org, final long updatedAt) {
+        final Duration age = updatedAt == 0
+                ? null
+                : Duration.ofMillis(System.currentTimeMillis() - updatedAt);
+        if (age != null && age.compareTo(hardTtl) > 0) {
+            log.debug("Stats are {} old, past the hard TTL. Will refresh.", age);
+            return false;
+        } else if (age == null || age.compareTo(softTtl) > 0) {
+            // unknown age means the stats were stored by an older version, so they're likely stale too
+            log.debug("Stats are {} old, past the soft TTL. Returning, will refresh in background.", age);
+            refreshInBackground(org);
         } else {
             log.debug("Valid stats found, returning.");
-            return new LanguageStats(stats);
         }
+        return true;
     }
 
     /**
@@ -42,15 +213,70 @@ public class LanguageStatsLogic {
      * value or overriding an existing value).
      */
     public void refreshStats(@NonNull final SupportedOrg org) {
-        log.debug(String.format("Starting refresh of stats for org: %s.", org));
-        fetchAndStore(org);
+        AsyncGitHubDao.join(refreshStatsAsync(org));
+    }
+
+    /**
+     * Asynchronous variant of {@link #refreshStats(SupportedOrg)}. Refreshes of many orgs are run by
+     * {@link StatsRefreshEngine}.
+     */
+    public CompletableFuture<LanguageStats> refreshStatsAsync(@NonNull final SupportedOrg org) {
+        log.debug("Starting refresh of stats for org: {}.", org);
+        return fetchAndStore(org, Priority.BACKGROUND);
+    }
+
+    private void refreshInBackground(@NonNull final SupportedOrg org) {
+        fetchAndStore(org, Priority.BACKGROUND).whenComplete((ls, e) -> {
+            if (e != null) {
+                log.error("Background refresh of {}'s stats failed.", org, e);
+            }
+        });
+    }
+
+    /**
+     * @return Number of callers that joined an in-flight fetch of an org instead of starting their own.
+     */
+    public long getCoalescedFetchCount() {
+        return fetches.getCoalescedCount();
+    }
+
+    /**
+     * @return Number of fetches of fresh stats from GitHub that were actually started.
+     */
+    public long getStartedFetchCount() {
+        return fetches.getExecutionCount();
+    }
+
+    /**
+     * @return Number of fetches of fresh stats from GitHub currently in flight.
+     */
+    public int getInFlightFetchCount() {
+        return fetches.getInFlightCount();
     }
 
-    private LanguageStats fetchAndStore(@NonNull final SupportedOrg org) {
-        final LanguageStats ls = languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(org);
-        log.debug(String.format("%s's stats computed. Persisting.", org));
-        storageDao.updateLanguageStats(org.getOrgName(), ls);
-        return ls;
+    private CompletableFuture<LanguageStats> fetchAndStore(@NonNull final SupportedOrg org,
+                                                           @NonNull final Priority priority) {
+        return fetches.execute(org, new SharedPriority(priority), sharedPriority -> {
+            final Timer.Sample sample = Timer.start(meterRegistry);
+            return GitHubRequestScheduler.callWithPriority(sharedPriority,
+                            () -> languageStatsComputeUtil.fetchFreshLanguageStatsForOrgAsync(org))
+                    .thenApply(ls -> {
+                        log.debug("{}'s stats computed. Persisting.", org);
+                        final LanguageStats stored = storageDao.updateLanguageStats(org.getOrgName(), ls);
+                        languageStatsHistoryLogic.record(org, ls);
+                        return stored;
+                    })
+                    .whenComplete((ls, e) -> sample.stop(Timer.builder("stats.refresh")
+                            .description("Fetching, computing and storing fresh stats of an org")
+                            .tag("org", org.getOrgName())
+                            .tag("priority", sharedPriority.get().name())
+                            .tag("outcome", e == null ? "SUCCESS" : "ERROR")
+                            .register(meterRegistry)));
+        }, sharedPriority -> {
+            if (priority == Priority.INTERACTIVE && gitHubRequestScheduler.promote(sharedPriority)) {
+                log.debug("Somebody is waiting for {}'s background refresh, promoted it to interactive.", org);
+            }
+        });
     }
 
 }
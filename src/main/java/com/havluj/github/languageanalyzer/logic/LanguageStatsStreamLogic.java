@@ -0,0 +1,457 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.dao.StorageDao;
+import com.havluj.github.languageanalyzer.exceptions.TooManySubscribersException;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes stats of orgs to clients subscribed to them (server-sent events), so that they don't have to poll for stats
+ * that change about once a day.
+ *
+ * A subscriber gets the current stats of its org right away, then the new stats whenever they are stored (see
+ * {@link StorageDao#addUpdateListener}), including stats refreshed by another instance. In between, a heartbeat (an
+ * SSE comment) is sent every {@code stats.stream.heartbeat-interval}, so that proxies don't close idle connections and
+ * dead ones are noticed. Subscriptions end after {@code stats.stream.timeout}; {@code EventSource} clients reconnect
+ * on their own.
+ *
+ * Idle subscribers don't take a thread: the request is async (the servlet thread is released once the emitter is
+ * returned). Events are queued per subscriber, and the queues are drained by a small pool of threads
+ * ({@code stats.stream.sender-threads}), one subscriber at a time per queue, which keeps events of a subscriber in
+ * order. A subscriber that doesn't keep up is dropped (the stream ends, it can reconnect) once it has
+ * {@code stats.stream.max-queued-events} events queued.
+ *
+ * Sending is a blocking write, though, which only returns once the client reads (or the servlet container gives up on
+ * it after its write timeout, {@code server.tomcat.connection-timeout}), and neither completing nor failing the emitter
+ * interrupts it. A client that stops reading would keep its sender thread until then, and a few of them would stall
+ * the stream for everybody. So a send that takes longer than {@code stats.stream.send-timeout} drops its subscriber,
+ * and the thread stuck in it is replaced by a new one until the write returns, up to
+ * {@code stats.stream.max-sender-threads} threads in total.
+ *
+ * Stats are serialized once per update, no matter how many clients subscribe to them: their JSON is the one
+ * {@link StorageDao} caches for {@code /org/{org}/languages}.
+ *
+ * The number of subscribers of an instance is limited by {@code stats.stream.max-subscribers}. A slot is reserved
+ * before the stats of a new subscriber are fetched, so that concurrent subscriptions can't go over the limit.
+ */
+@Service
+@Slf4j
+public class LanguageStatsStreamLogic {
+
+    static final String STATS_EVENT = "stats";
+
+    private final LanguageStatsLogic languageStatsLogic;
+    private final StorageDao storageDao;
+    private final MeterRegistry meterRegistry;
+    private final Duration timeout;
+    private final int maxSubscribers;
+    private final int maxQueuedEvents;
+    private final Duration sendTimeout;
+    private final int maxSenderThreads;
+
+    /**
+     * Subscribers by org name. Orgs without subscribers are removed.
+     */
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final Set<Subscriber> allSubscribers = ConcurrentHashMap.newKeySet();
+    /**
+     * Subscribers, including the slots reserved for the ones whose stats are being fetched.
+     */
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    /**
+     * Resized while sends are stuck, see {@link #addSenderThread()}.
+     */
+    private final ThreadPoolExecutor sender;
+
+    public LanguageStatsStreamLogic(@Autowired final LanguageStatsLogic languageStatsLogic,
+                                    @Autowired final StorageDao storageDao,
+                                    @Autowired final MeterRegistry meterRegistry,
+                                    @Value("${stats.stream.timeout:30m}") final Duration timeout,
+                                    @Value("${stats.stream.max-subscribers:50000}") final int maxSubscribers,
+                                    @Value("${stats.stream.sender-threads:4}") final int senderThreads,
+                                    @Value("${stats.stream.max-queued-events:16}") final int maxQueuedEvents,
+                                    @Value("${stats.stream.send-timeout:10s}") final Duration sendTimeout,
+                                    @Value("${stats.stream.max-sender-threads:64}") final int maxSenderThreads) {
+        this.languageStatsLogic = languageStatsLogic;
+        this.storageDao = storageDao;
+        this.meterRegistry = meterRegistry;
+        this.timeout = timeout;
+        this.maxSubscribers = maxSubscribers;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.sendTimeout = sendTimeout;
+        this.maxSenderThreads = maxSenderThreads;
+        final AtomicInteger threadCount = new AtomicInteger();
+        sender = new ThreadPoolExecutor(senderThreads, senderThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    final Thread t = new Thread(r, "stats-stream-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    @PostConstruct
+    void subscribeToUpdates() {
+        storageDao.addUpdateListener(this::publish);
+        Gauge.builder("stats.stream.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Clients subscribed to stats updates")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void destroy() {
+        sender.shutdownNow();
+        for (Subscriber subscriber : allSubscribers) {
+            subscriber.emitter.complete();
+        }
+    }
+
+    /**
+     * Subscribes a new client to the stats of a given org. Stats that aren't stored yet (or are past the hard TTL) are
+     * fetched first, same as for {@link LanguageStatsLogic#getLanguageStatsJsonForOrg(SupportedOrg)}.
+     *
+     * @throws TooManySubscribersException If the instance has {@code stats.stream.max-subscribers} already.
+     */
+    public SseEmitter subscribe(@NonNull final SupportedOrg org) {
+        final int count = subscriberCount.incrementAndGet();
+        if (count > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new TooManySubscribersException(String.format("%d clients are streaming stats already.",
+                    count - 1));
+        }
+        final LanguageStatsJson initial;
+        try {
+            initial = languageStatsLogic.getLanguageStatsJsonForOrg(org);
+        } catch (RuntimeException e) {
+            subscriberCount.decrementAndGet();
+            throw e;
+        }
+
+        final String orgName = org.getOrgName();
+        final Subscriber subscriber = new Subscriber(orgName, createEmitter());
+        subscriber.emitter.onCompletion(subscriber::unsubscribe);
+        // ends the response normally, clients reconnect
+        subscriber.emitter.onTimeout(subscriber.emitter::complete);
+        subscriber.emitter.onError(e -> subscriber.unsubscribe());
+        allSubscribers.add(subscriber);
+        subscribers.compute(orgName, (name, orgSubscribers) -> {
+            final Set<Subscriber> res = orgSubscribers == null ? ConcurrentHashMap.newKeySet() : orgSubscribers;
+            res.add(subscriber);
+            return res;
+        });
+
+        // Updates stored from now on are published to the subscriber. Ones stored while the initial stats were being
+        // fetched are not, so the stored stats are sent if they are newer; stats older than the ones sent already are
+        // skipped, whatever the order they get queued in.
+        subscriber.enqueue(Event.of(initial));
+        final LanguageStats stored = storageDao.getLanguageStats(orgName);
+        if (stored != null && stored.getUpdatedAt() > initial.getUpdatedAt()) {
+            subscriber.enqueue(Event.of(storageDao.getLanguageStatsJson(orgName, stored)));
+        }
+        log.debug("New subscriber of {}'s stats, {} subscribers in total.", orgName, subscriberCount.get());
+        return subscriber.emitter;
+    }
+
+    /**
+     * Sends an SSE comment to all subscribers, keeping their connections alive. Subscribers with events queued
+     * already don't need one.
+     */
+    @Scheduled(fixedDelayString = "${stats.stream.heartbeat-interval:30s}")
+    public void heartbeat() {
+        for (Subscriber subscriber : allSubscribers) {
+            subscriber.enqueueHeartbeat();
+        }
+    }
+
+    /**
+     * @return Number of clients subscribed to stats of any org.
+     */
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    /**
+     * @return Number of threads sending events, including the ones stuck in a send.
+     */
+    public int getSenderThreadCount() {
+        return sender.getMaximumPoolSize();
+    }
+
+    /**
+     * Emitter of a new subscriber. Tests override it to stand in for clients.
+     */
+    protected SseEmitter createEmitter() {
+        return new SseEmitter(timeout.toMillis());
+    }
+
+    /**
+     * Adds a sender thread, standing in for one stuck in a send.
+     *
+     * @return False if there are {@code stats.stream.max-sender-threads} already.
+     */
+    private synchronized boolean addSenderThread() {
+        final int threads = sender.getMaximumPoolSize();
+        if (threads >= maxSenderThreads) {
+            return false;
+        }
+        // the maximum first, it can't be lower than the core size
+        sender.setMaximumPoolSize(threads + 1);
+        sender.setCorePoolSize(threads + 1);
+        return true;
+    }
+
+    /**
+     * Removes a thread added by {@link #addSenderThread()}, once the send it stood in for returns.
+     */
+    private synchronized void removeSenderThread() {
+        final int threads = sender.getMaximumPoolSize();
+        sender.setCorePoolSize(threads - 1);
+        sender.setMaximumPoolSize(threads - 1);
+    }
+
+    /**
+     * Called with the lock of {@link StorageDao} held, so the JSON is taken from its cache on a sender thread.
+     */
+    private void publish(final String orgName, final LanguageStats stats) {
+        if (!subscribers.containsKey(orgName)) {
+            return;
+        }
+        sender.execute(() -> {
+            final Set<Subscriber> orgSubscribers = subscribers.get(orgName);
+            if (orgSubscribers == null) {
+                return;
+            }
+            final Event event = Event.of(storageDao.getLanguageStatsJson(orgName, stats));
+            log.debug("Pushing {}'s new stats to {} subscribers.", orgName, orgSubscribers.size());
+            for (Subscriber subscriber : orgSubscribers) {
+                subscriber.enqueue(event);
+            }
+        });
+    }
+
+    /**
+     * An event to send, shared by all subscribers it's sent to. The event builders of {@link SseEmitter} can't be
+     * shared, so one is made per send, with the same body: the bytes of the cached JSON, not even copied.
+     */
+    private static final class Event {
+
+        private static final Event HEARTBEAT = new Event(0, null, null);
+
+        private final long updatedAt;
+        private final String etag;
+        private final byte[] body;
+
+        private Event(final long updatedAt, final String etag, final byte[] body) {
+            this.updatedAt = updatedAt;
+            this.etag = etag;
+            this.body = body;
+        }
+
+        static Event of(final LanguageStatsJson json) {
+            return new Event(json.getUpdatedAt(), json.getEtag(), json.getBody());
+        }
+
+        boolean isHeartbeat() {
+            return this == HEARTBEAT;
+        }
+
+        /**
+         * The event's ID is the ETag of the stats, same as {@code /org/{org}/languages} would return with them.
+         */
+        SseEmitter.SseEventBuilder toSse() {
+            if (isHeartbeat()) {
+                return SseEmitter.event().comment("heartbeat");
+            }
+            return SseEmitter.event().name(STATS_EVENT).id(etag).data(body, MediaType.APPLICATION_JSON);
+        }
+    }
+
+    /**
+     * A client with its queue of events. The queue is drained by one sender thread at a time.
+     */
+    private final class Subscriber {
+
+        private final String orgName;
+        private final SseEmitter emitter;
+        private final AtomicBoolean unsubscribed = new AtomicBoolean();
+
+        // all guarded by this
+        private final Queue<Event> queue = new ArrayDeque<>();
+        private boolean draining;
+        private boolean dropped;
+        /**
+         * Stats queued last, so that older ones (e.g. initial stats queued after an update) are not sent after them.
+         */
+        private long queuedUpdatedAt;
+        /**
+         * Incremented whenever a send starts or ends, so that timers of sends that returned don't fire.
+         */
+        private int sendGeneration;
+        /**
+         * Whether a sender thread was added in place of the one stuck in the current send.
+         */
+        private boolean replaced;
+
+        Subscriber(final String orgName, final SseEmitter emitter) {
+            this.orgName = orgName;
+            this.emitter = emitter;
+        }
+
+        void enqueue(final Event event) {
+            final boolean drop;
+            final boolean startDraining;
+            synchronized (this) {
+                if (dropped || event.updatedAt <= queuedUpdatedAt) {
+                    return;
+                }
+                queuedUpdatedAt = event.updatedAt;
+                drop = queue.size() >= maxQueuedEvents;
+                if (drop) {
+                    log.info("A subscriber of {}'s stats has {} events queued, dropping it.", orgName, queue.size());
+                    dropped = true;
+                    queue.clear();
+                } else {
+                    queue.add(event);
+                }
+                // otherwise, the thread draining the queue sends the event, or completes the emitter once dropped
+                startDraining = !draining;
+                draining = true;
+            }
+            if (drop) {
+                unsubscribe();
+            }
+            if (startDraining) {
+                sender.execute(this::drain);
+            }
+        }
+
+        synchronized void enqueueHeartbeat() {
+            if (dropped || !queue.isEmpty()) {
+                return;
+            }
+            queue.add(Event.HEARTBEAT);
+            if (!draining) {
+                draining = true;
+                sender.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            boolean wasDropped;
+            while (true) {
+                final Event event;
+                synchronized (this) {
+                    event = dropped ? null : queue.poll();
+                    if (event == null) {
+                        draining = false;
+                        wasDropped = dropped;
+                        break;
+                    }
+                }
+                if (!send(event)) {
+                    return;
+                }
+            }
+            if (wasDropped) {
+                // completed by the sender thread, as completing waits for a send in progress
+                unsubscribe();
+                emitter.complete();
+            }
+        }
+
+        /**
+         * @return False if the client is gone.
+         */
+        private boolean send(final Event event) {
+            final int generation;
+            synchronized (this) {
+                generation = ++sendGeneration;
+            }
+            CompletableFuture.delayedExecutor(sendTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .execute(() -> expire(generation));
+            try {
+                emitter.send(event.toSse());
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                // the client is gone (or the emitter is complete already)
+                log.debug("Sending {}'s stats to a subscriber failed, unsubscribing it.", orgName, e);
+                synchronized (this) {
+                    dropped = true;
+                    draining = false;
+                    queue.clear();
+                }
+                unsubscribe();
+                emitter.completeWithError(e);
+                return false;
+            } finally {
+                final boolean wasReplaced;
+                synchronized (this) {
+                    sendGeneration++;
+                    wasReplaced = replaced;
+                    replaced = false;
+                }
+                if (wasReplaced) {
+                    removeSenderThread();
+                }
+            }
+        }
+
+        /**
+         * Drops the subscriber if the send of the given generation is still in progress, i.e. the client doesn't
+         * read, and frees up the pool from the thread stuck in it.
+         */
+        private void expire(final int generation) {
+            synchronized (this) {
+                if (generation != sendGeneration) {
+                    return;
+                }
+                dropped = true;
+                queue.clear();
+                replaced = addSenderThread();
+            }
+            log.info("Sending {}'s stats to a subscriber takes over {}, dropping it.", orgName, sendTimeout);
+            unsubscribe();
+        }
+
+        /**
+         * Frees the subscriber's slot, once.
+         */
+        void unsubscribe() {
+            if (!unsubscribed.compareAndSet(false, true)) {
+                return;
+            }
+            allSubscribers.remove(this);
+            subscribers.computeIfPresent(orgName, (name, orgSubscribers) -> {
+                orgSubscribers.remove(this);
+                return orgSubscribers.isEmpty() ? null : orgSubscribers;
+            });
+            subscriberCount.decrementAndGet();
+        }
+    }
+}
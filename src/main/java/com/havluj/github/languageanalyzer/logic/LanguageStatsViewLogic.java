@@ -0,0 +1,168 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.havluj.github.languageanalyzer.dao.StorageDao;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
+import com.havluj.github.languageanalyzer.model.StatsView;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves views of language stats other than the default one (see {@link StatsView}). Views are projected from the
+ * stored byte counts when they are requested, and the serialized result is cached per org and view until the org's
+ * stats change (i.e. until they are updated at another time). A new view costs some CPU on its first request, never a
+ * crawl of GitHub.
+ *
+ * The cache is bounded by the estimated size of the views on heap ({@code stats.memory.views-max-size}), same as the
+ * stats they are projected from (see {@link StorageDao}), evicting the least frequently requested ones. A cached view
+ * keeps only its JSON, not the stats. Views that are not in the cache are projected again, which is still cheap (it's
+ * a few dozen languages per org). Hits, misses and evictions are exposed as {@code cache.*} metrics (tagged with
+ * {@code cache=languageStatsViews}).
+ */
+@Service
+@Slf4j
+public class LanguageStatsViewLogic {
+
+    private static final Comparator<Map.Entry<String, Long>> BIGGEST_FIRST =
+            Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey());
+
+    @Autowired
+    private LanguageStatsLogic languageStatsLogic;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Value("${stats.memory.views-max-size:8MB}")
+    private DataSize maxSize;
+
+    private Cache<ViewKey, CachedView> views;
+
+    @PostConstruct
+    void createCache() {
+        views = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((ViewKey key, CachedView view) -> estimateSize(key, view))
+                // evicts on the calling thread, so that the bound holds as soon as a put returns
+                .executor(Runnable::run)
+                .recordStats()
+                .build(), "languageStatsViews");
+    }
+
+    /**
+     * Gets a view of language stats of a given org, serialized into JSON. The default view is served the same way as
+     * by {@link LanguageStatsLogic#getLanguageStatsJsonForOrg(SupportedOrg)}.
+     */
+    public LanguageStatsJson getLanguageStatsJsonForOrg(@NonNull final SupportedOrg org,
+                                                        @NonNull final StatsView view) {
+        if (view.isDefault()) {
+            return languageStatsLogic.getLanguageStatsJsonForOrg(org);
+        }
+
+        final LanguageStats stats = languageStatsLogic.getLanguageStatsWithByteCountsForOrg(org);
+        final ViewKey key = new ViewKey(org.getOrgName(), view.limitedTo(stats.getByteCounts().size()));
+        final CachedView cached = views.getIfPresent(key);
+        // stats are only ever replaced by fresh ones, updated at a later time (unknown for stats of older versions)
+        if (cached != null && stats.getUpdatedAt() != 0 && cached.getUpdatedAt() == stats.getUpdatedAt()) {
+            return cached.getJson();
+        }
+
+        log.debug("Projecting {} of {}'s stats.", key.getView(), org);
+        final LanguageStatsJson json = LanguageStatsJson.of(project(stats, key.getView()), stats.getUpdatedAt());
+        views.put(key, new CachedView(stats.getUpdatedAt(), json));
+        return json;
+    }
+
+    /**
+     * Projects stats into a view. Percentages are shares of all languages' bytes, even if only the top languages are
+     * included. Package-private so that it can be tested on its own.
+     *
+     * @return Map of language to its value in the view: a string for percentages, a number for bytes.
+     */
+    static Map<String, Object> project(@NonNull final LanguageStats stats, @NonNull final StatsView view) {
+        return project(stats.getByteCounts(), view);
+    }
+
+    /**
+     * Same as {@link #project(LanguageStats, StatsView)}, for byte counts on their own (e.g. from history).
+     */
+    static Map<String, Object> project(@NonNull final Map<String, Long> byteCounts, @NonNull final StatsView view) {
+        long total = 0;
+        for (long bytes : byteCounts.values()) {
+            total += bytes;
+        }
+        if (view.getFormat() == StatsView.Format.PERCENT && total == 0) {
+            // same as the default view of an org with only empty repos
+            return Collections.emptyMap();
+        }
+
+        List<Map.Entry<String, Long>> languages = new ArrayList<>(byteCounts.entrySet());
+        if (view.getTop() > 0 && view.getTop() < languages.size()) {
+            languages.sort(BIGGEST_FIRST);
+            languages = languages.subList(0, view.getTop());
+        }
+
+        final Map<String, Object> res = new HashMap<>(languages.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Long> language : languages) {
+            res.put(language.getKey(), view.getFormat() == StatsView.Format.BYTES
+                    ? language.getValue()
+                    : percentage(language.getValue(), total, view.getPrecision()));
+        }
+        return res;
+    }
+
+    /**
+     * @return bytes / total with the given number of decimal places, rounded half-even. Same as the stored
+     *         percentages for 2 decimal places (see {@link LanguageByteAccumulator}).
+     */
+    static String percentage(final long bytes, final long total, final int precision) {
+        return BigDecimal.valueOf(bytes)
+                .divide(BigDecimal.valueOf(total), precision, RoundingMode.HALF_EVEN)
+                .toPlainString();
+    }
+
+    /**
+     * @return Rough size of the view on heap, in bytes: its JSON (see {@link StorageDao#estimateSize(String,
+     *         LanguageStatsJson)}), plus its key and the objects holding it.
+     */
+    private static int estimateSize(final ViewKey key, final CachedView view) {
+        return 96 + StorageDao.estimateSize(key.getOrgName(), view.getJson());
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    @EqualsAndHashCode
+    private static final class ViewKey {
+        private final String orgName;
+        private final StatsView view;
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    private static final class CachedView {
+        /**
+         * When the stats the view was projected from were updated.
+         */
+        private final long updatedAt;
+        private final LanguageStatsJson json;
+    }
+}
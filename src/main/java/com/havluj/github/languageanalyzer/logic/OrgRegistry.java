@@ -0,0 +1,170 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.exceptions.InvalidOrgNameException;
+import com.havluj.github.languageanalyzer.exceptions.OrgNotFoundException;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Orgs we serve language stats for. Seeded from {@code orgs.supported} upon startup, and changed at runtime through
+ * the admin API. Runtime changes are not persisted; after a restart, the registry starts from the config again.
+ * Unregistering an org doesn't delete its stored stats, they are just not served (or refreshed) anymore.
+ *
+ * Lookups happen on every request, changes are rare. So the registry is copy-on-write: lookups read an immutable map
+ * without any locking, and every change builds a new one and publishes it through a volatile field. Changes take
+ * batches of orgs, so that registering thousands of orgs doesn't copy the map thousands of times.
+ */
+@Service
+@Slf4j
+public class OrgRegistry {
+
+    /**
+     * GitHub logins: alphanumeric characters or single hyphens, can't start or end with a hyphen, at most 39
+     * characters.
+     */
+    private static final Pattern ORG_NAME = Pattern.compile("[a-z\\d](?:[a-z\\d]|-(?=[a-z\\d])){0,38}");
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(), Collections.emptyList());
+
+    public OrgRegistry(@Value("${orgs.supported:productboard,deepnote-classroom}") final String[] supportedOrgs) {
+        final List<String> names = new ArrayList<>(supportedOrgs.length);
+        for (String name : supportedOrgs) {
+            if (!name.isBlank()) {
+                names.add(name.trim());
+            }
+        }
+        register(names);
+        log.info(String.format("Registered %d orgs from config.", size()));
+    }
+
+    /**
+     * Looks up a supported org by its name, ignoring case.
+     *
+     * @throws OrgNotFoundException if the org is not registered.
+     */
+    public SupportedOrg fromName(@NonNull final String name) {
+        final Map<String, SupportedOrg> current = snapshot.orgs;
+        SupportedOrg org = current.get(name);
+        if (org == null && hasUpperCase(name)) {
+            // only names that are not in lower case already pay for the conversion
+            org = current.get(name.toLowerCase(Locale.ROOT));
+        }
+        if (org == null) {
+            final String message = String.format("Organization [%s] not supported", name);
+            log.error(message);
+            throw new OrgNotFoundException(message);
+        }
+        return org;
+    }
+
+    /**
+     * @return All registered orgs, in the order they were registered. The list is immutable and doesn't change when
+     *         orgs are registered or unregistered later.
+     */
+    public List<SupportedOrg> getOrgs() {
+        return snapshot.orgList;
+    }
+
+    /**
+     * @return Number of registered orgs.
+     */
+    public int size() {
+        return snapshot.orgList.size();
+    }
+
+    /**
+     * Registers orgs. Orgs that are already registered are skipped.
+     *
+     * @return Orgs that were not registered before.
+     * @throws InvalidOrgNameException if any of the names is not a valid GitHub org name. Nothing is registered in
+     *                                 that case.
+     */
+    public synchronized List<SupportedOrg> register(@NonNull final Collection<String> names) {
+        final List<SupportedOrg> added = new ArrayList<>();
+        final Map<String, SupportedOrg> updated = new HashMap<>(snapshot.orgs);
+        for (String name : names) {
+            final String orgName = normalize(name);
+            if (!updated.containsKey(orgName)) {
+                final SupportedOrg org = new SupportedOrg(orgName);
+                updated.put(orgName, org);
+                added.add(org);
+            }
+        }
+
+        if (!added.isEmpty()) {
+            final List<SupportedOrg> updatedList = new ArrayList<>(snapshot.orgList);
+            updatedList.addAll(added);
+            snapshot = new Snapshot(updated, updatedList);
+            log.info(String.format("Registered orgs: %s.", added));
+        }
+        return added;
+    }
+
+    /**
+     * Unregisters orgs. Orgs that are not registered are skipped.
+     *
+     * @return Orgs that were unregistered.
+     */
+    public synchronized List<SupportedOrg> unregister(@NonNull final Collection<String> names) {
+        final List<SupportedOrg> removed = new ArrayList<>();
+        final Map<String, SupportedOrg> updated = new HashMap<>(snapshot.orgs);
+        for (String name : names) {
+            final SupportedOrg org = updated.remove(name.toLowerCase(Locale.ROOT));
+            if (org != null) {
+                removed.add(org);
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            final List<SupportedOrg> updatedList = new ArrayList<>(snapshot.orgList);
+            updatedList.removeAll(new HashSet<>(removed));
+            snapshot = new Snapshot(updated, updatedList);
+            log.info(String.format("Unregistered orgs: %s.", removed));
+        }
+        return removed;
+    }
+
+    /**
+     * Registered orgs, indexed by name (lower case) and in registration order. Never modified, replaced as a whole, so
+     * lookups and iteration always see the same set of orgs.
+     */
+    private static final class Snapshot {
+        private final Map<String, SupportedOrg> orgs;
+        private final List<SupportedOrg> orgList;
+
+        private Snapshot(final Map<String, SupportedOrg> orgs, final List<SupportedOrg> orgList) {
+            this.orgs = Collections.unmodifiableMap(orgs);
+            this.orgList = Collections.unmodifiableList(orgList);
+        }
+    }
+
+    private static String normalize(final String name) {
+        final String orgName = name.trim().toLowerCase(Locale.ROOT);
+        if (!ORG_NAME.matcher(orgName).matches()) {
+            throw new InvalidOrgNameException(String.format("[%s] is not a valid GitHub org name.", name));
+        }
+        return orgName;
+    }
+
+    private static boolean hasUpperCase(final String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isUpperCase(name.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,158 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.dao.AsyncGitHubDao;
+import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.kohsuke.github.GHRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fetches language stats of many repositories concurrently.
+ *
+ * At most {@code github.fetch.parallelism} requests are in flight at any time. Every request has its own timeout
+ * ({@code github.fetch.timeout-ms}), which only runs while the request is being sent: time it spends waiting for the
+ * rate limit doesn't count (that is bounded by {@code github.rate.max-wait}). The first failure (or timeout) fails the
+ * whole fetch, same as the sequential implementation did -- we would rather not persist stats computed from a partial
+ * set of repositories. Requests of the other lanes are cancelled then, so those still waiting for the rate limit are
+ * never sent.
+ *
+ * Concurrency is bounded without blocking any thread: we start {@code parallelism} lanes, and each lane picks up the
+ * next repository once its previous request completes.
+ */
+@Service
+@Slf4j
+public class ParallelLanguageFetcher {
+
+    private final AsyncGitHubDao asyncGitHubDao;
+    private final int parallelism;
+    private final long timeoutMs;
+
+    public ParallelLanguageFetcher(@Autowired final AsyncGitHubDao asyncGitHubDao,
+                                   @Value("${github.fetch.parallelism:8}") final int parallelism,
+                                   @Value("${github.fetch.timeout-ms:30000}") final long timeoutMs) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("github.fetch.parallelism has to be at least 1.");
+        }
+        this.asyncGitHubDao = asyncGitHubDao;
+        this.parallelism = parallelism;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Fetches languages of all given repositories. Blocks until done.
+     *
+     * @return Language maps (language to the number of bytes written in that language), in the same order as the
+     *         given repositories.
+     */
+    public List<Map<String, Long>> fetchRepoLanguages(@NonNull final List<GHRepository> repos) {
+        return AsyncGitHubDao.join(fetchRepoLanguagesAsync(repos));
+    }
+
+    /**
+     * Asynchronous variant of {@link #fetchRepoLanguages(List)}.
+     */
+    public CompletableFuture<List<Map<String, Long>>> fetchRepoLanguagesAsync(
+            @NonNull final List<GHRepository> repos) {
+        log.debug("Fetching languages of {} repos, parallelism: {}.", repos.size(), parallelism);
+        final Fetch fetch = new Fetch(repos);
+
+        final CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.min(parallelism, repos.size())];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = fetchNext(fetch);
+        }
+
+        final AtomicReferenceArray<Map<String, Long>> results = fetch.results;
+        return CompletableFuture.allOf(lanes).handle((ignored, e) -> {
+            if (e != null) {
+                // the first failure, not a request cancelled because of it
+                throw unwrap(fetch.failure.get() != null ? fetch.failure.get() : e);
+            }
+            final List<Map<String, Long>> result = new ArrayList<>(repos.size());
+            for (int i = 0; i < results.length(); i++) {
+                result.add(results.get(i));
+            }
+            return result;
+        });
+    }
+
+    private CompletableFuture<Void> fetchNext(final Fetch fetch) {
+        final int idx = fetch.next.getAndIncrement();
+        if (idx >= fetch.repos.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<Map<String, Long>> request = asyncGitHubDao.listRepoLanguages(fetch.repos.get(idx),
+                timeoutMs);
+        fetch.inFlight.add(request);
+        if (fetch.failure.get() != null) {
+            // failed in the meantime
+            request.cancel(false);
+        }
+        return request
+                .whenComplete((langs, e) -> {
+                    fetch.inFlight.remove(request);
+                    if (e != null) {
+                        fetch.fail(e);
+                    }
+                })
+                .thenAccept(langs -> fetch.results.set(idx, langs))
+                .thenCompose(ignored -> fetchNext(fetch));
+    }
+
+    /**
+     * State of a single {@link #fetchRepoLanguagesAsync(List)}, shared by its lanes.
+     */
+    private static class Fetch {
+
+        final List<GHRepository> repos;
+        final AtomicReferenceArray<Map<String, Long>> results;
+        final AtomicInteger next = new AtomicInteger();
+        final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Fetch(final List<GHRepository> repos) {
+            this.repos = repos;
+            this.results = new AtomicReferenceArray<>(repos.size());
+        }
+
+        /**
+         * Stops the fetch: no point in sending more requests, the result is going to be thrown away anyway.
+         */
+        void fail(final Throwable e) {
+            if (!failure.compareAndSet(null, e)) {
+                return;
+            }
+            next.set(repos.size());
+            for (CompletableFuture<?> request : inFlight) {
+                request.cancel(false);
+            }
+        }
+    }
+
+    private RuntimeException unwrap(final Throwable e) {
+        final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof TimeoutException) {
+            log.error("Fetching repository languages timed out after {} ms.", timeoutMs);
+            return new GitHubIoErrorException("Fetching repository languages timed out.", cause);
+        } else if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        } else {
+            return new GitHubIoErrorException(cause);
+        }
+    }
+}
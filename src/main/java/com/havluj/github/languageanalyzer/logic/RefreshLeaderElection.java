@@ -0,0 +1,81 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.dao.SharedStatsStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Decides which instance of the service refreshes stats from GitHub, so that running more instances doesn't multiply
+ * the crawling (and the GitHub quota spent on it). The other instances take the refreshed stats over from the shared
+ * storage (see {@link SharedStatsStore}).
+ *
+ * The leader holds a lease in the shared storage, which it renews every {@code storage.shared.leader.renew-interval}.
+ * If it doesn't (e.g. it crashed), the lease expires after {@code storage.shared.leader.lease} and another instance
+ * takes over with its next renewal. The lease has to be a few renewals long, so that a slow renewal doesn't cost the
+ * leader its lease. An instance that is shut down gives the lease up right away.
+ */
+@Component
+@Slf4j
+public class RefreshLeaderElection {
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final SharedStatsStore sharedStatsStore;
+    private final Duration lease;
+    private volatile boolean leader;
+
+    public RefreshLeaderElection(@Autowired final SharedStatsStore sharedStatsStore,
+                                 @Value("${storage.shared.leader.lease:30s}") final Duration lease) {
+        this.sharedStatsStore = sharedStatsStore;
+        this.lease = lease;
+    }
+
+    /**
+     * Acquires or renews the lease.
+     *
+     * @return True if this instance is the leader now.
+     */
+    @Scheduled(fixedDelayString = "${storage.shared.leader.renew-interval:10s}")
+    public boolean renew() {
+        boolean leading;
+        try {
+            leading = sharedStatsStore.tryLead(instanceId, lease);
+        } catch (RuntimeException e) {
+            // without the shared storage, we can't tell whether somebody else leads
+            log.error("Renewing the refresh leader lease failed.", e);
+            leading = false;
+        }
+        if (leading != leader) {
+            log.info(leading ? "This instance is the refresh leader now."
+                    : "This instance is no longer the refresh leader.");
+        }
+        leader = leading;
+        return leading;
+    }
+
+    /**
+     * @return True if this instance held the lease at its last renewal.
+     */
+    public boolean isLeader() {
+        return leader;
+    }
+
+    @PreDestroy
+    public void resign() {
+        if (!leader) {
+            return;
+        }
+        leader = false;
+        try {
+            sharedStatsStore.resign(instanceId);
+        } catch (RuntimeException e) {
+            log.error("Giving up the refresh leader lease failed, it expires in {}.", lease, e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent computations of the same key. While a computation for a key is in flight, every other caller
+ * asking for that key gets the same future instead of starting its own computation. Once the computation completes
+ * (successfully or not), the key is forgotten and the next caller starts a new one -- nothing is cached here.
+ *
+ * A computation can also carry a context shared with the callers that join it, so that they can affect it while it's
+ * in flight (see {@link #execute(Object, Object, Function, Consumer)}).
+ *
+ * @param <K> Key type. Has to implement equals/hashCode.
+ * @param <V> Result type.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Starts the computation for a given key, or joins one that is already in flight.
+     *
+     * @param computation Started only if no computation for the key is in flight.
+     * @return Future result of the (possibly shared) computation.
+     */
+    public CompletableFuture<V> execute(@NonNull final K key, @NonNull final Supplier<CompletableFuture<V>> computation) {
+        return execute(key, null, context -> computation.get(), context -> {
+        });
+    }
+
+    /**
+     * Same as {@link #execute(Object, Supplier)}, for computations their callers can affect while they are in flight
+     * (e.g. raise their priority).
+     *
+     * @param context Context of the computation, kept while it's in flight. Used only if this caller starts it.
+     * @param computation Started with the context only if no computation for the key is in flight.
+     * @param onJoin Called with the context of the computation in flight if this caller joins it instead.
+     * @param <C> Context type. Has to be the same for all callers of a key.
+     */
+    @SuppressWarnings("unchecked")
+    public <C> CompletableFuture<V> execute(@NonNull final K key, final C context,
+                                            @NonNull final Function<C, CompletableFuture<V>> computation,
+                                            @NonNull final Consumer<C> onJoin) {
+        final Flight<V> flight = new Flight<>(context);
+        final Flight<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            onJoin.accept((C) existing.context);
+            return existing.promise;
+        }
+
+        executions.increment();
+        final CompletableFuture<V> promise = flight.promise;
+        try {
+            computation.apply(context).whenComplete((res, e) -> {
+                // forget the key first, so that callers coming after completion start a fresh computation
+                inFlight.remove(key, flight);
+                if (e != null) {
+                    promise.completeExceptionally(e);
+                } else {
+                    promise.complete(res);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, flight);
+            promise.completeExceptionally(e);
+        }
+        return promise;
+    }
+
+    /**
+     * @return Number of computations that were actually started.
+     */
+    public long getExecutionCount() {
+        return executions.sum();
+    }
+
+    /**
+     * @return Number of callers that joined a computation already in flight instead of starting their own.
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Number of computations currently in flight.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private static final class Flight<V> {
+
+        private final CompletableFuture<V> promise = new CompletableFuture<>();
+        private final Object context;
+
+        private Flight(final Object context) {
+            this.context = context;
+        }
+    }
+}
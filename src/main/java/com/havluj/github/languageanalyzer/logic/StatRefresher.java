@@ -1,50 +1,169 @@
 package com.havluj.github.languageanalyzer.logic;
 
+import com.havluj.github.languageanalyzer.dao.StorageDao;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
 import com.havluj.github.languageanalyzer.model.SupportedOrg;
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Profile;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Component
 @Slf4j
 @Profile("!test")
-@AllArgsConstructor
 public class StatRefresher {
 
-    @Autowired
-    private LanguageStatsLogic statsLogic;
+    private final LanguageStatsLogic statsLogic;
+    private final StatsRefreshEngine refreshEngine;
+    private final OrgRegistry orgRegistry;
+    private final StorageDao storageDao;
+    private final WarmupHealthIndicator warmupHealthIndicator;
+    private final RefreshLeaderElection leaderElection;
+    private final int warmupParallelism;
+    /**
+     * Time slot whose orgs were refreshed last (see {@link StatsRefreshEngine#slotOf(SupportedOrg)}). None upon
+     * startup: warmup only fetches orgs that are missing, so the slot of the startup is refreshed once too.
+     */
+    private int lastSlot = -1;
+
+    public StatRefresher(@Autowired final LanguageStatsLogic statsLogic,
+                         @Autowired final StatsRefreshEngine refreshEngine,
+                         @Autowired final OrgRegistry orgRegistry,
+                         @Autowired final StorageDao storageDao,
+                         @Autowired final WarmupHealthIndicator warmupHealthIndicator,
+                         @Autowired final RefreshLeaderElection leaderElection,
+                         @Value("${stats.warmup.parallelism:4}") final int warmupParallelism) {
+        if (warmupParallelism < 1) {
+            throw new IllegalArgumentException("stats.warmup.parallelism has to be positive.");
+        }
+        this.statsLogic = statsLogic;
+        this.refreshEngine = refreshEngine;
+        this.orgRegistry = orgRegistry;
+        this.storageDao = storageDao;
+        this.warmupHealthIndicator = warmupHealthIndicator;
+        this.leaderElection = leaderElection;
+        this.warmupParallelism = warmupParallelism;
+    }
 
     /**
      * Application warmup.
      *
-     * Gets language stats for every supported org upon startup. That will load stats from disk to memory, or if the
-     * stats are not on disk, it will fetch fresh stats from GitHub and store them. Because of this, we won't have to
-     * fetch/compute stats during the first request.
+     * First, stats of all orgs we have on disk are loaded into memory in a single pass over the DB. That's the hot set;
+     * once it's loaded, the instance reports ready (see {@link WarmupHealthIndicator}). If a refresh has written a
+     * snapshot file, there's nothing to load: stats are served from the file (see {@link StorageDao}) right away.
+     *
+     * Registered orgs that are not on disk are then fetched from GitHub and stored, so that we won't have to fetch
+     * them during the first request. Those are fetched in the background, at most {@code stats.warmup.parallelism} at
+     * a time, starting with the most requested ones (by access counts persisted by {@link StorageDao}). A failed
+     * warmup of one org doesn't affect the others.
+     *
+     * Only the refresh leader fetches them (see {@link RefreshLeaderElection}); the other instances take the stats over
+     * once the leader has stored them.
      */
     @EventListener(ApplicationReadyEvent.class)
     public void updateDataOnStartup() {
-        log.info("Application startup: fetch stats for all supported orgs.");
-        for (SupportedOrg org : SupportedOrg.values()) {
-            statsLogic.getLanguageStatsForOrg(org);
+        final Set<String> onDisk = storageDao.loadAllLanguageStats();
+        warmupHealthIndicator.markHotSetLoaded(onDisk.size());
+        if (!leaderElection.renew()) {
+            log.info("Application startup: {} orgs loaded, missing orgs are left to the refresh leader.",
+                    onDisk.size());
+            return;
+        }
+
+        final Map<String, Long> accessCounts = storageDao.getAccessCounts();
+        final List<SupportedOrg> missing = new ArrayList<>();
+        for (SupportedOrg org : orgRegistry.getOrgs()) {
+            if (!onDisk.contains(org.getOrgName())) {
+                missing.add(org);
+            }
+        }
+        // stable, so orgs that were never requested keep their registration order
+        missing.sort(Comparator.comparingLong(
+                (SupportedOrg org) -> accessCounts.getOrDefault(org.getOrgName(), 0L)).reversed());
+        log.info(String.format("Application startup: %d orgs loaded from disk, fetching stats for %d missing orgs.",
+                onDisk.size(), missing.size()));
+
+        final AtomicInteger next = new AtomicInteger();
+        final int lanes = Math.min(warmupParallelism, missing.size());
+        final List<CompletableFuture<Void>> warmups = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            warmups.add(warmUpLane(missing, next));
         }
+        CompletableFuture.allOf(warmups.toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, e) -> log.info("Application startup: warmup finished."));
     }
 
     /**
-     * Fetches new stats from GitHub for all supported orgs. Runs every day at 2:30 PM.
-     * Cron syntax: second, minute, hour, day of month, month, day(s) of week
+     * Fetches new stats from GitHub for the registered orgs of a time slot, once that slot comes. Every org is in one
+     * slot of the day (see {@link StatsRefreshEngine}), so every org is refreshed once a day. Checks for a new slot
+     * every {@code stats.refresh.tick}.
      *
-     * By default, Spring uses a local single-threaded scheduler to run the task, which is acceptable for this use-case.
+     * The refresh runs on its own (see {@link StatsRefreshEngine}), so Spring's single-threaded scheduler only ever
+     * starts it and is free for other tasks while it runs.
+     *
+     * Only the refresh leader runs it. A leader that loses its lease in the middle of a run finishes the run. An
+     * instance that becomes the leader in the middle of a slot runs the slot, as it can't tell whether the previous
+     * leader did.
      */
-    @Scheduled(cron = "0 30 2 * * ?")
+    @Scheduled(fixedDelayString = "${stats.refresh.tick:1m}")
     public void updateData() {
-        log.info("Daily cron job: refreshing stats for all supported orgs.");
-        for (SupportedOrg org : SupportedOrg.values()) {
-            statsLogic.refreshStats(org);
+        updateData(System.currentTimeMillis());
+    }
+
+    void updateData(final long now) {
+        final int slot = refreshEngine.slotAt(now);
+        if (slot == lastSlot) {
+            return;
+        }
+        if (!leaderElection.isLeader()) {
+            // checked again on the next tick, in case this instance takes over in the meantime
+            log.debug("Time slot {}: skipped, another instance is the refresh leader.", slot);
+            return;
+        }
+        lastSlot = slot;
+        log.info("Time slot {}: refreshing stats of its registered orgs.", slot);
+        refreshEngine.refreshSlot(slot);
+    }
+
+    /**
+     * Warms up orgs one after another, taking the next org from the shared index, until there are none left. Running
+     * a few of these side by side bounds the number of orgs being fetched at once.
+     */
+    private CompletableFuture<Void> warmUpLane(final List<SupportedOrg> orgs, final AtomicInteger next) {
+        int i;
+        while ((i = next.getAndIncrement()) < orgs.size()) {
+            final CompletableFuture<LanguageStats> warmup = warmUp(orgs.get(i));
+            if (!warmup.isDone()) {
+                return warmup.handle((ls, e) -> null).thenCompose(ignored -> warmUpLane(orgs, next));
+            }
+            // finished right away (e.g. stored in the meantime), no need to chain on it
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<LanguageStats> warmUp(final SupportedOrg org) {
+        CompletableFuture<LanguageStats> warmup;
+        try {
+            warmup = statsLogic.getLanguageStatsForOrgAsync(org);
+        } catch (RuntimeException e) {
+            warmup = CompletableFuture.failedFuture(e);
         }
+        return warmup.whenComplete((ls, e) -> {
+            if (e != null) {
+                log.error(String.format("Warmup of %s's stats failed.", org), e);
+            }
+        });
     }
 }
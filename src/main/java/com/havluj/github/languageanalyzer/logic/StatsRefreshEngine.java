@@ -0,0 +1,225 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.dao.StatsHistoryDao;
+import com.havluj.github.languageanalyzer.dao.StorageDao;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.RefreshTask;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Refreshes stats of registered orgs from GitHub.
+ *
+ * Orgs are spread across the day: every org belongs to one of {@code stats.refresh.slots} equally long time slots (by
+ * the hash of its name, so it stays in the same slot as orgs come and go), and is refreshed when its slot comes (see
+ * {@link StatRefresher}). That spreads the crawling, and the GitHub quota spent on it, over the whole day instead of
+ * starting all of it at once.
+ *
+ * A run refreshes its orgs at most {@code stats.refresh.parallelism} at a time, in lanes that take the next org once
+ * their previous one is done, so a slow or huge org holds up a single lane only. Repos of every org are fetched
+ * concurrently on top of that (see {@link ParallelLanguageFetcher}), and all of it is paced by the GitHub rate limit,
+ * so lanes don't need threads of their own: they are chains of futures.
+ *
+ * Every org is refreshed in isolation: a failed refresh is retried up to {@code stats.refresh.max-attempts} times,
+ * with an exponential backoff starting at {@code stats.refresh.retry-backoff}, and doesn't affect the other orgs.
+ * An org whose refresh is still in progress (e.g. from a previous run) is not refreshed again.
+ *
+ * The latest refresh of every org is tracked as a {@link RefreshTask}, and served by the admin API. Stats of a whole
+ * run (and their history) are committed to disk together once it's done (if they weren't committed in groups already),
+ * and then written into a new snapshot file (see {@link StorageDao#writeSnapshotFile()}).
+ */
+@Service
+@Slf4j
+public class StatsRefreshEngine {
+
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final LanguageStatsLogic statsLogic;
+    private final OrgRegistry orgRegistry;
+    private final StorageDao storageDao;
+    private final StatsHistoryDao statsHistoryDao;
+    private final int slots;
+    private final int parallelism;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Map<String, RefreshTask> tasks = new ConcurrentHashMap<>();
+
+    public StatsRefreshEngine(@Autowired final LanguageStatsLogic statsLogic,
+                              @Autowired final OrgRegistry orgRegistry,
+                              @Autowired final StorageDao storageDao,
+                              @Autowired final StatsHistoryDao statsHistoryDao,
+                              @Value("${stats.refresh.slots:24}") final int slots,
+                              @Value("${stats.refresh.parallelism:4}") final int parallelism,
+                              @Value("${stats.refresh.max-attempts:3}") final int maxAttempts,
+                              @Value("${stats.refresh.retry-backoff:1m}") final Duration retryBackoff) {
+        if (slots < 1 || parallelism < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("stats.refresh.slots, stats.refresh.parallelism and "
+                    + "stats.refresh.max-attempts have to be positive.");
+        }
+        this.statsLogic = statsLogic;
+        this.orgRegistry = orgRegistry;
+        this.storageDao = storageDao;
+        this.statsHistoryDao = statsHistoryDao;
+        this.slots = slots;
+        this.parallelism = parallelism;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * @return Time slot the given org is refreshed in.
+     */
+    public int slotOf(@NonNull final SupportedOrg org) {
+        return Math.floorMod(org.getOrgName().hashCode(), slots);
+    }
+
+    /**
+     * @return Time slot of the (UTC) day the given time falls into.
+     */
+    public int slotAt(final long epochMillis) {
+        return (int) (Math.floorMod(epochMillis, DAY_MS) * slots / DAY_MS);
+    }
+
+    /**
+     * Refreshes all registered orgs of a given time slot.
+     *
+     * @return Future number of orgs whose refresh failed, completed once the run is done.
+     */
+    public CompletableFuture<Integer> refreshSlot(final int slot) {
+        final List<SupportedOrg> orgs = new ArrayList<>();
+        for (SupportedOrg org : orgRegistry.getOrgs()) {
+            if (slotOf(org) == slot) {
+                orgs.add(org);
+            }
+        }
+        return refresh(orgs);
+    }
+
+    /**
+     * Refreshes all registered orgs, no matter their time slots.
+     *
+     * @return Future number of orgs whose refresh failed, completed once the run is done.
+     */
+    public CompletableFuture<Integer> refreshAll() {
+        return refresh(orgRegistry.getOrgs());
+    }
+
+    /**
+     * @return Latest refresh of every registered org that has been refreshed since startup, by time slot and name.
+     */
+    public List<RefreshTask> getTasks() {
+        final Set<String> registered = orgRegistry.getOrgs().stream()
+                .map(SupportedOrg::getOrgName)
+                .collect(Collectors.toSet());
+        return tasks.values().stream()
+                .filter(task -> registered.contains(task.getOrgName()))
+                .sorted(Comparator.comparingInt(RefreshTask::getSlot).thenComparing(RefreshTask::getOrgName))
+                .collect(Collectors.toList());
+    }
+
+    private CompletableFuture<Integer> refresh(final List<SupportedOrg> orgs) {
+        final List<SupportedOrg> queued = new ArrayList<>(orgs.size());
+        for (SupportedOrg org : orgs) {
+            final RefreshTask task = RefreshTask.queued(org.getOrgName(), slotOf(org));
+            final RefreshTask current = tasks.compute(org.getOrgName(),
+                    (name, previous) -> previous != null && previous.isActive() ? previous : task);
+            if (current == task) {
+                queued.add(org);
+            } else {
+                log.info("Refresh of {}'s stats is still in progress, skipping it.", org);
+            }
+        }
+        log.info("Refreshing stats of {} orgs.", queued.size());
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.min(parallelism, queued.size())];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = refreshNext(queued, next, failed);
+        }
+        return CompletableFuture.allOf(lanes).handle((ignored, e) -> {
+            try {
+                storageDao.commit();
+                statsHistoryDao.commit();
+                if (!queued.isEmpty()) {
+                    storageDao.writeSnapshotFile();
+                }
+            } catch (RuntimeException storageFailure) {
+                log.error("Committing refreshed stats (or writing the snapshot file) failed.", storageFailure);
+            }
+            log.info("Refreshed stats of {} orgs, {} failed.", queued.size(), failed.get());
+            return failed.get();
+        });
+    }
+
+    /**
+     * Refreshes orgs one after another, taking the next org from the shared index, until there are none left.
+     */
+    private CompletableFuture<Void> refreshNext(final List<SupportedOrg> orgs, final AtomicInteger next,
+                                                final AtomicInteger failed) {
+        final int idx = next.getAndIncrement();
+        if (idx >= orgs.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final SupportedOrg org = orgs.get(idx);
+        return attempt(org).handle((ls, e) -> {
+            if (e != null) {
+                failed.incrementAndGet();
+            }
+            return null;
+        }).thenCompose(ignored -> refreshNext(orgs, next, failed));
+    }
+
+    private CompletableFuture<LanguageStats> attempt(final SupportedOrg org) {
+        final RefreshTask task = tasks.computeIfPresent(org.getOrgName(),
+                (name, previous) -> previous.running(System.currentTimeMillis()));
+        CompletableFuture<LanguageStats> refresh;
+        try {
+            refresh = statsLogic.refreshStatsAsync(org);
+        } catch (RuntimeException e) {
+            refresh = CompletableFuture.failedFuture(e);
+        }
+
+        return refresh.handle((ls, e) -> {
+            if (e == null) {
+                tasks.computeIfPresent(org.getOrgName(),
+                        (name, previous) -> previous.succeeded(System.currentTimeMillis()));
+                return CompletableFuture.completedFuture(ls);
+            }
+
+            final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            final String error = String.valueOf(cause.getMessage());
+            if (task == null || task.getAttempts() >= maxAttempts) {
+                log.error("Refresh of {}'s stats failed, giving up.", org, cause);
+                tasks.computeIfPresent(org.getOrgName(),
+                        (name, previous) -> previous.failed(System.currentTimeMillis(), error));
+                return CompletableFuture.<LanguageStats>failedFuture(cause);
+            }
+
+            final long backoffMs = retryBackoff.toMillis() << (task.getAttempts() - 1);
+            log.warn("Refresh of {}'s stats failed (attempt {}), retrying in {} ms.", org, task.getAttempts(),
+                    backoffMs, cause);
+            tasks.computeIfPresent(org.getOrgName(), (name, previous) -> previous.retrying(error));
+            return CompletableFuture.runAsync(() -> { },
+                            CompletableFuture.delayedExecutor(backoffMs, TimeUnit.MILLISECONDS))
+                    .thenCompose(ignored -> attempt(org));
+        }).thenCompose(res -> res);
+    }
+}
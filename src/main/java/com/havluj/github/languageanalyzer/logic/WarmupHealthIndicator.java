@@ -0,0 +1,42 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports whether the warmup has loaded the hot set, i.e. the stats of every org we have on disk, into memory (see
+ * {@link StatRefresher#updateDataOnStartup()}). It's part of the readiness group ({@code /actuator/health/readiness}),
+ * so load balancers only send traffic to instances that can serve stats from memory.
+ *
+ * Orgs that are not on disk are fetched from GitHub after that, and don't hold up readiness: a full crawl of an org can
+ * take minutes, and a request for such an org would have to wait for it on any instance anyway.
+ */
+@Component
+public class WarmupHealthIndicator implements HealthIndicator {
+
+    private volatile boolean hotSetLoaded;
+    private volatile int loadedOrgs;
+
+    @Override
+    public Health health() {
+        if (!hotSetLoaded) {
+            return Health.outOfService().build();
+        }
+        return Health.up().withDetail("loadedOrgs", loadedOrgs).build();
+    }
+
+    /**
+     * Marks the instance ready to take traffic.
+     *
+     * @param loadedOrgs Number of orgs whose stats were loaded into memory.
+     */
+    public void markHotSetLoaded(final int loadedOrgs) {
+        this.loadedOrgs = loadedOrgs;
+        this.hotSetLoaded = true;
+    }
+
+    public boolean isHotSetLoaded() {
+        return hotSetLoaded;
+    }
+}
@@ -0,0 +1,48 @@
+package com.havluj.github.languageanalyzer.model;
+
+import lombok.NonNull;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Granularity of the history of an org's language stats. Every period is represented by its first day, and holds the
+ * last stats recorded in it.
+ */
+public enum HistoryResolution {
+    DAY {
+        @Override
+        public LocalDate periodOf(@NonNull final LocalDate day) {
+            return day;
+        }
+    },
+    /**
+     * ISO weeks, starting on Monday.
+     */
+    WEEK {
+        @Override
+        public LocalDate periodOf(@NonNull final LocalDate day) {
+            return day.with(DayOfWeek.MONDAY);
+        }
+    },
+    MONTH {
+        @Override
+        public LocalDate periodOf(@NonNull final LocalDate day) {
+            return day.withDayOfMonth(1);
+        }
+    };
+
+    /**
+     * @return First day of the period the given day is in.
+     */
+    public abstract LocalDate periodOf(LocalDate day);
+
+    /**
+     * @return Number of periods between two days, both included.
+     */
+    public long periodsBetween(@NonNull final LocalDate from, @NonNull final LocalDate to) {
+        final ChronoUnit unit = this == DAY ? ChronoUnit.DAYS : this == WEEK ? ChronoUnit.WEEKS : ChronoUnit.MONTHS;
+        return unit.between(periodOf(from), periodOf(to)) + 1;
+    }
+}
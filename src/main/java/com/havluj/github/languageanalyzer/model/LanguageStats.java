@@ -1,12 +1,48 @@
 package com.havluj.github.languageanalyzer.model;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
 
+import java.util.Collections;
 import java.util.Map;
 
 @Data
+@AllArgsConstructor
 public class LanguageStats {
+    /**
+     * Share of every language in the org's code, formatted with 2 decimal places (e.g. "0.40"). This is the default
+     * view of the stats, served as it is.
+     */
     @NonNull
     private final Map<String, String> languageMap;
+    /**
+     * Total bytes of code in every language across all of the org's repos, the percentages were computed from. Other
+     * views of the stats (see {@link StatsView}) are projected from these. Empty for stats stored by older versions,
+     * which kept the percentages only.
+     */
+    @NonNull
+    private final Map<String, Long> byteCounts;
+    /**
+     * Epoch millis of the time the stats were stored at. 0 if unknown (e.g. stats that were not stored yet). Two stats
+     * with the same languages are equal, no matter when they were stored.
+     */
+    @EqualsAndHashCode.Exclude
+    private final long updatedAt;
+
+    public LanguageStats(@NonNull final Map<String, String> languageMap) {
+        this(languageMap, 0);
+    }
+
+    public LanguageStats(@NonNull final Map<String, String> languageMap, final long updatedAt) {
+        this(languageMap, Collections.emptyMap(), updatedAt);
+    }
+
+    /**
+     * @return False if these are stats stored by an older version, without byte counts.
+     */
+    public boolean hasByteCounts() {
+        return !byteCounts.isEmpty() || languageMap.isEmpty();
+    }
 }
@@ -0,0 +1,59 @@
+package com.havluj.github.languageanalyzer.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.NonNull;
+import lombok.Value;
+import org.springframework.util.DigestUtils;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Language stats of an org, serialized into the JSON response body (UTF-8), ready to be sent as they are.
+ *
+ * Stats only change once a day, so it's much cheaper to serialize them once and keep the bytes around than to have
+ * Jackson serialize them for every request.
+ */
+@Value
+public class LanguageStatsJson {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            // same stats always give the same bytes (and therefore the same ETag), no matter the map implementation
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    /**
+     * Serialized {@link LanguageStats#getLanguageMap()}. Shared by all requests, so it must not be modified.
+     */
+    byte[] body;
+    /**
+     * Strong ETag of the body (quoted MD5 of its bytes).
+     */
+    String etag;
+    /**
+     * See {@link LanguageStats#getUpdatedAt()}.
+     */
+    long updatedAt;
+
+    public static LanguageStatsJson of(@NonNull final LanguageStats stats) {
+        return of(stats.getLanguageMap(), stats.getUpdatedAt());
+    }
+
+    /**
+     * Serializes a view of stats (see {@link StatsView}).
+     *
+     * @param languages Map of language to its value in the view (a string or a number).
+     * @param updatedAt See {@link LanguageStats#getUpdatedAt()}.
+     */
+    public static LanguageStatsJson of(@NonNull final Map<String, ?> languages, final long updatedAt) {
+        final byte[] body;
+        try {
+            body = MAPPER.writeValueAsBytes(languages);
+        } catch (JsonProcessingException e) {
+            // can't happen, it's a map of strings and numbers
+            throw new UncheckedIOException(e);
+        }
+        return new LanguageStatsJson(body, "\"" + DigestUtils.md5DigestAsHex(body) + "\"", updatedAt);
+    }
+}
@@ -0,0 +1,91 @@
+package com.havluj.github.languageanalyzer.model;
+
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Progress of the latest refresh of a single org's stats. Never modified; every change of the state is a new instance.
+ */
+@Value
+public class RefreshTask {
+
+    public enum State {
+        /**
+         * Waiting for a free lane.
+         */
+        QUEUED,
+        RUNNING,
+        /**
+         * Failed, waiting for the backoff to run again.
+         */
+        RETRYING,
+        SUCCEEDED,
+        /**
+         * Failed and out of attempts.
+         */
+        FAILED
+    }
+
+    @NonNull
+    String orgName;
+    /**
+     * Time slot of the day the org is refreshed in.
+     */
+    int slot;
+    @NonNull
+    State state;
+    /**
+     * Attempts made so far, including the running one.
+     */
+    int attempts;
+    /**
+     * Epoch millis of the start of the first attempt. 0 while queued.
+     */
+    long startedAt;
+    /**
+     * Epoch millis of the end of the last attempt. 0 until the task has succeeded or failed.
+     */
+    long finishedAt;
+    /**
+     * Message of the last failure. Null if no attempt has failed.
+     */
+    String error;
+
+    public static RefreshTask queued(@NonNull final String orgName, final int slot) {
+        return new RefreshTask(orgName, slot, State.QUEUED, 0, 0, 0, null);
+    }
+
+    public RefreshTask running(final long now) {
+        return new RefreshTask(orgName, slot, State.RUNNING, attempts + 1, startedAt == 0 ? now : startedAt, 0, error);
+    }
+
+    public RefreshTask retrying(@NonNull final String error) {
+        return new RefreshTask(orgName, slot, State.RETRYING, attempts, startedAt, 0, error);
+    }
+
+    public RefreshTask succeeded(final long now) {
+        return new RefreshTask(orgName, slot, State.SUCCEEDED, attempts, startedAt, now, error);
+    }
+
+    public RefreshTask failed(final long now, @NonNull final String error) {
+        return new RefreshTask(orgName, slot, State.FAILED, attempts, startedAt, now, error);
+    }
+
+    /**
+     * @return False once the task has succeeded or failed.
+     */
+    public boolean isActive() {
+        return state != State.SUCCEEDED && state != State.FAILED;
+    }
+
+    /**
+     * @return Millis from the start of the first attempt to the end of the last one (or until now, if the task is
+     *         still active), including backoffs between attempts. 0 while queued.
+     */
+    public long getDurationMs() {
+        if (startedAt == 0) {
+            return 0;
+        }
+        return (finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt;
+    }
+}
@@ -0,0 +1,24 @@
+package com.havluj.github.languageanalyzer.model;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Languages of a single repository as of its last push. Used to skip re-fetching repositories that haven't changed
+ * since the previous refresh.
+ */
+@Value
+public class RepoSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Epoch millis of the repository's last push (GitHub's {@code pushed_at}).
+     */
+    long pushedAt;
+    @NonNull
+    Map<String, Long> languages;
+}
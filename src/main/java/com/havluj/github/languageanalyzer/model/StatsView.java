@@ -0,0 +1,86 @@
+package com.havluj.github.languageanalyzer.model;
+
+import com.havluj.github.languageanalyzer.exceptions.InvalidStatsViewException;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.Locale;
+
+/**
+ * A view of an org's language stats, as requested by query parameters of {@code /org/{org}/languages}: e.g.
+ * {@code ?format=bytes&top=10} or {@code ?precision=4}. Views are projected from the stored byte counts (see
+ * {@link LanguageStats#getByteCounts()}), so a new view never needs a new crawl of GitHub.
+ */
+@Value
+public class StatsView {
+
+    public static final int DEFAULT_PRECISION = 2;
+    public static final int MAX_PRECISION = 10;
+    /**
+     * Percentages with 2 decimal places of all languages, i.e. {@link LanguageStats#getLanguageMap()}.
+     */
+    public static final StatsView DEFAULT = new StatsView(Format.PERCENT, 0, DEFAULT_PRECISION);
+
+    public enum Format {
+        /**
+         * Share of the org's code, as a string with {@link #getPrecision()} decimal places (e.g. "0.40").
+         */
+        PERCENT,
+        /**
+         * Total bytes of code, as a number.
+         */
+        BYTES
+    }
+
+    @NonNull
+    Format format;
+    /**
+     * Only the given number of the biggest languages are included. 0 means all languages.
+     */
+    int top;
+    /**
+     * Decimal places of percentages. Always 0 for {@link Format#BYTES}.
+     */
+    int precision;
+
+    /**
+     * Creates a view from query parameters. Missing parameters are defaulted.
+     *
+     * @throws InvalidStatsViewException if any of the parameters is invalid.
+     */
+    public static StatsView of(final String format, final Integer top, final Integer precision) {
+        final Format parsedFormat;
+        if (format == null) {
+            parsedFormat = Format.PERCENT;
+        } else {
+            try {
+                parsedFormat = Format.valueOf(format.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new InvalidStatsViewException(String.format("Unknown format [%s].", format));
+            }
+        }
+        if (top != null && top < 1) {
+            throw new InvalidStatsViewException(String.format("top has to be positive, was %d.", top));
+        }
+        if (precision != null && (precision < 0 || precision > MAX_PRECISION)) {
+            throw new InvalidStatsViewException(String.format("precision has to be in [0, %d], was %d.",
+                    MAX_PRECISION, precision));
+        }
+
+        return new StatsView(parsedFormat,
+                top == null ? 0 : top,
+                parsedFormat == Format.BYTES ? 0 : (precision == null ? DEFAULT_PRECISION : precision));
+    }
+
+    public boolean isDefault() {
+        return equals(DEFAULT);
+    }
+
+    /**
+     * @return The same view, with {@link #getTop()} limited to the given number of languages. Views that differ only
+     *         in a {@code top} of at least the number of languages are the same view.
+     */
+    public StatsView limitedTo(final int languages) {
+        return top == 0 || top < languages ? this : new StatsView(format, 0, precision);
+    }
+}
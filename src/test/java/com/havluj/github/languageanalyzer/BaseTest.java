@@ -1,6 +1,7 @@
 package com.havluj.github.languageanalyzer;
 
 import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.util.Map;
@@ -8,12 +9,15 @@ import java.util.Map;
 @SpringBootTest
 public class BaseTest {
 
+    protected static final SupportedOrg PRODUCTBOARD = new SupportedOrg("productboard");
+    protected static final SupportedOrg DN = new SupportedOrg("deepnote-classroom");
     protected static final String JAVA = "Java";
     protected static final String TYPESCRIPT = "Typescript";
     protected static final Map<String, Long> REPO_STAT_1 = Map.of(JAVA, 20l, TYPESCRIPT, 60l);
     protected static final Map<String, Long> REPO_STAT_2 = Map.of(JAVA, 20l);
     protected static final Map<String, String> LANGUAGE_STAT_MAP = Map.of(JAVA, "0.40", TYPESCRIPT, "0.60");
-    protected static final LanguageStats LANGUAGE_STATS = new LanguageStats(LANGUAGE_STAT_MAP);
+    protected static final Map<String, Long> LANGUAGE_BYTE_COUNTS = Map.of(JAVA, 40l, TYPESCRIPT, 60l);
+    protected static final LanguageStats LANGUAGE_STATS = new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 0);
     protected static final Map<String, String> EMPTY_LANGUAGE_STAT_MAP = Map.of();
     protected static final LanguageStats EMPTY_LANGUAGE_STATS = new LanguageStats(EMPTY_LANGUAGE_STAT_MAP);
 
@@ -0,0 +1,110 @@
+package com.havluj.github.languageanalyzer.api.controller;
+
+import com.havluj.github.languageanalyzer.BaseTest;
+import com.havluj.github.languageanalyzer.logic.OrgRegistry;
+import com.havluj.github.languageanalyzer.logic.StatsRefreshEngine;
+import com.havluj.github.languageanalyzer.model.RefreshTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@AutoConfigureMockMvc
+class AdminControllerTest extends BaseTest {
+
+    private static final String TOKEN_HEADER = "X-Admin-Token";
+    private static final String TOKEN = "test-admin-token";
+
+    @Autowired
+    private MockMvc mvc;
+    @Autowired
+    private OrgRegistry orgRegistry;
+    @MockBean
+    private StatsRefreshEngine statsRefreshEngineMock;
+
+    @AfterEach
+    void tearDown() {
+        orgRegistry.unregister(List.of("new-org", "other-org"));
+        orgRegistry.register(List.of(PRODUCTBOARD.getOrgName(), DN.getOrgName()));
+    }
+
+    @Test
+    void testMissingToken() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/admin/orgs"))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void testInvalidToken() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/admin/orgs").header(TOKEN_HEADER, "wrong"))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void testListOrgs() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/admin/orgs").header(TOKEN_HEADER, TOKEN))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasItems(PRODUCTBOARD.getOrgName(), DN.getOrgName())));
+    }
+
+    @Test
+    void testRegisterOrgs() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.post("/admin/orgs")
+                        .header(TOKEN_HEADER, TOKEN)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"New-Org\", \"other-org\", \"productboard\"]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", contains("new-org", "other-org")));
+
+        assertEquals("new-org", orgRegistry.fromName("new-org").getOrgName());
+    }
+
+    @Test
+    void testRegisterInvalidOrg() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.post("/admin/orgs")
+                        .header(TOKEN_HEADER, TOKEN)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"not valid\"]"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testUnregisterOrg() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.delete("/admin/orgs/productboard").header(TOKEN_HEADER, TOKEN))
+                .andExpect(status().isNoContent());
+        mvc.perform(MockMvcRequestBuilders.delete("/admin/orgs/productboard").header(TOKEN_HEADER, TOKEN))
+                .andExpect(status().isNotFound());
+
+        // no longer served
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testRefreshTasks() throws Exception {
+        Mockito.when(statsRefreshEngineMock.getTasks()).thenReturn(List.of(
+                RefreshTask.queued(PRODUCTBOARD.getOrgName(), 3).running(1000).failed(3000, "unavailable")));
+
+        mvc.perform(MockMvcRequestBuilders.get("/admin/refresh"))
+                .andExpect(status().isForbidden());
+        mvc.perform(MockMvcRequestBuilders.get("/admin/refresh").header(TOKEN_HEADER, TOKEN))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].orgName", is(PRODUCTBOARD.getOrgName())))
+                .andExpect(jsonPath("$[0].slot", is(3)))
+                .andExpect(jsonPath("$[0].state", is("FAILED")))
+                .andExpect(jsonPath("$[0].attempts", is(1)))
+                .andExpect(jsonPath("$[0].durationMs", is(2000)))
+                .andExpect(jsonPath("$[0].error", is("unavailable")));
+    }
+}
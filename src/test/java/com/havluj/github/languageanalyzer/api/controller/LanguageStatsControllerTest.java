@@ -2,17 +2,33 @@ package com.havluj.github.languageanalyzer.api.controller;
 
 import com.havluj.github.languageanalyzer.BaseTest;
 import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
+import com.havluj.github.languageanalyzer.logic.LanguageStatsHistoryLogic;
 import com.havluj.github.languageanalyzer.logic.LanguageStatsLogic;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
+import com.havluj.github.languageanalyzer.model.StatsView;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @AutoConfigureMockMvc
@@ -20,9 +36,13 @@ class LanguageStatsControllerTest extends BaseTest {
 
     @MockBean
     private LanguageStatsLogic languageStatsLogicMock;
+    @MockBean
+    private LanguageStatsHistoryLogic languageStatsHistoryLogicMock;
 
     @Autowired
     private MockMvc mvc;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @Test
     public void testUnknownOrg() throws Exception {
@@ -39,7 +59,7 @@ class LanguageStatsControllerTest extends BaseTest {
 
     @Test
     void testGithubIoException() throws Exception {
-        Mockito.when(languageStatsLogicMock.getLanguageStatsForOrg(Mockito.any()))
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(Mockito.any()))
                 .thenThrow(GitHubIoErrorException.class);
 
         mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages").accept(MediaType.APPLICATION_JSON))
@@ -48,8 +68,8 @@ class LanguageStatsControllerTest extends BaseTest {
 
     @Test
     void testHappyCase() throws Exception {
-        Mockito.when(languageStatsLogicMock.getLanguageStatsForOrg(Mockito.any()))
-                .thenReturn(LANGUAGE_STATS);
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(Mockito.any()))
+                .thenReturn(LanguageStatsJson.of(LANGUAGE_STATS));
 
         mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages").accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
@@ -57,13 +77,212 @@ class LanguageStatsControllerTest extends BaseTest {
                 .andExpect(jsonPath("$.Typescript", is("0.60")));
     }
 
+    @Test
+    void testView() throws Exception {
+        Mockito.when(languageStatsLogicMock.getLanguageStatsWithByteCountsForOrg(Mockito.any()))
+                .thenReturn(LANGUAGE_STATS);
+
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages")
+                        .param("format", "bytes")
+                        .param("top", "1")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(content().string("{\"Typescript\":60}"));
+        Mockito.verify(languageStatsLogicMock, Mockito.never()).getLanguageStatsJsonForOrg(Mockito.any());
+    }
+
+    @Test
+    void testInvalidView() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages")
+                        .param("format", "lines")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages")
+                        .param("precision", "11")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        Mockito.verifyNoInteractions(languageStatsLogicMock);
+    }
+
+    @Test
+    void testHistory() throws Exception {
+        Mockito.when(languageStatsHistoryLogicMock.getHistory(Mockito.any(), Mockito.any(), Mockito.any(),
+                        Mockito.any(), Mockito.any()))
+                .thenReturn(Map.of("2024-01-01", Map.of(JAVA, 40L)));
+
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages/history")
+                        .param("from", "2024-01-01")
+                        .param("to", "2024-01-31")
+                        .param("resolution", "week")
+                        .param("format", "bytes")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['2024-01-01'].Java", is(40)));
+        Mockito.verify(languageStatsHistoryLogicMock, Mockito.times(1)).getHistory(PRODUCTBOARD,
+                LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31), "week", StatsView.of("bytes", null, null));
+    }
+
+    @Test
+    void testHistoryInvalidDate() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages/history")
+                        .param("from", "yesterday")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        Mockito.verifyNoInteractions(languageStatsHistoryLogicMock);
+    }
+
+    @Test
+    void testRequestsAreTimed() throws Exception {
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(Mockito.any()))
+                .thenReturn(LanguageStatsJson.of(LANGUAGE_STATS));
+        // the registry is shared by all tests in the context
+        final long before = okRequestCount();
+
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        assertEquals(before + 1, okRequestCount());
+    }
+
     @Test
     void testEmptyLanguageCase() throws Exception {
-        Mockito.when(languageStatsLogicMock.getLanguageStatsForOrg(Mockito.any()))
-                .thenReturn(EMPTY_LANGUAGE_STATS);
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(Mockito.any()))
+                .thenReturn(LanguageStatsJson.of(EMPTY_LANGUAGE_STATS));
 
         mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages").accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
                 .andExpect(content().string("{}"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCachingHeaders() throws Exception {
+        final LanguageStatsJson json = LanguageStatsJson.of(
+                new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 1_000_000L));
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(Mockito.any())).thenReturn(json);
+
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, json.getEtag()))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600, public"))
+                .andExpect(header().dateValue(HttpHeaders.LAST_MODIFIED, 1_000_000L))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().bytes(json.getBody()));
+    }
+
+    @Test
+    void testNotModified() throws Exception {
+        final LanguageStatsJson json = LanguageStatsJson.of(LANGUAGE_STATS);
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(Mockito.any())).thenReturn(json);
+
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.IF_NONE_MATCH, json.getEtag()))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, json.getEtag()))
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void testModified() throws Exception {
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(Mockito.any()))
+                .thenReturn(LanguageStatsJson.of(LANGUAGE_STATS));
+
+        mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.IF_NONE_MATCH, LanguageStatsJson.of(EMPTY_LANGUAGE_STATS).getEtag()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.Java", is("0.40")));
+    }
+
+    @Test
+    void testBatch() throws Exception {
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrgs(Mockito.any())).thenReturn(batch());
+
+        final MvcResult result = mvc.perform(MockMvcRequestBuilders.get("/orgs/languages")
+                        .param("org", "productboard", "deepnote-classroom")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600, public"))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(content().string(
+                        "{\"productboard\":{\"Java\":\"0.40\",\"Typescript\":\"0.60\"},\"deepnote-classroom\":{}}"));
+        Mockito.verify(languageStatsLogicMock, Mockito.times(1))
+                .getLanguageStatsJsonForOrgs(Set.of(PRODUCTBOARD, DN));
+    }
+
+    @Test
+    void testBatchNotModified() throws Exception {
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrgs(Mockito.any())).thenReturn(batch());
+
+        final MvcResult first = mvc.perform(MockMvcRequestBuilders.get("/orgs/languages")
+                        .param("org", "productboard", "deepnote-classroom"))
+                .andReturn();
+        final String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(MockMvcRequestBuilders.get("/orgs/languages")
+                        .param("org", "productboard", "deepnote-classroom")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void testBatchPost() throws Exception {
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrgs(Mockito.any())).thenReturn(batch());
+
+        final MvcResult result = mvc.perform(MockMvcRequestBuilders.post("/orgs/languages")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"productboard\", \"deepnote-classroom\", \"Productboard\"]")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productboard.Java", is("0.40")))
+                .andExpect(jsonPath("$['deepnote-classroom']").isEmpty());
+        // duplicates are served once
+        Mockito.verify(languageStatsLogicMock, Mockito.times(1))
+                .getLanguageStatsJsonForOrgs(Set.of(PRODUCTBOARD, DN));
+    }
+
+    @Test
+    void testBatchUnknownOrg() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/orgs/languages")
+                        .param("org", "productboard", "invalid")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        Mockito.verifyNoInteractions(languageStatsLogicMock);
+    }
+
+    @Test
+    void testBatchTooManyOrgs() throws Exception {
+        final String[] orgs = new String[101];
+        Arrays.fill(orgs, "productboard");
+
+        mvc.perform(MockMvcRequestBuilders.get("/orgs/languages")
+                        .param("org", orgs)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        Mockito.verifyNoInteractions(languageStatsLogicMock);
+    }
+
+    private static Map<SupportedOrg, LanguageStatsJson> batch() {
+        final Map<SupportedOrg, LanguageStatsJson> batch = new LinkedHashMap<>();
+        batch.put(PRODUCTBOARD, LanguageStatsJson.of(LANGUAGE_STATS));
+        batch.put(DN, LanguageStatsJson.of(EMPTY_LANGUAGE_STATS));
+        return batch;
+    }
+
+    private long okRequestCount() {
+        final Timer timer = meterRegistry.find("stats.requests")
+                .tag("uri", "/org/{org}/languages")
+                .tag("status", "200")
+                .timer();
+        return timer == null ? 0 : timer.count();
+    }
+}
@@ -0,0 +1,191 @@
+package com.havluj.github.languageanalyzer.api.controller;
+
+import com.havluj.github.languageanalyzer.BaseTest;
+import com.havluj.github.languageanalyzer.dao.StorageDao;
+import com.havluj.github.languageanalyzer.exceptions.TooManySubscribersException;
+import com.havluj.github.languageanalyzer.logic.LanguageStatsHistoryLogic;
+import com.havluj.github.languageanalyzer.logic.LanguageStatsLogic;
+import com.havluj.github.languageanalyzer.logic.LanguageStatsStreamLogic;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@AutoConfigureMockMvc
+class LanguageStatsStreamControllerTest extends BaseTest {
+
+    @MockBean
+    private LanguageStatsLogic languageStatsLogicMock;
+    @MockBean
+    private LanguageStatsHistoryLogic languageStatsHistoryLogicMock;
+
+    @Autowired
+    private MockMvc mvc;
+    @Autowired
+    private StorageDao storageDao;
+    @Autowired
+    private LanguageStatsStreamLogic languageStatsStreamLogic;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void testUnknownOrg() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/org/invalid/languages/stream").accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isBadRequest());
+        Mockito.verifyNoInteractions(languageStatsLogicMock);
+    }
+
+    @Test
+    void testStream() throws Exception {
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(PRODUCTBOARD))
+                .thenReturn(LanguageStatsJson.of(LANGUAGE_STATS));
+        final int subscribers = languageStatsStreamLogic.getSubscriberCount();
+
+        final MvcResult result = mvc.perform(MockMvcRequestBuilders.get("/org/productboard/languages/stream")
+                        .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // the current stats right away
+        awaitContent(result, statsEvent(LANGUAGE_STATS));
+        assertEquals(subscribers + 1, languageStatsStreamLogic.getSubscriberCount());
+
+        // then new ones once they are stored, and heartbeats in between
+        languageStatsStreamLogic.heartbeat();
+        awaitContent(result, statsEvent(LANGUAGE_STATS) + ":heartbeat\n\n");
+        storageDao.updateLanguageStats(PRODUCTBOARD.getOrgName(), EMPTY_LANGUAGE_STATS);
+        awaitContent(result, statsEvent(LANGUAGE_STATS) + ":heartbeat\n\n" + statsEvent(EMPTY_LANGUAGE_STATS));
+
+        // stats of other orgs are not pushed
+        storageDao.updateLanguageStats(DN.getOrgName(), LANGUAGE_STATS);
+        languageStatsStreamLogic.heartbeat();
+        awaitContent(result, statsEvent(LANGUAGE_STATS) + ":heartbeat\n\n" + statsEvent(EMPTY_LANGUAGE_STATS)
+                + ":heartbeat\n\n");
+
+        // pushed stats are taken from the storage, not fetched again
+        Mockito.verify(languageStatsLogicMock, Mockito.times(1)).getLanguageStatsJsonForOrg(PRODUCTBOARD);
+    }
+
+    @Test
+    void testTooManySubscribers() {
+        final LanguageStatsStreamLogic streamLogic = new LanguageStatsStreamLogic(languageStatsLogicMock, storageDao,
+                meterRegistry, Duration.ofMinutes(1), 0, 1, 16, Duration.ofSeconds(10), 1);
+
+        assertThrows(TooManySubscribersException.class, () -> streamLogic.subscribe(PRODUCTBOARD));
+        Mockito.verifyNoInteractions(languageStatsLogicMock);
+        assertEquals(0, streamLogic.getSubscriberCount());
+    }
+
+    @Test
+    void testFailedSubscriptionFreesSlot() {
+        final LanguageStatsStreamLogic streamLogic = new LanguageStatsStreamLogic(languageStatsLogicMock, storageDao,
+                meterRegistry, Duration.ofMinutes(1), 1, 1, 16, Duration.ofSeconds(10), 1);
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(PRODUCTBOARD))
+                .thenThrow(new IllegalStateException("fetching failed"))
+                .thenReturn(LanguageStatsJson.of(LANGUAGE_STATS));
+
+        assertThrows(IllegalStateException.class, () -> streamLogic.subscribe(PRODUCTBOARD));
+        assertEquals(0, streamLogic.getSubscriberCount());
+        assertNotNull(streamLogic.subscribe(PRODUCTBOARD));
+        assertEquals(1, streamLogic.getSubscriberCount());
+        assertThrows(TooManySubscribersException.class, () -> streamLogic.subscribe(PRODUCTBOARD));
+    }
+
+    @Test
+    void testClientThatDoesNotRead() throws Exception {
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(Mockito.any()))
+                .thenReturn(LanguageStatsJson.of(LANGUAGE_STATS));
+        final CountDownLatch writeTimedOut = new CountDownLatch(1);
+        final AtomicInteger clients = new AtomicInteger();
+        final AtomicInteger sentToReader = new AtomicInteger();
+        // a single sender thread, which the first client pins
+        final LanguageStatsStreamLogic streamLogic = new LanguageStatsStreamLogic(languageStatsLogicMock, storageDao,
+                meterRegistry, Duration.ofMinutes(1), 10, 1, 16, Duration.ofMillis(100), 2) {
+            @Override
+            protected SseEmitter createEmitter() {
+                final boolean reads = clients.getAndIncrement() > 0;
+                return new SseEmitter() {
+                    @Override
+                    public void send(final SseEventBuilder builder) throws IOException {
+                        if (reads) {
+                            sentToReader.incrementAndGet();
+                            return;
+                        }
+                        // blocks until the servlet container gives up on the write
+                        try {
+                            writeTimedOut.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new IOException("write timed out");
+                    }
+                };
+            }
+        };
+
+        try {
+            streamLogic.subscribe(PRODUCTBOARD);
+            streamLogic.subscribe(DN);
+
+            // the client that reads gets its stats all the same, the other one is dropped
+            await(() -> sentToReader.get() > 0);
+            await(() -> streamLogic.getSubscriberCount() == 1);
+            assertEquals(2, streamLogic.getSenderThreadCount());
+            final int sent = sentToReader.get();
+            streamLogic.heartbeat();
+            await(() -> sentToReader.get() > sent);
+        } finally {
+            writeTimedOut.countDown();
+        }
+
+        // the stuck thread is back in the pool once its write returns
+        await(() -> streamLogic.getSenderThreadCount() == 1);
+        assertEquals(1, streamLogic.getSubscriberCount());
+    }
+
+    private static String statsEvent(final LanguageStats stats) {
+        final LanguageStatsJson json = LanguageStatsJson.of(stats);
+        return "event:stats\nid:" + json.getEtag() + "\ndata:" + new String(json.getBody(), StandardCharsets.UTF_8)
+                + "\n\n";
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * Events are sent from another thread, so the response is checked until it has the expected content.
+     */
+    private static void awaitContent(final MvcResult result, final String expected) throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!expected.equals(result.getResponse().getContentAsString())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, result.getResponse().getContentAsString());
+    }
+}
@@ -0,0 +1,113 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.BaseTest;
+import com.havluj.github.languageanalyzer.dao.GitHubRequestScheduler.Priority;
+import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
+import com.havluj.github.languageanalyzer.exceptions.OrgNotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHOrganization;
+import org.kohsuke.github.GHRepository;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncGitHubDaoTest extends BaseTest {
+
+    @Mock private GitHubDao gitHubDaoMock;
+    @Mock private GHRepository repository1Mock;
+    @Mock private GHOrganization organizationMock;
+
+    private ExecutorService executor;
+    private AsyncGitHubDao asyncGitHubDao;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        asyncGitHubDao = new AsyncGitHubDao(gitHubDaoMock, executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testGetOrg() {
+        Mockito.when(gitHubDaoMock.getOrg(PRODUCTBOARD.getOrgName())).thenReturn(organizationMock);
+
+        assertEquals(organizationMock,
+                AsyncGitHubDao.join(asyncGitHubDao.getOrg(PRODUCTBOARD.getOrgName())));
+        Mockito.verify(gitHubDaoMock, Mockito.times(1)).getOrg(PRODUCTBOARD.getOrgName());
+        Mockito.verifyNoMoreInteractions(gitHubDaoMock);
+    }
+
+    @Test
+    void testOrgNotFoundIsNotWrapped() {
+        Mockito.when(gitHubDaoMock.getOrg(Mockito.any())).thenThrow(OrgNotFoundException.class);
+
+        assertThrows(OrgNotFoundException.class,
+                () -> AsyncGitHubDao.join(asyncGitHubDao.getOrg(PRODUCTBOARD.getOrgName())));
+    }
+
+    @Test
+    void testListOrgRepoPages() {
+        final Iterator<List<GHRepository>> pages = List.of(List.of(repository1Mock)).iterator();
+        Mockito.when(gitHubDaoMock.listOrgRepoPages(organizationMock)).thenReturn(pages);
+
+        assertSame(pages, AsyncGitHubDao.join(asyncGitHubDao.listOrgRepoPages(organizationMock)));
+        assertEquals(List.of(repository1Mock), AsyncGitHubDao.join(asyncGitHubDao.nextRepoPage(pages)));
+        assertNull(AsyncGitHubDao.join(asyncGitHubDao.nextRepoPage(pages)));
+        Mockito.verify(gitHubDaoMock, Mockito.times(1)).listOrgRepoPages(organizationMock);
+        Mockito.verifyNoMoreInteractions(gitHubDaoMock);
+    }
+
+    @Test
+    void testListRepoLanguages() {
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock)).thenReturn(REPO_STAT_1);
+
+        assertEquals(REPO_STAT_1, AsyncGitHubDao.join(asyncGitHubDao.listRepoLanguages(repository1Mock)));
+        Mockito.verify(gitHubDaoMock, Mockito.times(1)).listRepoLanguages(repository1Mock);
+        Mockito.verifyNoMoreInteractions(gitHubDaoMock);
+    }
+
+    @Test
+    void testRepoLanguagesFailure() {
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock)).thenThrow(GitHubIoErrorException.class);
+
+        assertThrows(GitHubIoErrorException.class,
+                () -> AsyncGitHubDao.join(asyncGitHubDao.listRepoLanguages(repository1Mock)));
+    }
+
+    @Test
+    void testPriorityIsCarriedOver() {
+        final CompletableFuture<Priority> orgPriority = new CompletableFuture<>();
+        final CompletableFuture<Priority> reposPriority = new CompletableFuture<>();
+        Mockito.when(gitHubDaoMock.getOrg(Mockito.any())).thenAnswer(invocation -> {
+            orgPriority.complete(GitHubRequestScheduler.currentPriority());
+            return organizationMock;
+        });
+        Mockito.when(gitHubDaoMock.listOrgRepoPages(organizationMock)).thenAnswer(invocation -> {
+            reposPriority.complete(GitHubRequestScheduler.currentPriority());
+            return List.of(List.of(repository1Mock)).iterator();
+        });
+
+        // the second call is made from a callback running on the executor
+        final CompletableFuture<Iterator<List<GHRepository>>> repos = GitHubRequestScheduler.callWithPriority(
+                Priority.BACKGROUND,
+                () -> asyncGitHubDao.getOrg(PRODUCTBOARD.getOrgName())
+                        .thenCompose(asyncGitHubDao::listOrgRepoPages));
+
+        assertEquals(List.of(repository1Mock), AsyncGitHubDao.join(repos).next());
+        assertEquals(Priority.BACKGROUND, orgPriority.join());
+        assertEquals(Priority.BACKGROUND, reposPriority.join());
+    }
+}
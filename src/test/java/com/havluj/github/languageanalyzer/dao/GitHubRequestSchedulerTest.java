@@ -0,0 +1,201 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.dao.GitHubRequestScheduler.Priority;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GitHubRequestSchedulerTest {
+
+    private static GitHubRequestScheduler scheduler(final double requestsPerSecond, final int burst) {
+        return new GitHubRequestScheduler(requestsPerSecond, burst, 0.1, 2, Duration.ofMillis(50),
+                Duration.ofSeconds(5));
+    }
+
+    private static Map<String, String> quota(final int limit, final int remaining, final long resetAtMs) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("x-ratelimit-limit", String.valueOf(limit));
+        headers.put("x-ratelimit-remaining", String.valueOf(remaining));
+        headers.put("x-ratelimit-reset", String.valueOf((resetAtMs + 999) / 1000));
+        return headers;
+    }
+
+    private static long millisToAcquire(final GitHubRequestScheduler scheduler, final Priority priority)
+            throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        assertTrue(scheduler.acquire(priority));
+        return System.currentTimeMillis() - start;
+    }
+
+    @Test
+    void testBurstIsNotPaced() throws InterruptedException {
+        final GitHubRequestScheduler scheduler = scheduler(1, 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(millisToAcquire(scheduler, Priority.INTERACTIVE) < 100);
+        }
+    }
+
+    @Test
+    void testRequestsArePaced() throws InterruptedException {
+        final GitHubRequestScheduler scheduler = scheduler(20, 1);
+
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            scheduler.acquire(Priority.INTERACTIVE);
+        }
+        // first one from the burst, then one every 50 ms
+        assertTrue(System.currentTimeMillis() - start >= 190);
+    }
+
+    @Test
+    void testQuotaIsTracked() {
+        final GitHubRequestScheduler scheduler = scheduler(10, 10);
+        final long resetAt = System.currentTimeMillis() + 60_000;
+        assertEquals(-1, scheduler.getRemaining());
+
+        assertFalse(scheduler.onResponse(200, quota(5000, 4000, resetAt)::get, 0));
+        assertEquals(4000, scheduler.getRemaining());
+        assertEquals((resetAt + 999) / 1000 * 1000, scheduler.getResetAt());
+
+        // a late response of an older request doesn't bring the quota back up
+        scheduler.onResponse(200, quota(5000, 4100, resetAt)::get, 0);
+        assertEquals(4000, scheduler.getRemaining());
+    }
+
+    @Test
+    void testUsedUpQuotaWaitsForReset() throws InterruptedException {
+        final GitHubRequestScheduler scheduler = scheduler(10, 10);
+        final long resetAt = System.currentTimeMillis() + 1000;
+
+        assertTrue(scheduler.onResponse(403, quota(5000, 0, resetAt)::get, 0));
+        assertTrue(scheduler.acquire(Priority.INTERACTIVE));
+        assertTrue(System.currentTimeMillis() >= resetAt);
+    }
+
+    @Test
+    void testGivesUpWhenResetIsTooFar() throws InterruptedException {
+        final GitHubRequestScheduler scheduler = scheduler(10, 10);
+
+        scheduler.onResponse(403, quota(5000, 0, System.currentTimeMillis() + 3_600_000)::get, 0);
+        assertFalse(scheduler.acquire(Priority.INTERACTIVE));
+    }
+
+    @Test
+    void testBackgroundLeavesReserveForInteractive() throws InterruptedException {
+        final GitHubRequestScheduler scheduler = scheduler(100, 10);
+        final long resetAt = System.currentTimeMillis() + 1000;
+        // 5 left of 100, the reserve is 10
+        scheduler.onResponse(200, quota(100, 5, resetAt)::get, 0);
+
+        assertTrue(millisToAcquire(scheduler, Priority.INTERACTIVE) < 100);
+        assertTrue(scheduler.acquire(Priority.BACKGROUND));
+        assertTrue(System.currentTimeMillis() >= resetAt);
+    }
+
+    @Test
+    void testBackgroundYieldsToInteractive() throws Exception {
+        final GitHubRequestScheduler scheduler = scheduler(5, 1);
+        scheduler.acquire(Priority.INTERACTIVE); // drain the bucket, next token comes in 200 ms
+
+        final CompletableFuture<Long> background = CompletableFuture.supplyAsync(() -> acquireAt(scheduler, Priority.BACKGROUND));
+        Thread.sleep(50);
+        final CompletableFuture<Long> interactive = CompletableFuture.supplyAsync(() -> acquireAt(scheduler, Priority.INTERACTIVE));
+
+        assertTrue(interactive.get(5, TimeUnit.SECONDS) < background.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testPromotedRequestStopsWaitingForReserve() throws Exception {
+        final GitHubRequestScheduler scheduler = scheduler(100, 10);
+        // 5 left of 100, the reserve is 10, so background requests wait for the reset
+        scheduler.onResponse(200, quota(100, 5, System.currentTimeMillis() + 4000)::get, 0);
+        final GitHubRequestScheduler.SharedPriority priority =
+                new GitHubRequestScheduler.SharedPriority(Priority.BACKGROUND);
+
+        final long start = System.nanoTime();
+        final CompletableFuture<Long> request = CompletableFuture.supplyAsync(() -> {
+            try {
+                scheduler.acquire(priority);
+                return System.nanoTime();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(request.isDone());
+
+        assertTrue(scheduler.promote(priority));
+        assertFalse(scheduler.promote(priority));
+        assertEquals(Priority.INTERACTIVE, priority.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(request.get(5, TimeUnit.SECONDS) - start) < 2000);
+    }
+
+    @Test
+    void testSecondaryLimitBacksOff() throws InterruptedException {
+        final GitHubRequestScheduler scheduler = scheduler(10, 10);
+
+        final long start = System.currentTimeMillis();
+        assertTrue(scheduler.onResponse(429, Map.<String, String>of()::get, 0));
+        assertTrue(scheduler.acquire(Priority.INTERACTIVE));
+        // 50 ms backoff with up to 25 ms of jitter
+        final long waited = System.currentTimeMillis() - start;
+        assertTrue(waited >= 50 && waited < 1000);
+    }
+
+    @Test
+    void testSecondaryLimitUsesRetryAfter() throws InterruptedException {
+        final GitHubRequestScheduler scheduler = scheduler(10, 10);
+
+        final long start = System.currentTimeMillis();
+        assertTrue(scheduler.onResponse(403, Map.of("retry-after", "1")::get, 0));
+        assertTrue(scheduler.acquire(Priority.BACKGROUND));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+    }
+
+    @Test
+    void testSecondaryLimitGivesUpAfterMaxRetries() {
+        final GitHubRequestScheduler scheduler = scheduler(10, 10);
+
+        assertFalse(scheduler.onResponse(429, Map.<String, String>of()::get, 2));
+    }
+
+    @Test
+    void testPlainForbiddenIsNotRetried() {
+        final GitHubRequestScheduler scheduler = scheduler(10, 10);
+
+        assertFalse(scheduler.onResponse(403, Map.<String, String>of()::get, 0));
+        assertFalse(scheduler.onResponse(404, Map.<String, String>of()::get, 0));
+    }
+
+    @Test
+    void testPriorityOfCurrentThread() {
+        assertEquals(Priority.INTERACTIVE, GitHubRequestScheduler.currentPriority());
+        assertEquals(Priority.BACKGROUND, GitHubRequestScheduler.callWithPriority(Priority.BACKGROUND,
+                GitHubRequestScheduler::currentPriority));
+        assertEquals(Priority.INTERACTIVE, GitHubRequestScheduler.currentPriority());
+    }
+
+    @Test
+    void testInvalidConfig() {
+        assertThrows(IllegalArgumentException.class, () -> scheduler(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> scheduler(1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new GitHubRequestScheduler(1, 1, 1, 1,
+                Duration.ofSeconds(1), Duration.ofSeconds(1)));
+    }
+
+    private static long acquireAt(final GitHubRequestScheduler scheduler, final Priority priority) {
+        try {
+            scheduler.acquire(priority);
+            return System.nanoTime();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
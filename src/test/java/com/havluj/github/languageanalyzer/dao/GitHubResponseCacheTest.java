@@ -0,0 +1,74 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GitHubResponseCacheTest {
+
+    private static final String KEY = "https://api.github.com/repos/org/repo/languages";
+
+    private StandardEnvironment env;
+    private GitHubResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        env = new StandardEnvironment();
+        env.setActiveProfiles("test");
+        cache = new GitHubResponseCache(true, "unused", DataSize.ofMegabytes(16), env);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.destroy();
+    }
+
+    @Test
+    void testMissingResponse() {
+        assertNull(cache.get(KEY));
+    }
+
+    @Test
+    void testStoringResponse() {
+        final Map<String, List<String>> headers = Map.of(
+                "ETag", List.of("\"abc\""),
+                "Link", List.of("<https://api.github.com/orgs/org/repos?page=2>; rel=\"next\""),
+                "Vary", List.of("Accept", "Authorization"));
+        final byte[] body = "{\"Java\":20}".getBytes(StandardCharsets.UTF_8);
+        cache.put(KEY, new CachedGitHubResponse("\"abc\"", headers, body));
+
+        final CachedGitHubResponse cached = cache.get(KEY);
+        assertEquals("\"abc\"", cached.getEtag());
+        assertEquals(headers, cached.getHeaders());
+        assertArrayEquals(body, cached.getBody());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testReplacingResponse() {
+        cache.put(KEY, new CachedGitHubResponse("\"v1\"", Map.of(), new byte[]{1}));
+        cache.put(KEY, new CachedGitHubResponse("\"v2\"", Map.of(), new byte[]{2}));
+
+        assertEquals("\"v2\"", cache.get(KEY).getEtag());
+        assertArrayEquals(new byte[]{2}, cache.get(KEY).getBody());
+    }
+
+    @Test
+    void testDisabledCache() {
+        final GitHubResponseCache disabled = new GitHubResponseCache(false, "unused", DataSize.ofMegabytes(16), env);
+        disabled.put(KEY, new CachedGitHubResponse("\"abc\"", Map.of(), new byte[0]));
+
+        assertFalse(disabled.isEnabled());
+        assertNull(disabled.get(KEY));
+        assertEquals(0, disabled.size());
+        disabled.destroy();
+    }
+}
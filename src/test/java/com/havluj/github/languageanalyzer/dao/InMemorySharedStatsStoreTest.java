@@ -0,0 +1,68 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemorySharedStatsStoreTest {
+
+    private static final String ORG = "org";
+    private static final Duration LEASE = Duration.ofMinutes(1);
+
+    private InMemorySharedStatsStore sharedStatsStore;
+
+    @BeforeEach
+    void setUp() {
+        sharedStatsStore = new InMemorySharedStatsStore();
+    }
+
+    @Test
+    void testPutNotifiesListeners() {
+        final List<String> changed = new ArrayList<>();
+        sharedStatsStore.addChangeListener(changed::add);
+        final LanguageStats stats = new LanguageStats(Map.of("Java", "1.00"), Map.of("Java", 10L), 1000);
+
+        sharedStatsStore.put(ORG, stats);
+
+        assertEquals(List.of(ORG), changed);
+        assertSame(stats, sharedStatsStore.get(ORG));
+        assertEquals(Map.of(ORG, stats), sharedStatsStore.getAll());
+        assertNull(sharedStatsStore.get("other"));
+    }
+
+    @Test
+    void testSingleLeader() {
+        assertTrue(sharedStatsStore.tryLead("a", LEASE));
+        assertFalse(sharedStatsStore.tryLead("b", LEASE));
+        // renewal
+        assertTrue(sharedStatsStore.tryLead("a", LEASE));
+        assertFalse(sharedStatsStore.tryLead("b", LEASE));
+    }
+
+    @Test
+    void testExpiredLeaseIsTakenOver() {
+        assertTrue(sharedStatsStore.tryLead("a", Duration.ZERO));
+
+        assertTrue(sharedStatsStore.tryLead("b", LEASE));
+        assertFalse(sharedStatsStore.tryLead("a", LEASE));
+    }
+
+    @Test
+    void testResigning() {
+        assertTrue(sharedStatsStore.tryLead("a", LEASE));
+
+        // only the leader can give the lease up
+        sharedStatsStore.resign("b");
+        assertFalse(sharedStatsStore.tryLead("b", LEASE));
+
+        sharedStatsStore.resign("a");
+        assertTrue(sharedStatsStore.tryLead("b", LEASE));
+    }
+}
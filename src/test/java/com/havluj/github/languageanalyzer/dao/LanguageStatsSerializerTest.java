@@ -0,0 +1,153 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LanguageStatsSerializerTest {
+
+    private static final String JAVA = "Java";
+    private static final String TYPESCRIPT = "Typescript";
+
+    private Map<String, Integer> persistedDictionary;
+    private LanguageDictionary dictionary;
+    private LanguageStatsSerializer serializer;
+
+    @BeforeEach
+    void setUp() {
+        persistedDictionary = new HashMap<>();
+        dictionary = new LanguageDictionary(persistedDictionary);
+        serializer = new LanguageStatsSerializer(dictionary);
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        dictionary.registerAll(List.of(JAVA, TYPESCRIPT));
+        final LanguageStats stats = new LanguageStats(Map.of(JAVA, "0.40", TYPESCRIPT, "0.60"), 1234L);
+
+        final LanguageStats res = roundTrip(stats);
+
+        assertEquals(stats, res);
+        assertEquals(1234L, res.getUpdatedAt());
+    }
+
+    @Test
+    void testRoundTripWithByteCounts() throws IOException {
+        dictionary.registerAll(List.of(JAVA));
+        // TypeScript is not in the dictionary, so its name is written out
+        final LanguageStats stats = new LanguageStats(Map.of(JAVA, "0.40", TYPESCRIPT, "0.60"),
+                Map.of(JAVA, 40L, TYPESCRIPT, 60L), 1234L);
+
+        final LanguageStats res = roundTrip(stats);
+
+        assertEquals(stats, res);
+        assertEquals(Map.of(JAVA, 40L, TYPESCRIPT, 60L), res.getByteCounts());
+    }
+
+    @Test
+    void testReadingVersion1() throws IOException {
+        dictionary.registerAll(List.of(JAVA));
+        final DataOutput2 out = new DataOutput2();
+        out.writeByte(LanguageStatsSerializer.VERSION_1);
+        out.packLong(1234L);
+        out.packInt(1);
+        out.packInt(1);
+        out.packLong(100L << 1);
+        final byte[] bytes = out.copyBytes();
+
+        final LanguageStats res = serializer.deserialize(new DataInput2.ByteArray(bytes), bytes.length);
+
+        assertEquals(new LanguageStats(Map.of(JAVA, "1.00"), 1234L), res);
+        assertTrue(res.getByteCounts().isEmpty());
+        assertFalse(res.hasByteCounts());
+    }
+
+    @Test
+    void testEmptyStats() throws IOException {
+        final LanguageStats stats = new LanguageStats(Map.of());
+
+        assertEquals(stats, roundTrip(stats));
+    }
+
+    @Test
+    void testLanguageNamesAreShared() throws IOException {
+        dictionary.registerAll(List.of(JAVA));
+        final LanguageStats stats = new LanguageStats(Map.of(JAVA, "1.00"));
+
+        final String first = roundTrip(stats).getLanguageMap().keySet().iterator().next();
+        final String second = roundTrip(stats).getLanguageMap().keySet().iterator().next();
+
+        assertSame(first, second);
+    }
+
+    @Test
+    void testUnregisteredLanguageIsStoredInline() throws IOException {
+        final LanguageStats stats = new LanguageStats(Map.of("Brainfuck", "1.00"));
+
+        assertEquals(stats, roundTrip(stats));
+    }
+
+    @Test
+    void testUnusualPercentagesAreKeptAsStrings() throws IOException {
+        dictionary.registerAll(List.of(JAVA, TYPESCRIPT));
+        final LanguageStats stats = new LanguageStats(Map.of(JAVA, "0,40", TYPESCRIPT, "0.6"));
+
+        assertEquals(stats, roundTrip(stats));
+    }
+
+    @Test
+    void testDictionaryIsPersistedAndReloaded() throws IOException {
+        dictionary.registerAll(List.of(JAVA, TYPESCRIPT, JAVA));
+        assertEquals(Map.of(JAVA, 0, TYPESCRIPT, 1), persistedDictionary);
+
+        final LanguageStats stats = new LanguageStats(Map.of(JAVA, "0.40", TYPESCRIPT, "0.60"));
+        final byte[] bytes = serialize(stats);
+
+        final LanguageStatsSerializer reloaded =
+                new LanguageStatsSerializer(new LanguageDictionary(persistedDictionary));
+        assertEquals(stats, reloaded.deserialize(new DataInput2.ByteArray(bytes), bytes.length));
+    }
+
+    @Test
+    void testUnknownVersion() {
+        final byte[] bytes = new byte[]{42};
+
+        assertThrows(IOException.class, () -> serializer.deserialize(new DataInput2.ByteArray(bytes), bytes.length));
+    }
+
+    @Test
+    void testSmallerThanJavaSerialization() throws IOException {
+        final Map<String, String> languageMap = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            languageMap.put("Language" + i, "0.02");
+        }
+        dictionary.registerAll(languageMap.keySet());
+
+        final DataOutput2 javaOut = new DataOutput2();
+        Serializer.JAVA.serialize(javaOut, new HashMap<>(languageMap));
+
+        // names are replaced by IDs and percentages by numbers, so we should easily be 5x smaller
+        assertTrue(serialize(new LanguageStats(languageMap)).length * 5 < javaOut.copyBytes().length);
+    }
+
+    private LanguageStats roundTrip(final LanguageStats stats) throws IOException {
+        final byte[] bytes = serialize(stats);
+        return serializer.deserialize(new DataInput2.ByteArray(bytes), bytes.length);
+    }
+
+    private byte[] serialize(final LanguageStats stats) throws IOException {
+        final DataOutput2 out = new DataOutput2();
+        serializer.serialize(out, stats);
+        return out.copyBytes();
+    }
+}
@@ -0,0 +1,359 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHOrganization;
+import org.kohsuke.github.GHRepository;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs {@link GitHubDao} against a local stub of the GitHub API that sends rate limit headers, rejects requests with
+ * rate limit errors on demand, and answers conditional requests for repo languages.
+ */
+class RateLimitedGitHubConnectorTest {
+
+    private static final String ORG = "test-org";
+    private static final String REPOS_PATH_SUFFIX = "/" + ORG + "/repos";
+    private static final String LANGUAGES_PATH = "/repos/" + ORG + "/repo1/languages";
+    private static final int LIMIT = 5000;
+    private static final int PAGE_SIZE = 2;
+
+    private HttpServer server;
+    private String endpoint;
+    private GitHubRequestScheduler scheduler;
+    private GitHubResponseCache responseCache;
+    private SimpleMeterRegistry meterRegistry;
+    private GitHubDao gitHubDao;
+
+    private final AtomicInteger repoCount = new AtomicInteger(1);
+    private final AtomicInteger remaining = new AtomicInteger(LIMIT);
+    private final AtomicInteger languagesVersion = new AtomicInteger(1);
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+    private final AtomicLong resetEpochSeconds = new AtomicLong(System.currentTimeMillis() / 1000 + 3600);
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    /**
+     * Statuses of the next responses to the languages endpoint (with their extra headers). Empty means 200.
+     */
+    private final Deque<Map.Entry<Integer, Map<String, String>>> languagesFailures = new ConcurrentLinkedDeque<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        endpoint = "http://localhost:" + server.getAddress().getPort();
+
+        scheduler = new GitHubRequestScheduler(100, 10, 0.1, 3, Duration.ofMillis(20), Duration.ofSeconds(5));
+        final StandardEnvironment env = new StandardEnvironment();
+        env.setActiveProfiles("test");
+        responseCache = new GitHubResponseCache(true, "unused", DataSize.ofMegabytes(16), env);
+        meterRegistry = new SimpleMeterRegistry();
+        gitHubDao = new GitHubDao("token", endpoint, PAGE_SIZE, scheduler, responseCache, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        responseCache.destroy();
+    }
+
+    @Test
+    void testQuotaIsTrackedFromHeaders() {
+        final GHOrganization org = gitHubDao.getOrg(ORG);
+        final List<GHRepository> repos = gitHubDao.listOrgRepoPages(org).next();
+
+        assertEquals(1, repos.size());
+        assertEquals(Map.of("Java", 20L), gitHubDao.listRepoLanguages(repos.get(0)));
+        assertEquals(remaining.get(), scheduler.getRemaining());
+        assertTrue(scheduler.getResetAt() > System.currentTimeMillis());
+    }
+
+    @Test
+    void testSecondaryRateLimitIsRetried() {
+        languagesFailures.add(Map.entry(429, Map.of()));
+        languagesFailures.add(Map.entry(403, Map.of("Retry-After", "0")));
+        final GHRepository repo = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG)).next().get(0);
+
+        assertEquals(Map.of("Java", 20L), gitHubDao.listRepoLanguages(repo));
+        assertEquals(3, requestCounts.get(LANGUAGES_PATH).get());
+    }
+
+    @Test
+    void testUsedUpQuotaWaitsForReset() {
+        final long resetAt = System.currentTimeMillis() + 1000;
+        resetEpochSeconds.set((resetAt + 999) / 1000);
+        final GHRepository repo = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG)).next().get(0);
+        languagesFailures.add(Map.entry(403, Map.of("X-RateLimit-Remaining", "0")));
+
+        assertEquals(Map.of("Java", 20L), gitHubDao.listRepoLanguages(repo));
+        assertTrue(System.currentTimeMillis() >= resetAt);
+        assertEquals(2, requestCounts.get(LANGUAGES_PATH).get());
+    }
+
+    @Test
+    void testGivesUpAfterMaxRetries() {
+        final GHRepository repo = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG)).next().get(0);
+        for (int i = 0; i < 10; i++) {
+            languagesFailures.add(Map.entry(429, Map.of()));
+        }
+
+        assertThrows(GitHubIoErrorException.class, () -> gitHubDao.listRepoLanguages(repo));
+        // the first attempt and 3 retries
+        assertEquals(4, requestCounts.get(LANGUAGES_PATH).get());
+    }
+
+    @Test
+    void testReposAreListedPageByPage() {
+        repoCount.set(5);
+        final Iterator<List<GHRepository>> pages = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG));
+        assertEquals(0, repoListingCount());
+
+        final List<String> names = new ArrayList<>();
+        while (pages.hasNext()) {
+            final List<GHRepository> page = pages.next();
+            assertTrue(page.size() <= PAGE_SIZE);
+            page.forEach(repo -> names.add(repo.getName()));
+        }
+
+        assertEquals(List.of("repo1", "repo2", "repo3", "repo4", "repo5"), names);
+        assertEquals(3, repoListingCount());
+    }
+
+    @Test
+    void testFailedPageIsWrapped() {
+        repoCount.set(5);
+        final Iterator<List<GHRepository>> pages = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG));
+        assertEquals(PAGE_SIZE, pages.next().size());
+        server.removeContext("/");
+        server.createContext("/", exchange -> respond(exchange, 500, "{\"message\":\"Server Error\"}"));
+
+        assertThrows(GitHubIoErrorException.class, () -> {
+            pages.hasNext();
+            pages.next();
+        });
+    }
+
+    @Test
+    void testUnchangedResponseIsServedFromCache() {
+        final GHRepository repo = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG)).next().get(0);
+        assertEquals(Map.of("Java", 20L), gitHubDao.listRepoLanguages(repo));
+        final int remainingAfterFirst = remaining.get();
+
+        assertEquals(Map.of("Java", 20L), gitHubDao.listRepoLanguages(repo));
+
+        assertEquals(2, requestCounts.get(LANGUAGES_PATH).get());
+        assertEquals(1, notModifiedCount.get());
+        // 304 responses don't count against the rate limit
+        assertEquals(remainingAfterFirst, remaining.get());
+    }
+
+    @Test
+    void testChangedResponseIsDownloadedAgain() {
+        final GHRepository repo = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG)).next().get(0);
+        assertEquals(Map.of("Java", 20L), gitHubDao.listRepoLanguages(repo));
+
+        languagesVersion.incrementAndGet();
+        assertEquals(Map.of("Java", 40L), gitHubDao.listRepoLanguages(repo));
+        assertEquals(0, notModifiedCount.get());
+
+        // the new version is cached too
+        assertEquals(Map.of("Java", 40L), gitHubDao.listRepoLanguages(repo));
+        assertEquals(1, notModifiedCount.get());
+    }
+
+    @Test
+    void testDisabledCache() {
+        final StandardEnvironment env = new StandardEnvironment();
+        env.setActiveProfiles("test");
+        final GitHubDao uncached = new GitHubDao("token", endpoint, PAGE_SIZE, scheduler,
+                new GitHubResponseCache(false, "unused", DataSize.ofMegabytes(16), env), meterRegistry);
+        final GHRepository repo = uncached.listOrgRepoPages(uncached.getOrg(ORG)).next().get(0);
+
+        assertEquals(Map.of("Java", 20L), uncached.listRepoLanguages(repo));
+        assertEquals(Map.of("Java", 20L), uncached.listRepoLanguages(repo));
+        assertEquals(0, notModifiedCount.get());
+    }
+
+    @Test
+    void testRequestsAreMeteredPerEndpoint() {
+        languagesFailures.add(Map.entry(429, Map.of()));
+        final GHRepository repo = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG)).next().get(0);
+        gitHubDao.listRepoLanguages(repo);
+        gitHubDao.listRepoLanguages(repo);
+
+        assertEquals(1, requestTimerCount("/orgs/{org}", "200"));
+        assertEquals(1, requestTimerCount("/orgs/{org}/repos", "200"));
+        // every attempt is recorded, including retried and not modified ones
+        assertEquals(1, requestTimerCount("/repos/{owner}/{repo}/languages", "429"));
+        assertEquals(1, requestTimerCount("/repos/{owner}/{repo}/languages", "200"));
+        assertEquals(1, requestTimerCount("/repos/{owner}/{repo}/languages", "304"));
+        assertEquals("CLIENT_ERROR", meterRegistry.get(MeteredGitHubConnector.METRIC_NAME)
+                .tag("status", "429").timer().getId().getTag("outcome"));
+    }
+
+    @Test
+    void testWaitForRateLimitDoesNotCountTowardsTimeout() {
+        final long resetAt = System.currentTimeMillis() + 1000;
+        resetEpochSeconds.set((resetAt + 999) / 1000);
+        final GHRepository repo = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG)).next().get(0);
+        languagesFailures.add(Map.entry(403, Map.of("X-RateLimit-Remaining", "0")));
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final AsyncGitHubDao asyncGitHubDao = new AsyncGitHubDao(gitHubDao, executor);
+
+            // waits about a second for the reset, but each request takes just a few ms
+            assertEquals(Map.of("Java", 20L), AsyncGitHubDao.join(asyncGitHubDao.listRepoLanguages(repo, 500)));
+            assertTrue(System.currentTimeMillis() >= resetAt);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testCancelledCallDoesNotSendWaitingRequests() throws InterruptedException {
+        final long resetAt = System.currentTimeMillis() + 1000;
+        resetEpochSeconds.set((resetAt + 999) / 1000);
+        final GHRepository repo = gitHubDao.listOrgRepoPages(gitHubDao.getOrg(ORG)).next().get(0);
+        languagesFailures.add(Map.entry(403, Map.of("X-RateLimit-Remaining", "0")));
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final CompletableFuture<Map<String, Long>> call =
+                    new AsyncGitHubDao(gitHubDao, executor).listRepoLanguages(repo, 500);
+            while (!requestCounts.containsKey(LANGUAGES_PATH)) {
+                Thread.sleep(5);
+            }
+
+            // the retry is waiting for the reset now
+            call.cancel(false);
+            Thread.sleep(resetAt - System.currentTimeMillis() + 500);
+
+            assertEquals(1, requestCounts.get(LANGUAGES_PATH).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long requestTimerCount(final String endpoint, final String status) {
+        return meterRegistry.get(MeteredGitHubConnector.METRIC_NAME)
+                .tag("endpoint", endpoint)
+                .tag("status", status)
+                .timer()
+                .count();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        requestCounts.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-RateLimit-Limit", String.valueOf(LIMIT));
+        exchange.getResponseHeaders().add("X-RateLimit-Reset", String.valueOf(resetEpochSeconds.get()));
+
+        if (path.equals(LANGUAGES_PATH)) {
+            final Map.Entry<Integer, Map<String, String>> failure = languagesFailures.poll();
+            if (failure != null) {
+                final Map<String, String> headers = failure.getValue();
+                exchange.getResponseHeaders().set("X-RateLimit-Remaining",
+                        headers.getOrDefault("X-RateLimit-Remaining", String.valueOf(remaining.get())));
+                headers.forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+                respond(exchange, failure.getKey(), "{\"message\":\"rate limited\"}");
+                return;
+            }
+        }
+
+        if (path.equals(LANGUAGES_PATH)) {
+            final String etag = "\"languages-v" + languagesVersion.get() + "\"";
+            exchange.getResponseHeaders().add("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedCount.incrementAndGet();
+                exchange.getResponseHeaders().add("X-RateLimit-Remaining", String.valueOf(remaining.get()));
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+
+        exchange.getResponseHeaders().add("X-RateLimit-Remaining", String.valueOf(remaining.decrementAndGet()));
+        if (path.equals("/orgs/" + ORG)) {
+            respond(exchange, 200, String.format("{\"login\":\"%s\",\"id\":1,\"url\":\"%s/orgs/%s\"}",
+                    ORG, endpoint, ORG));
+        } else if (path.endsWith(REPOS_PATH_SUFFIX)) {
+            respondWithRepos(exchange);
+        } else if (path.equals(LANGUAGES_PATH)) {
+            respond(exchange, 200, "{\"Java\":" + 20 * languagesVersion.get() + "}");
+        } else {
+            respond(exchange, 404, "{\"message\":\"Not Found\"}");
+        }
+    }
+
+    /**
+     * Lists repos repo1 to repoN, paged like GitHub does: {@code per_page} and {@code page} query parameters, and a
+     * {@code Link} header pointing to the next page.
+     */
+    private void respondWithRepos(final HttpExchange exchange) throws IOException {
+        final Map<String, String> query = new HashMap<>();
+        final String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                final String[] nameAndValue = param.split("=", 2);
+                query.put(nameAndValue[0], nameAndValue.length > 1 ? nameAndValue[1] : "");
+            }
+        }
+        final int perPage = Integer.parseInt(query.getOrDefault("per_page", "30"));
+        final int page = Integer.parseInt(query.getOrDefault("page", "1"));
+
+        final List<String> repos = new ArrayList<>();
+        for (int i = (page - 1) * perPage + 1; i <= Math.min(page * perPage, repoCount.get()); i++) {
+            repos.add(String.format("{\"id\":%d,\"name\":\"repo%d\",\"full_name\":\"%s/repo%d\","
+                            + "\"owner\":{\"login\":\"%s\"},\"url\":\"%s/repos/%s/repo%d\"}",
+                    i, i, ORG, i, ORG, endpoint, ORG, i));
+        }
+        if (page * perPage < repoCount.get()) {
+            exchange.getResponseHeaders().add("Link", String.format("<%s%s?per_page=%d&page=%d>; rel=\"next\"",
+                    endpoint, exchange.getRequestURI().getPath(), perPage, page + 1));
+        }
+        respond(exchange, 200, "[" + String.join(",", repos) + "]");
+    }
+
+    private int repoListingCount() {
+        return requestCounts.entrySet().stream()
+                .filter(entry -> entry.getKey().endsWith(REPOS_PATH_SUFFIX))
+                .mapToInt(entry -> entry.getValue().get())
+                .sum();
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.HistoryResolution;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatsHistoryDaoTest {
+
+    private static final String ORG = "org";
+    private static final String JAVA = "Java";
+    private static final String TYPESCRIPT = "Typescript";
+    // a Monday
+    private static final LocalDate MONDAY = LocalDate.of(2024, 1, 1);
+
+    private StatsHistoryDao statsHistoryDao;
+
+    @BeforeEach
+    void setUp() {
+        final StandardEnvironment env = new StandardEnvironment();
+        env.setActiveProfiles("test");
+        statsHistoryDao = new StatsHistoryDao("unused", Duration.ofSeconds(1), 100, env);
+    }
+
+    @AfterEach
+    void tearDown() {
+        statsHistoryDao.destroy();
+    }
+
+    @Test
+    void testEmptyHistory() {
+        assertTrue(statsHistoryDao.getHistory(ORG, MONDAY, MONDAY.plusDays(7), HistoryResolution.DAY).isEmpty());
+    }
+
+    @Test
+    void testDaysAreStoredAsDeltas() {
+        statsHistoryDao.record(ORG, Map.of(JAVA, 100L, TYPESCRIPT, 50L), MONDAY);
+        statsHistoryDao.record(ORG, Map.of(JAVA, 120L, TYPESCRIPT, 50L), MONDAY.plusDays(1));
+        statsHistoryDao.record(ORG, Map.of(JAVA, 90L), MONDAY.plusDays(2));
+
+        assertEquals(HistoryEntry.keyframe(Map.of(JAVA, 100L, TYPESCRIPT, 50L)),
+                statsHistoryDao.getDays().get(new Object[]{ORG, MONDAY.toEpochDay()}));
+        // unchanged languages are left out, removed ones go negative
+        assertEquals(new HistoryEntry(false, Map.of(JAVA, 20L)),
+                statsHistoryDao.getDays().get(new Object[]{ORG, MONDAY.plusDays(1).toEpochDay()}));
+        assertEquals(new HistoryEntry(false, Map.of(JAVA, -30L, TYPESCRIPT, -50L)),
+                statsHistoryDao.getDays().get(new Object[]{ORG, MONDAY.plusDays(2).toEpochDay()}));
+
+        assertEquals(Map.of(
+                        MONDAY, Map.of(JAVA, 100L, TYPESCRIPT, 50L),
+                        MONDAY.plusDays(1), Map.of(JAVA, 120L, TYPESCRIPT, 50L),
+                        MONDAY.plusDays(2), Map.of(JAVA, 90L)),
+                statsHistoryDao.getHistory(ORG, MONDAY, MONDAY.plusDays(6), HistoryResolution.DAY));
+    }
+
+    @Test
+    void testEveryWeekStartsWithKeyframe() {
+        statsHistoryDao.record(ORG, Map.of(JAVA, 100L), MONDAY.plusDays(5));
+        statsHistoryDao.record(ORG, Map.of(JAVA, 110L), MONDAY.plusDays(6));
+        statsHistoryDao.record(ORG, Map.of(JAVA, 120L), MONDAY.plusDays(8));
+
+        assertTrue(statsHistoryDao.getDays().get(new Object[]{ORG, MONDAY.plusDays(5).toEpochDay()}).isKeyframe());
+        assertFalse(statsHistoryDao.getDays().get(new Object[]{ORG, MONDAY.plusDays(6).toEpochDay()}).isKeyframe());
+        assertTrue(statsHistoryDao.getDays().get(new Object[]{ORG, MONDAY.plusDays(8).toEpochDay()}).isKeyframe());
+    }
+
+    @Test
+    void testRangeStartingMidWeek() {
+        statsHistoryDao.record(ORG, Map.of(JAVA, 100L), MONDAY);
+        statsHistoryDao.record(ORG, Map.of(JAVA, 110L), MONDAY.plusDays(1));
+        statsHistoryDao.record(ORG, Map.of(JAVA, 130L), MONDAY.plusDays(2));
+        statsHistoryDao.record(ORG, Map.of(JAVA, 160L), MONDAY.plusDays(3));
+
+        assertEquals(Map.of(MONDAY.plusDays(2), Map.of(JAVA, 130L)),
+                statsHistoryDao.getHistory(ORG, MONDAY.plusDays(2), MONDAY.plusDays(2), HistoryResolution.DAY));
+    }
+
+    @Test
+    void testRecordingDayAgain() {
+        statsHistoryDao.record(ORG, Map.of(JAVA, 100L), MONDAY);
+        statsHistoryDao.record(ORG, Map.of(JAVA, 110L), MONDAY.plusDays(1));
+        statsHistoryDao.record(ORG, Map.of(JAVA, 150L), MONDAY.plusDays(1));
+
+        assertEquals(new HistoryEntry(false, Map.of(JAVA, 50L)),
+                statsHistoryDao.getDays().get(new Object[]{ORG, MONDAY.plusDays(1).toEpochDay()}));
+        assertEquals(Map.of(JAVA, 150L), statsHistoryDao
+                .getHistory(ORG, MONDAY, MONDAY.plusDays(1), HistoryResolution.DAY)
+                .get(MONDAY.plusDays(1)));
+    }
+
+    @Test
+    void testOlderDaysAreNotRewritten() {
+        statsHistoryDao.record(ORG, Map.of(JAVA, 100L), MONDAY.plusDays(1));
+        statsHistoryDao.record(ORG, Map.of(JAVA, 50L), MONDAY);
+
+        assertEquals(Map.of(MONDAY.plusDays(1), Map.of(JAVA, 100L)),
+                statsHistoryDao.getHistory(ORG, MONDAY, MONDAY.plusDays(1), HistoryResolution.DAY));
+    }
+
+    @Test
+    void testRollups() {
+        // Jan 29 - Feb 4 is a single week across two months
+        for (LocalDate day : List.of(LocalDate.of(2024, 1, 15), LocalDate.of(2024, 1, 17),
+                LocalDate.of(2024, 1, 30), LocalDate.of(2024, 2, 2))) {
+            statsHistoryDao.record(ORG, Map.of(JAVA, (long) day.getDayOfYear()), day);
+        }
+
+        assertEquals(Map.of(
+                        LocalDate.of(2024, 1, 15), Map.of(JAVA, 17L),
+                        LocalDate.of(2024, 1, 29), Map.of(JAVA, 33L)),
+                statsHistoryDao.getHistory(ORG, LocalDate.of(2024, 1, 16), LocalDate.of(2024, 2, 29),
+                        HistoryResolution.WEEK));
+        assertEquals(Map.of(
+                        LocalDate.of(2024, 1, 1), Map.of(JAVA, 30L),
+                        LocalDate.of(2024, 2, 1), Map.of(JAVA, 33L)),
+                statsHistoryDao.getHistory(ORG, LocalDate.of(2024, 1, 31), LocalDate.of(2024, 12, 31),
+                        HistoryResolution.MONTH));
+    }
+
+    @Test
+    void testOrgsAreSeparate() {
+        statsHistoryDao.record(ORG, Map.of(JAVA, 100L), MONDAY);
+        statsHistoryDao.record("other", Map.of(TYPESCRIPT, 10L), MONDAY.plusDays(1));
+        statsHistoryDao.record(ORG, Map.of(JAVA, 110L), MONDAY.plusDays(2));
+
+        assertEquals(Map.of(MONDAY, Map.of(JAVA, 100L), MONDAY.plusDays(2), Map.of(JAVA, 110L)),
+                statsHistoryDao.getHistory(ORG, MONDAY, MONDAY.plusDays(6), HistoryResolution.DAY));
+        assertEquals(Map.of(MONDAY.plusDays(1), Map.of(TYPESCRIPT, 10L)),
+                statsHistoryDao.getHistory("other", MONDAY, MONDAY.plusDays(6), HistoryResolution.DAY));
+    }
+
+    @Test
+    void testInvertedRange() {
+        statsHistoryDao.record(ORG, Map.of(JAVA, 100L), MONDAY);
+
+        assertTrue(statsHistoryDao.getHistory(ORG, MONDAY.plusDays(1), MONDAY, HistoryResolution.DAY).isEmpty());
+    }
+}
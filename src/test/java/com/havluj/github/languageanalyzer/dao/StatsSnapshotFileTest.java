@@ -0,0 +1,119 @@
+package com.havluj.github.languageanalyzer.dao;
+
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatsSnapshotFileTest {
+
+    private static final LanguageStats STATS = new LanguageStats(Map.of("Java", "0.40", "Typescript", "0.60"),
+            Map.of("Java", 40L, "Typescript", 60L), 1000);
+    private static final LanguageStats OTHER_STATS = new LanguageStats(Map.of("Go", "1.00"), Map.of("Go", 5L), 2000);
+
+    @TempDir
+    Path dir;
+    private Path path;
+
+    @BeforeEach
+    void setUp() {
+        path = dir.resolve("stats.snapshot");
+    }
+
+    @Test
+    void testWriteAndRead() throws IOException {
+        StatsSnapshotFile.write(path, Map.of("productboard", STATS, "deepnote-classroom", OTHER_STATS));
+
+        final StatsSnapshotFile file = StatsSnapshotFile.open(path);
+        assertEquals(2, file.size());
+        assertEquals(STATS, file.get("productboard"));
+        assertEquals(1000, file.get("productboard").getUpdatedAt());
+        assertEquals(OTHER_STATS, file.get("deepnote-classroom"));
+        assertEquals(2000, file.getUpdatedAt("deepnote-classroom"));
+        assertEquals(List.of("deepnote-classroom", "productboard"), file.getOrgNames());
+    }
+
+    @Test
+    void testMissingOrgs() throws IOException {
+        StatsSnapshotFile.write(path, Map.of("b", STATS, "d", STATS));
+
+        final StatsSnapshotFile file = StatsSnapshotFile.open(path);
+        for (String orgName : List.of("a", "c", "e", "", "bb")) {
+            assertNull(file.get(orgName));
+            assertEquals(-1, file.getUpdatedAt(orgName));
+        }
+    }
+
+    @Test
+    void testEmptyFile() throws IOException {
+        StatsSnapshotFile.write(path, Map.of());
+
+        final StatsSnapshotFile file = StatsSnapshotFile.open(path);
+        assertEquals(0, file.size());
+        assertNull(file.get("productboard"));
+        assertEquals(List.of(), file.getOrgNames());
+    }
+
+    @Test
+    void testWritingStreamedStats() throws IOException {
+        final Map<String, LanguageStats> stats = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            stats.put("org-" + i, new LanguageStats(Map.of("Java", "1.00"), Map.of("Java", (long) i), i));
+        }
+        StatsSnapshotFile.write(path, stats.entrySet());
+
+        final StatsSnapshotFile file = StatsSnapshotFile.open(path);
+        assertEquals(100, file.size());
+        assertEquals(stats.get("org-42"), file.get("org-42"));
+        // the records are streamed through a temporary file, which is gone once the file is written
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(List.of(path), files.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void testManyOrgs() throws IOException {
+        final Map<String, LanguageStats> stats = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            stats.put("org-" + i, new LanguageStats(Map.of("Java", "1.00"), Map.of("Java", (long) i), i));
+        }
+        StatsSnapshotFile.write(path, stats);
+
+        final StatsSnapshotFile file = StatsSnapshotFile.open(path);
+        assertEquals(1000, file.size());
+        for (Map.Entry<String, LanguageStats> entry : stats.entrySet()) {
+            assertEquals(entry.getValue(), file.get(entry.getKey()));
+            assertEquals(entry.getValue().getUpdatedAt(), file.getUpdatedAt(entry.getKey()));
+        }
+    }
+
+    @Test
+    void testReplacedFileStaysReadable() throws IOException {
+        StatsSnapshotFile.write(path, Map.of("productboard", STATS));
+        final StatsSnapshotFile old = StatsSnapshotFile.open(path);
+
+        StatsSnapshotFile.write(path, Map.of("productboard", OTHER_STATS));
+
+        assertEquals(STATS, old.get("productboard"));
+        assertEquals(OTHER_STATS, StatsSnapshotFile.open(path).get("productboard"));
+        assertFalse(Files.exists(dir.resolve("stats.snapshot.tmp")));
+    }
+
+    @Test
+    void testInvalidFile() throws IOException {
+        Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+
+        assertThrows(IOException.class, () -> StatsSnapshotFile.open(path));
+    }
+}
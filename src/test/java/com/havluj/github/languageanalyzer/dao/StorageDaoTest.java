@@ -1,9 +1,29 @@
 package com.havluj.github.languageanalyzer.dao;
 
 import com.havluj.github.languageanalyzer.BaseTest;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
+import com.havluj.github.languageanalyzer.model.RepoSnapshot;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -13,11 +33,27 @@ class StorageDaoTest extends BaseTest {
 
     @Autowired
     private StorageDao storageDao;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private InMemorySharedStatsStore sharedStatsStore;
+    @Autowired
+    private Environment env;
+    private MeterRegistry boundedMeterRegistry;
 
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
+        storageDao.deleteSnapshotFile();
+        storageDao.getUnsnapshottedMap().clear();
+        storageDao.clearStatsSnapshot();
         storageDao.getInMemMap().clear();
         storageDao.getOnDiskMap().clear();
+        storageDao.getLegacyOnDiskMap().clear();
+        storageDao.getLegacyOnDiskUpdatedMap().clear();
+        storageDao.getRepoSnapshotMap().clear();
+        storageDao.getLanguageStatsJsonCache().clear();
+        storageDao.getAccessCountMap().clear();
+        sharedStatsStore.getStats().clear();
     }
 
     @Test
@@ -25,10 +61,10 @@ class StorageDaoTest extends BaseTest {
         storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
 
         assertEquals(1, storageDao.getInMemMap().size());
-        assertEquals(LANGUAGE_STAT_MAP, storageDao.getInMemMap().get(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getInMemMap().get(KEY));
 
         assertEquals(1, storageDao.getOnDiskMap().size());
-        assertEquals(LANGUAGE_STAT_MAP, storageDao.getOnDiskMap().get(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getOnDiskMap().get(KEY));
     }
 
     @Test
@@ -36,10 +72,34 @@ class StorageDaoTest extends BaseTest {
         storageDao.updateLanguageStats(KEY, EMPTY_LANGUAGE_STATS);
 
         assertEquals(1, storageDao.getInMemMap().size());
-        assertEquals(EMPTY_LANGUAGE_STAT_MAP, storageDao.getInMemMap().get(KEY));
+        assertEquals(EMPTY_LANGUAGE_STATS, storageDao.getInMemMap().get(KEY));
 
         assertEquals(1, storageDao.getOnDiskMap().size());
-        assertEquals(EMPTY_LANGUAGE_STAT_MAP, storageDao.getOnDiskMap().get(KEY));
+        assertEquals(EMPTY_LANGUAGE_STATS, storageDao.getOnDiskMap().get(KEY));
+    }
+
+    @Test
+    void testReadsAreCountedBySource() {
+        // the registry is shared by all tests in the context
+        final double misses = readCount("miss");
+        final double jsonHits = readCount("json");
+        final double memoryHits = readCount("memory");
+        final double diskHits = readCount("disk");
+
+        assertNull(storageDao.getLanguageStatsJson(KEY));
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        storageDao.getLanguageStatsJson(KEY);
+        storageDao.getLanguageStatsJsonCache().clear();
+        storageDao.getLanguageStatsJson(KEY);
+        storageDao.getLanguageStatsJsonCache().clear();
+        storageDao.clearStatsSnapshot();
+        storageDao.getInMemMap().clear();
+        storageDao.getLanguageStatsJson(KEY);
+
+        assertEquals(misses + 1, readCount("miss"));
+        assertEquals(jsonHits + 1, readCount("json"));
+        assertEquals(memoryHits + 1, readCount("memory"));
+        assertEquals(diskHits + 1, readCount("disk"));
     }
 
     @Test
@@ -48,30 +108,598 @@ class StorageDaoTest extends BaseTest {
         storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
 
         assertEquals(1, storageDao.getInMemMap().size());
-        assertEquals(LANGUAGE_STAT_MAP, storageDao.getInMemMap().get(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getInMemMap().get(KEY));
 
         assertEquals(1, storageDao.getOnDiskMap().size());
-        assertEquals(LANGUAGE_STAT_MAP, storageDao.getOnDiskMap().get(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getOnDiskMap().get(KEY));
     }
 
     @Test
     void testGettingLanguageStatsFromMemory() {
         storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
-        assertEquals(LANGUAGE_STAT_MAP, storageDao.getLanguageStats(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+    }
+
+    @Test
+    void testGettingLanguageStatsFromSnapshot() {
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        final LanguageStats stats = storageDao.getStatsSnapshot().get(KEY);
+        assertEquals(LANGUAGE_STATS, stats);
+
+        // MapDB is not read at all
+        storageDao.getInMemMap().clear();
+        assertSame(stats, storageDao.getLanguageStats(KEY));
     }
 
     @Test
     void testGettingLanguageStatsFromDisk() {
-        storageDao.getOnDiskMap().put(KEY, LANGUAGE_STAT_MAP);
+        storageDao.getOnDiskMap().put(KEY, LANGUAGE_STATS);
 
-        assertEquals(LANGUAGE_STAT_MAP, storageDao.getLanguageStats(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
 
         assertEquals(1, storageDao.getInMemMap().size());
-        assertEquals(LANGUAGE_STAT_MAP, storageDao.getInMemMap().get(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getInMemMap().get(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getStatsSnapshot().get(KEY));
+    }
+
+    @Test
+    void testStoredStatsReplaceSnapshot() {
+        storageDao.getOnDiskMap().put(KEY, EMPTY_LANGUAGE_STATS);
+        assertEquals(EMPTY_LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        final Map<String, LanguageStats> before = storageDao.getStatsSnapshot();
+
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        // published snapshots never change
+        assertEquals(EMPTY_LANGUAGE_STATS, before.get(KEY));
     }
 
     @Test
     void testGettingLanguageStatsNotInDb() {
         assertEquals(null, storageDao.getLanguageStats("invalid"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testUpdateLanguageStatsSetsUpdatedAt() {
+        final long before = System.currentTimeMillis();
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        final long after = System.currentTimeMillis();
+
+        final long updatedAt = storageDao.getLanguageStats(KEY).getUpdatedAt();
+        assertTrue(before <= updatedAt && updatedAt <= after);
+        assertEquals(updatedAt, storageDao.getOnDiskMap().get(KEY).getUpdatedAt());
+    }
+
+    @Test
+    void testMigratingLegacyStats() {
+        storageDao.getLegacyOnDiskMap().put(KEY, LANGUAGE_STAT_MAP);
+        storageDao.getLegacyOnDiskUpdatedMap().put(KEY, 42L);
+        storageDao.getLegacyOnDiskMap().put("other", EMPTY_LANGUAGE_STAT_MAP);
+
+        storageDao.migrateLegacyStats();
+
+        // legacy stats had no byte counts
+        assertEquals(new LanguageStats(LANGUAGE_STAT_MAP), storageDao.getLanguageStats(KEY));
+        assertEquals(42L, storageDao.getLanguageStats(KEY).getUpdatedAt());
+        assertEquals(EMPTY_LANGUAGE_STATS, storageDao.getLanguageStats("other"));
+        assertEquals(0L, storageDao.getLanguageStats("other").getUpdatedAt());
+        assertTrue(storageDao.getLegacyOnDiskMap().isEmpty());
+        assertTrue(storageDao.getLegacyOnDiskUpdatedMap().isEmpty());
+    }
+
+    @Test
+    void testMigrationDoesNotOverwriteCurrentStats() {
+        storageDao.updateLanguageStats(KEY, EMPTY_LANGUAGE_STATS);
+        storageDao.getLegacyOnDiskMap().put(KEY, LANGUAGE_STAT_MAP);
+
+        storageDao.migrateLegacyStats();
+
+        assertEquals(EMPTY_LANGUAGE_STATS, storageDao.getOnDiskMap().get(KEY));
+    }
+
+    @Test
+    void testGettingLanguageStatsJson() {
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+
+        final LanguageStatsJson json = storageDao.getLanguageStatsJson(KEY);
+        assertEquals("{\"Java\":\"0.40\",\"Typescript\":\"0.60\"}", new String(json.getBody(), StandardCharsets.UTF_8));
+        assertEquals(storageDao.getLanguageStats(KEY).getUpdatedAt(), json.getUpdatedAt());
+        // served from heap, not serialized again
+        assertSame(json, storageDao.getLanguageStatsJson(KEY));
+    }
+
+    @Test
+    void testGettingLanguageStatsJsonFromDisk() {
+        storageDao.getOnDiskMap().put(KEY, LANGUAGE_STATS);
+
+        assertEquals(LanguageStatsJson.of(LANGUAGE_STATS), storageDao.getLanguageStatsJson(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getInMemMap().get(KEY));
+    }
+
+    @Test
+    void testGettingLanguageStatsJsonNotInDb() {
+        assertNull(storageDao.getLanguageStatsJson("invalid"));
+        assertTrue(storageDao.getLanguageStatsJsonCache().isEmpty());
+    }
+
+    @Test
+    void testLanguageStatsJsonRebuiltOnUpdate() {
+        storageDao.updateLanguageStats(KEY, EMPTY_LANGUAGE_STATS);
+        final LanguageStatsJson empty = storageDao.getLanguageStatsJson(KEY);
+        assertEquals("{}", new String(empty.getBody(), StandardCharsets.UTF_8));
+
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        final LanguageStatsJson updated = storageDao.getLanguageStatsJson(KEY);
+        assertEquals(LanguageStatsJson.of(LANGUAGE_STATS).getEtag(), updated.getEtag());
+        assertNotEquals(empty.getEtag(), updated.getEtag());
+    }
+
+    @Test
+    void testGettingLanguageStatsJsonBatch() {
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        storageDao.getOnDiskMap().put("on-disk", EMPTY_LANGUAGE_STATS);
+        final LanguageStatsJson cached = storageDao.getLanguageStatsJson(KEY);
+
+        final Map<String, LanguageStatsJson> res =
+                storageDao.getLanguageStatsJsonBatch(List.of("on-disk", "invalid", KEY));
+
+        assertEquals(List.of("on-disk", KEY), new ArrayList<>(res.keySet()));
+        assertSame(cached, res.get(KEY));
+        assertEquals(LanguageStatsJson.of(EMPTY_LANGUAGE_STATS), res.get("on-disk"));
+        assertEquals(EMPTY_LANGUAGE_STATS, storageDao.getInMemMap().get("on-disk"));
+        assertSame(res.get("on-disk"), storageDao.getLanguageStatsJson("on-disk"));
+    }
+
+    @Test
+    void testGettingLanguageStatsJsonBatchCountsAccesses() {
+        storageDao.getLanguageStatsJsonBatch(List.of("batch-1", "batch-2"));
+        storageDao.getLanguageStatsJsonBatch(List.of("batch-1"));
+
+        assertEquals(2L, storageDao.getAccessCounts().get("batch-1"));
+        assertEquals(1L, storageDao.getAccessCounts().get("batch-2"));
+    }
+
+    @Test
+    void testLoadingAllLanguageStats() {
+        storageDao.getOnDiskMap().put(KEY, LANGUAGE_STATS);
+        storageDao.getOnDiskMap().put("other", EMPTY_LANGUAGE_STATS);
+
+        assertEquals(Set.of(KEY, "other"), storageDao.loadAllLanguageStats());
+
+        assertEquals(LANGUAGE_STATS, storageDao.getInMemMap().get(KEY));
+        assertEquals(EMPTY_LANGUAGE_STATS, storageDao.getInMemMap().get("other"));
+        assertEquals(Map.of(KEY, LANGUAGE_STATS, "other", EMPTY_LANGUAGE_STATS), storageDao.getStatsSnapshot());
+        assertEquals(LanguageStatsJson.of(LANGUAGE_STATS), storageDao.getLanguageStatsJsonCache().get(KEY));
+        assertEquals(LanguageStatsJson.of(EMPTY_LANGUAGE_STATS), storageDao.getLanguageStatsJsonCache().get("other"));
+    }
+
+    @Test
+    void testLoadingAllLanguageStatsKeepsNewerStatsInMemory() {
+        storageDao.getOnDiskMap().put(KEY, EMPTY_LANGUAGE_STATS);
+        storageDao.getInMemMap().put(KEY, LANGUAGE_STATS);
+
+        storageDao.loadAllLanguageStats();
+
+        assertEquals(LANGUAGE_STATS, storageDao.getInMemMap().get(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+    }
+
+    @Test
+    void testCountingAccesses() {
+        final String org = "counted";
+        storageDao.updateLanguageStats(org, LANGUAGE_STATS);
+        storageDao.getLanguageStatsJson(org);
+        storageDao.getLanguageStatsJson(org);
+
+        assertEquals(2L, storageDao.getAccessCounts().get(org));
+        // not on disk until flushed
+        assertNull(storageDao.getAccessCountMap().get(org));
+    }
+
+    @Test
+    void testFlushingAccessCounts() {
+        final String org = "flushed";
+        storageDao.getAccessCountMap().put(org, 10L);
+        storageDao.getLanguageStatsJson(org);
+        storageDao.getLanguageStatsJson(org);
+
+        storageDao.flushAccessCounts();
+        assertEquals(12L, storageDao.getAccessCountMap().get(org));
+        assertEquals(12L, storageDao.getAccessCounts().get(org));
+
+        // only accesses since the last flush are added
+        storageDao.getLanguageStatsJson(org);
+        storageDao.flushAccessCounts();
+        storageDao.flushAccessCounts();
+        assertEquals(13L, storageDao.getAccessCountMap().get(org));
+        assertEquals(13L, storageDao.getAccessCounts().get(org));
+    }
+
+    @Test
+    void testRepoSnapshotsNotInDb() {
+        assertEquals(Map.of(), storageDao.getRepoSnapshots("invalid"));
+    }
+
+    @Test
+    void testUpdatingRepoSnapshots() {
+        final RepoSnapshot repo1 = new RepoSnapshot(1L, REPO_STAT_1);
+        final RepoSnapshot repo2 = new RepoSnapshot(2L, REPO_STAT_2);
+        storageDao.updateRepoSnapshots(KEY, Map.of("r1", repo1, "r2", repo2));
+        assertEquals(Map.of("r1", repo1, "r2", repo2), storageDao.getRepoSnapshots(KEY));
+
+        // repos missing from the update are forgotten
+        storageDao.updateRepoSnapshots(KEY, Map.of("r2", repo2));
+        assertEquals(Map.of("r2", repo2), storageDao.getRepoSnapshots(KEY));
+        assertEquals(0, storageDao.getInMemMap().size());
+    }
+
+    @Test
+    void testWritesAreGroupCommitted() {
+        // the registry is shared by all tests in the context
+        storageDao.commit();
+        final long commits = commitCount();
+
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        storageDao.updateLanguageStats("other", EMPTY_LANGUAGE_STATS);
+        storageDao.updateRepoSnapshots(KEY, Map.of());
+        assertEquals(3, storageDao.getPendingWrites());
+        // pending writes are served right away
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getOnDiskMap().get(KEY));
+
+        storageDao.commit();
+        assertEquals(0, storageDao.getPendingWrites());
+        assertEquals(commits + 1, commitCount());
+    }
+
+    @Test
+    void testPendingWritesAreCommittedAfterDelay() throws InterruptedException {
+        storageDao.commit();
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+
+        // db.commit.max-delay is 1s
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (storageDao.getPendingWrites() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, storageDao.getPendingWrites());
+    }
+
+    @Test
+    void testPendingWritesAreCommittedWhenThereAreTooMany() {
+        storageDao.commit();
+        final long commits = commitCount();
+
+        // db.commit.max-pending is 100
+        for (int i = 0; i < 100; i++) {
+            storageDao.updateLanguageStats(KEY + i, LANGUAGE_STATS);
+        }
+        assertTrue(commitCount() > commits);
+    }
+
+    @Test
+    void testUpdatedStatsAreShared() {
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+
+        assertEquals(LANGUAGE_STATS, sharedStatsStore.get(KEY));
+        assertEquals(storageDao.getLanguageStats(KEY).getUpdatedAt(), sharedStatsStore.get(KEY).getUpdatedAt());
+    }
+
+    @Test
+    void testGettingLanguageStatsFromShared() {
+        // the registry is shared by all tests in the context
+        final double sharedHits = readCount("shared");
+        // stored by another instance, without a notification
+        final LanguageStats shared = new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 1000);
+        sharedStatsStore.getStats().put(KEY, shared);
+
+        assertEquals(LanguageStatsJson.of(shared), storageDao.getLanguageStatsJson(KEY));
+
+        assertEquals(sharedHits + 1, readCount("shared"));
+        // stored locally as it is
+        assertEquals(1000, storageDao.getOnDiskMap().get(KEY).getUpdatedAt());
+        assertEquals(1000, storageDao.getLanguageStats(KEY).getUpdatedAt());
+    }
+
+    @Test
+    void testChangedStatsAreTakenOver() {
+        storageDao.updateLanguageStats(KEY, EMPTY_LANGUAGE_STATS);
+        storageDao.getLanguageStatsJson(KEY);
+
+        // stored by another instance
+        final long updatedAt = storageDao.getLanguageStats(KEY).getUpdatedAt() + 1000;
+        sharedStatsStore.put(KEY, new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, updatedAt));
+
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        assertEquals(updatedAt, storageDao.getLanguageStats(KEY).getUpdatedAt());
+        assertEquals(LANGUAGE_STATS, storageDao.getOnDiskMap().get(KEY));
+        assertEquals(LanguageStatsJson.of(LANGUAGE_STATS), storageDao.getLanguageStatsJson(KEY));
+    }
+
+    @Test
+    void testOlderSharedStatsAreIgnored() {
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+
+        sharedStatsStore.put(KEY, new LanguageStats(EMPTY_LANGUAGE_STAT_MAP, 1000));
+
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        assertEquals(LANGUAGE_STATS, storageDao.getOnDiskMap().get(KEY));
+    }
+
+    @Test
+    void testConcurrentMissAndChangeOfSameOrg() throws Exception {
+        final CountDownLatch readingShared = new CountDownLatch(1);
+        final CountDownLatch changed = new CountDownLatch(1);
+        // the first read of the shared storage (the reader's miss) is slow, as with Redis
+        final InMemorySharedStatsStore slowSharedStatsStore = new InMemorySharedStatsStore() {
+            private final AtomicBoolean first = new AtomicBoolean(true);
+
+            @Override
+            public LanguageStats get(final String orgName) {
+                final LanguageStats stats = super.get(orgName);
+                if (first.getAndSet(false)) {
+                    readingShared.countDown();
+                    try {
+                        changed.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return stats;
+            }
+        };
+        final StorageDao sharingStorageDao = new StorageDao("unused", "unused", Duration.ofSeconds(1), 100,
+                DataSize.ofMegabytes(32), DataSize.ofMegabytes(16), DataSize.ofMegabytes(64), false, env,
+                new SimpleMeterRegistry(), slowSharedStatsStore);
+        sharingStorageDao.subscribe();
+        final LanguageStats older = new LanguageStats(EMPTY_LANGUAGE_STAT_MAP, 1000);
+        final LanguageStats newer = new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 2000);
+        try {
+            slowSharedStatsStore.getStats().put(KEY, older);
+
+            final CompletableFuture<LanguageStatsJson> miss =
+                    CompletableFuture.supplyAsync(() -> sharingStorageDao.getLanguageStatsJson(KEY));
+            assertTrue(readingShared.await(5, TimeUnit.SECONDS));
+            // another instance stores newer stats while the reader is still loading the older ones
+            final CompletableFuture<Void> change =
+                    CompletableFuture.runAsync(() -> slowSharedStatsStore.put(KEY, newer));
+            change.get(5, TimeUnit.SECONDS);
+            changed.countDown();
+
+            // neither waits for the other, and the newer stats win
+            assertNotNull(miss.get(5, TimeUnit.SECONDS));
+            assertEquals(LanguageStatsJson.of(newer), sharingStorageDao.getLanguageStatsJson(KEY));
+            assertEquals(2000, sharingStorageDao.getLanguageStats(KEY).getUpdatedAt());
+            assertEquals(2000, sharingStorageDao.getOnDiskMap().get(KEY).getUpdatedAt());
+        } finally {
+            changed.countDown();
+            sharingStorageDao.destroy();
+        }
+    }
+
+    @Test
+    void testSharedStorageOutage() {
+        // as with Redis down
+        final InMemorySharedStatsStore brokenSharedStatsStore = new InMemorySharedStatsStore() {
+            @Override
+            public void put(final String orgName, final LanguageStats stats) {
+                throw new IllegalStateException("shared storage is down");
+            }
+
+            @Override
+            public LanguageStats get(final String orgName) {
+                throw new IllegalStateException("shared storage is down");
+            }
+
+            @Override
+            public Map<String, LanguageStats> getAll() {
+                throw new IllegalStateException("shared storage is down");
+            }
+        };
+        final StorageDao sharingStorageDao = new StorageDao("unused", "unused", Duration.ofSeconds(1), 100,
+                DataSize.ofMegabytes(32), DataSize.ofMegabytes(16), DataSize.ofMegabytes(64), false, env,
+                new SimpleMeterRegistry(), brokenSharedStatsStore);
+        try {
+            // stored locally all the same
+            sharingStorageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+            assertEquals(LANGUAGE_STATS, sharingStorageDao.getLanguageStats(KEY));
+            assertEquals(LANGUAGE_STATS, sharingStorageDao.getOnDiskMap().get(KEY));
+
+            // stats missing here are missing, so that the caller fetches them
+            assertNull(sharingStorageDao.getLanguageStats("other"));
+            assertNull(sharingStorageDao.getLanguageStatsJson("other"));
+
+            // startup goes on with the stats on disk
+            sharingStorageDao.clearStatsSnapshot();
+            sharingStorageDao.getInMemMap().clear();
+            assertEquals(Set.of(KEY), sharingStorageDao.loadAllLanguageStats());
+            assertEquals(LANGUAGE_STATS, sharingStorageDao.getLanguageStats(KEY));
+        } finally {
+            sharingStorageDao.destroy();
+        }
+    }
+
+    @Test
+    void testLoadingAllLanguageStatsTakesOverSharedStats() {
+        storageDao.getOnDiskMap().put(KEY, new LanguageStats(EMPTY_LANGUAGE_STAT_MAP, 1000));
+        storageDao.getOnDiskMap().put("other", new LanguageStats(EMPTY_LANGUAGE_STAT_MAP, 1000));
+        sharedStatsStore.getStats().put(KEY, new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 2000));
+        sharedStatsStore.getStats().put("other", new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 500));
+        sharedStatsStore.getStats().put("shared", LANGUAGE_STATS);
+
+        assertEquals(Set.of(KEY, "other", "shared"), storageDao.loadAllLanguageStats());
+
+        // only newer stats replace the ones on disk
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        assertEquals(EMPTY_LANGUAGE_STATS, storageDao.getLanguageStats("other"));
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats("shared"));
+        assertEquals(LanguageStatsJson.of(LANGUAGE_STATS), storageDao.getLanguageStatsJsonCache().get("shared"));
+    }
+
+    @Test
+    void testWritingSnapshotFile() {
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        storageDao.updateLanguageStats("other", EMPTY_LANGUAGE_STATS);
+        assertEquals(Set.of(KEY, "other"), storageDao.getUnsnapshottedMap().keySet());
+
+        storageDao.writeSnapshotFile();
+
+        assertTrue(Files.exists(storageDao.getSnapshotPath()));
+        assertTrue(storageDao.getUnsnapshottedMap().isEmpty());
+    }
+
+    @Test
+    void testStatsStoredWhileWritingSnapshotFileStayUnsnapshotted() {
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        storageDao.updateLanguageStats("other", EMPTY_LANGUAGE_STATS);
+        // as if newer stats were stored once the file had taken the ones above
+        storageDao.getUnsnapshottedMap().put(KEY, storageDao.getLanguageStats(KEY).getUpdatedAt() + 1);
+
+        storageDao.writeSnapshotFile();
+
+        assertEquals(Set.of(KEY), storageDao.getUnsnapshottedMap().keySet());
+    }
+
+    @Test
+    void testGettingLanguageStatsFromSnapshotFile() {
+        // the registry is shared by all tests in the context
+        final double fileHits = readCount("file");
+        final double diskHits = readCount("disk");
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        storageDao.writeSnapshotFile();
+        restart();
+
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        assertEquals(LanguageStatsJson.of(LANGUAGE_STATS), storageDao.getLanguageStatsJson(KEY));
+        assertNull(storageDao.getLanguageStats("other"));
+
+        assertEquals(fileHits + 1, readCount("file"));
+        assertEquals(diskHits, readCount("disk"));
+        assertEquals(LANGUAGE_STATS, storageDao.getStatsSnapshot().get(KEY));
+    }
+
+    @Test
+    void testStatsStoredAfterSnapshotFileAreReadFromDisk() {
+        final double fileHits = readCount("file");
+        storageDao.updateLanguageStats(KEY, EMPTY_LANGUAGE_STATS);
+        storageDao.writeSnapshotFile();
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        restart();
+
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        assertEquals(fileHits, readCount("file"));
+    }
+
+    @Test
+    void testLoadingAllLanguageStatsFromSnapshotFile() {
+        storageDao.updateLanguageStats(KEY, LANGUAGE_STATS);
+        storageDao.writeSnapshotFile();
+        storageDao.updateLanguageStats("other", EMPTY_LANGUAGE_STATS);
+        restart();
+
+        assertEquals(Set.of(KEY, "other"), storageDao.loadAllLanguageStats());
+
+        // nothing is read until requested
+        assertTrue(storageDao.getStatsSnapshot().isEmpty());
+        assertTrue(storageDao.getLanguageStatsJsonCache().isEmpty());
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        assertEquals(EMPTY_LANGUAGE_STATS, storageDao.getLanguageStats("other"));
+    }
+
+    @Test
+    void testLoadingAllLanguageStatsFromSnapshotFileTakesOverSharedStats() {
+        storageDao.updateLanguageStats(KEY, EMPTY_LANGUAGE_STATS);
+        storageDao.writeSnapshotFile();
+        restart();
+        final long updatedAt = storageDao.getLanguageStats(KEY).getUpdatedAt() + 1000;
+        storageDao.clearStatsSnapshot();
+        storageDao.getInMemMap().clear();
+        sharedStatsStore.getStats().put(KEY, new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, updatedAt));
+
+        storageDao.loadAllLanguageStats();
+
+        assertEquals(LANGUAGE_STATS, storageDao.getLanguageStats(KEY));
+        assertEquals(Set.of(KEY), storageDao.getUnsnapshottedMap().keySet());
+    }
+
+    @Test
+    void testEvictedStatsAreReloaded() {
+        // room for about three orgs on heap
+        final long maxSize = 3L * StorageDao.estimateSize(KEY + 0, LANGUAGE_STATS);
+        final StorageDao boundedStorageDao = boundedStorageDao(maxSize, DataSize.ofMegabytes(64).toBytes());
+        try {
+            for (int i = 0; i < 10; i++) {
+                boundedStorageDao.updateLanguageStats(KEY + i, LANGUAGE_STATS);
+            }
+
+            assertTrue(boundedStorageDao.getStatsSnapshot().size() <= 3);
+            assertEquals(10, boundedStorageDao.getInMemMap().size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(LANGUAGE_STATS, boundedStorageDao.getLanguageStats(KEY + i));
+            }
+            assertTrue(boundedStorageDao.getStatsSnapshot().size() <= 3);
+            assertTrue(boundedMeterRegistry.get("cache.evictions").tag("cache", "languageStats")
+                    .functionCounter().count() > 0);
+            assertTrue(boundedMeterRegistry.get("cache.gets").tag("cache", "languageStats").tag("result", "miss")
+                    .functionCounter().count() > 0);
+        } finally {
+            boundedStorageDao.destroy();
+        }
+    }
+
+    @Test
+    void testStatsSpilledFromMemoryAreReloadedFromDisk() {
+        final StorageDao boundedStorageDao = boundedStorageDao(0, 1);
+        try {
+            for (int i = 0; i < 10; i++) {
+                boundedStorageDao.updateLanguageStats(KEY + i, LANGUAGE_STATS);
+            }
+
+            assertTrue(boundedStorageDao.getInMemMap().size() < 10);
+            assertTrue(boundedMeterRegistry.get("stats.storage.spill.evictions").counter().count() > 0);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(LANGUAGE_STATS, boundedStorageDao.getLanguageStats(KEY + i));
+            }
+            assertTrue(boundedMeterRegistry.get("stats.storage.reads").tag("source", "disk").counter().count() > 0);
+        } finally {
+            boundedStorageDao.destroy();
+        }
+    }
+
+    @Test
+    void testEstimatedSizeGrowsWithStats() {
+        assertTrue(StorageDao.estimateSize(KEY, LANGUAGE_STATS) > StorageDao.estimateSize(KEY, EMPTY_LANGUAGE_STATS));
+        assertTrue(StorageDao.estimateSize(KEY, LanguageStatsJson.of(LANGUAGE_STATS))
+                > StorageDao.estimateSize(KEY, LanguageStatsJson.of(EMPTY_LANGUAGE_STATS)));
+    }
+
+    /**
+     * @return A DAO of its own (with a registry of its own, {@link #boundedMeterRegistry}), keeping at most the given
+     *         number of bytes of stats on heap, and of serialized stats in the in-memory MapDB map.
+     */
+    private StorageDao boundedStorageDao(final long statsMaxSize, final long spillMaxSize) {
+        boundedMeterRegistry = new SimpleMeterRegistry();
+        return new StorageDao("unused", "unused", Duration.ofSeconds(1), 100, DataSize.ofBytes(statsMaxSize),
+                DataSize.ofBytes(statsMaxSize), DataSize.ofBytes(spillMaxSize), false, env, boundedMeterRegistry,
+                new InMemorySharedStatsStore());
+    }
+
+    /**
+     * Drops everything kept in memory and maps the snapshot file again, as upon startup.
+     */
+    private void restart() {
+        storageDao.clearStatsSnapshot();
+        storageDao.getInMemMap().clear();
+        storageDao.getLanguageStatsJsonCache().clear();
+        storageDao.reopenSnapshotFile();
+    }
+
+    private long commitCount() {
+        return meterRegistry.get("stats.storage.commit.writes").summary().count();
+    }
+
+    private double readCount(final String source) {
+        return meterRegistry.get("stats.storage.reads").tag("source", source).counter().count();
+    }
+}
@@ -0,0 +1,93 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LanguageByteAccumulatorTest {
+
+    @Test
+    void testSums() {
+        final LanguageByteAccumulator accumulator = new LanguageByteAccumulator();
+        accumulator.add("Java", 20);
+        accumulator.add("Typescript", 60);
+        accumulator.add("Java", 20);
+
+        assertEquals(100, accumulator.getTotal());
+        assertEquals(Map.of("Java", 40L, "Typescript", 60L), accumulator.getByteCounts());
+        assertEquals(Map.of("Java", "0.40", "Typescript", "0.60"), accumulator.getPercentages());
+    }
+
+    @Test
+    void testEmpty() {
+        final LanguageByteAccumulator accumulator = new LanguageByteAccumulator();
+        accumulator.add("Java", 0);
+
+        assertEquals(0, accumulator.getTotal());
+        assertEquals(Map.of(), accumulator.getPercentages());
+    }
+
+    @Test
+    void testHalfEvenRounding() {
+        assertEquals(12, LanguageByteAccumulator.hundredths(1, 8)); // 0.125
+        assertEquals(38, LanguageByteAccumulator.hundredths(3, 8)); // 0.375
+        assertEquals(33, LanguageByteAccumulator.hundredths(1, 3));
+        assertEquals(67, LanguageByteAccumulator.hundredths(2, 3));
+        assertEquals(100, LanguageByteAccumulator.hundredths(7, 7));
+        assertEquals(0, LanguageByteAccumulator.hundredths(1, 1000));
+    }
+
+    @Test
+    void testFormat() {
+        assertEquals("0.00", LanguageByteAccumulator.format(0));
+        assertEquals("0.05", LanguageByteAccumulator.format(5));
+        assertEquals("0.40", LanguageByteAccumulator.format(40));
+        assertEquals("1.00", LanguageByteAccumulator.format(100));
+    }
+
+    @Test
+    void testHugeNumerator() {
+        assertEquals(50, LanguageByteAccumulator.hundredths(Long.MAX_VALUE / 2, Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    void testOverflow() {
+        final LanguageByteAccumulator accumulator = new LanguageByteAccumulator();
+        accumulator.add("Java", Long.MAX_VALUE);
+
+        assertThrows(ArithmeticException.class, () -> accumulator.add("Typescript", 1));
+    }
+
+    @Test
+    void testNegativeByteCount() {
+        assertThrows(IllegalArgumentException.class, () -> new LanguageByteAccumulator().add("Java", -1));
+    }
+
+    @Test
+    void testSameResultsAsBigDecimal() {
+        final Random random = new Random(42);
+        final LanguageByteAccumulator accumulator = new LanguageByteAccumulator();
+        final Map<String, Long> expectedSums = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            // many languages, to exercise growing the table
+            final String language = "Language" + random.nextInt(1000);
+            final long byteCnt = random.nextInt(1_000_000);
+            accumulator.add(language, byteCnt);
+            expectedSums.merge(language, byteCnt, Long::sum);
+        }
+
+        assertEquals(expectedSums, accumulator.getByteCounts());
+
+        final BigDecimal total = BigDecimal.valueOf(accumulator.getTotal());
+        final Map<String, String> expectedPercentages = new HashMap<>();
+        expectedSums.forEach((language, sum) -> expectedPercentages.put(language,
+                BigDecimal.valueOf(sum).divide(total, 2, RoundingMode.HALF_EVEN).toPlainString()));
+        assertEquals(expectedPercentages, accumulator.getPercentages());
+    }
+}
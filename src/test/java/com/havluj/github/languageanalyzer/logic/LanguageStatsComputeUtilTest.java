@@ -5,7 +5,6 @@ import com.havluj.github.languageanalyzer.dao.GitHubDao;
 import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
 import com.havluj.github.languageanalyzer.exceptions.OrgNotFoundException;
 import com.havluj.github.languageanalyzer.model.LanguageStats;
-import com.havluj.github.languageanalyzer.model.SupportedOrg;
 import org.junit.jupiter.api.Test;
 import org.kohsuke.github.GHOrganization;
 import org.kohsuke.github.GHRepository;
@@ -14,11 +13,17 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 
-import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class LanguageStatsComputeUtilTest extends BaseTest {
 
@@ -38,9 +43,9 @@ class LanguageStatsComputeUtilTest extends BaseTest {
                 .thenThrow(OrgNotFoundException.class);
 
         assertThrows(OrgNotFoundException.class,
-                () -> languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(SupportedOrg.PRODUCTBOARD));
+                () -> languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
-                .getOrg(SupportedOrg.PRODUCTBOARD.getOrgName());
+                .getOrg(PRODUCTBOARD.getOrgName());
         Mockito.verifyNoMoreInteractions(gitHubDaoMock);
     }
 
@@ -48,15 +53,15 @@ class LanguageStatsComputeUtilTest extends BaseTest {
     void testIoExceptionWhenGettingRepositories() {
         Mockito.when(gitHubDaoMock.getOrg(Mockito.any()))
                 .thenReturn(organizationMock);
-        Mockito.when(gitHubDaoMock.listOrgRepos(organizationMock))
-                .thenThrow(GitHubIoErrorException.class);
+        Mockito.when(gitHubDaoMock.listOrgRepoPages(organizationMock))
+                .thenReturn(failingPages());
 
         assertThrows(GitHubIoErrorException.class,
-                () -> languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(SupportedOrg.PRODUCTBOARD));
+                () -> languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
-                .getOrg(SupportedOrg.PRODUCTBOARD.getOrgName());
+                .getOrg(PRODUCTBOARD.getOrgName());
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
-                .listOrgRepos(organizationMock);
+                .listOrgRepoPages(organizationMock);
         Mockito.verifyNoMoreInteractions(gitHubDaoMock);
     }
 
@@ -64,17 +69,16 @@ class LanguageStatsComputeUtilTest extends BaseTest {
     void testNoRepositories() {
         Mockito.when(gitHubDaoMock.getOrg(Mockito.any()))
                 .thenReturn(organizationMock);
-        Mockito.when(gitHubDaoMock.listOrgRepos(organizationMock))
-                .thenReturn(new ArrayList<>());
+        stubPages();
 
-        LanguageStats res = languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(SupportedOrg.PRODUCTBOARD);
+        LanguageStats res = languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD);
 
         assertEquals(EMPTY_LANGUAGE_STATS, res);
 
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
-                .getOrg(SupportedOrg.PRODUCTBOARD.getOrgName());
+                .getOrg(PRODUCTBOARD.getOrgName());
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
-                .listOrgRepos(organizationMock);
+                .listOrgRepoPages(organizationMock);
         Mockito.verifyNoMoreInteractions(gitHubDaoMock);
     }
 
@@ -82,18 +86,17 @@ class LanguageStatsComputeUtilTest extends BaseTest {
     void testRepoReadFailure() {
         Mockito.when(gitHubDaoMock.getOrg(Mockito.any()))
                 .thenReturn(organizationMock);
-        Mockito.when(gitHubDaoMock.listOrgRepos(organizationMock))
-                .thenReturn(List.of(repository1Mock));
+        stubPages(List.of(repository1Mock));
         Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock))
                 .thenThrow(GitHubIoErrorException.class);
 
         assertThrows(GitHubIoErrorException.class,
-                () -> languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(SupportedOrg.PRODUCTBOARD));
+                () -> languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
 
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
-                .getOrg(SupportedOrg.PRODUCTBOARD.getOrgName());
+                .getOrg(PRODUCTBOARD.getOrgName());
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
-                .listOrgRepos(organizationMock);
+                .listOrgRepoPages(organizationMock);
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
                 .listRepoLanguages(repository1Mock);
         Mockito.verifyNoMoreInteractions(gitHubDaoMock);
@@ -103,25 +106,180 @@ class LanguageStatsComputeUtilTest extends BaseTest {
     void testHappyCase() {
         Mockito.when(gitHubDaoMock.getOrg(Mockito.any()))
                 .thenReturn(organizationMock);
-        Mockito.when(gitHubDaoMock.listOrgRepos(organizationMock))
-                .thenReturn(List.of(repository1Mock, repository2Mock));
+        stubPages(List.of(repository1Mock, repository2Mock));
         Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock))
                 .thenReturn(REPO_STAT_1);
         Mockito.when(gitHubDaoMock.listRepoLanguages(repository2Mock))
                 .thenReturn(REPO_STAT_2);
 
-        LanguageStats res = languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(SupportedOrg.PRODUCTBOARD);
+        LanguageStats res = languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD);
 
         assertEquals(LANGUAGE_STATS, res);
 
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
-                .getOrg(SupportedOrg.PRODUCTBOARD.getOrgName());
+                .getOrg(PRODUCTBOARD.getOrgName());
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
-                .listOrgRepos(organizationMock);
+                .listOrgRepoPages(organizationMock);
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
                 .listRepoLanguages(repository1Mock);
         Mockito.verify(gitHubDaoMock, Mockito.times(1))
                 .listRepoLanguages(repository2Mock);
         Mockito.verifyNoMoreInteractions(gitHubDaoMock);
     }
+
+    @Test
+    void testIncrementalRefresh() {
+        final Date pushedAt = new Date(1_000L);
+        stubRepo(repository1Mock, pushedAt);
+        stubRepo(repository2Mock, pushedAt);
+        Mockito.when(gitHubDaoMock.getOrg(Mockito.any()))
+                .thenReturn(organizationMock);
+        stubPages(List.of(repository1Mock, repository2Mock));
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock))
+                .thenReturn(REPO_STAT_1);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository2Mock))
+                .thenReturn(REPO_STAT_2);
+
+        assertEquals(LANGUAGE_STATS, languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
+
+        // only the second repo was pushed to since the first refresh
+        Mockito.when(repository2Mock.getPushedAt()).thenReturn(new Date(2_000L));
+        assertEquals(LANGUAGE_STATS, languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
+
+        Mockito.verify(gitHubDaoMock, Mockito.times(1))
+                .listRepoLanguages(repository1Mock);
+        Mockito.verify(gitHubDaoMock, Mockito.times(2))
+                .listRepoLanguages(repository2Mock);
+    }
+
+    @Test
+    void testDeletedRepoIsDropped() {
+        final Date pushedAt = new Date(1_000L);
+        stubRepo(repository1Mock, pushedAt);
+        stubRepo(repository2Mock, pushedAt);
+        Mockito.when(gitHubDaoMock.getOrg(Mockito.any()))
+                .thenReturn(organizationMock);
+        stubPages(List.of(repository1Mock, repository2Mock));
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock))
+                .thenReturn(REPO_STAT_1);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository2Mock))
+                .thenReturn(REPO_STAT_2);
+
+        assertEquals(LANGUAGE_STATS, languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
+
+        stubPages(List.of(repository2Mock));
+        assertEquals(new LanguageStats(Map.of(JAVA, "1.00"), Map.of(JAVA, 20L), 0),
+                languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
+
+        Mockito.verify(gitHubDaoMock, Mockito.times(1))
+                .listRepoLanguages(repository1Mock);
+        Mockito.verify(gitHubDaoMock, Mockito.times(1))
+                .listRepoLanguages(repository2Mock);
+    }
+
+    @Test
+    void testMultiplePages() {
+        stubPages(List.of(repository1Mock), List.of(repository2Mock));
+        Mockito.when(gitHubDaoMock.getOrg(Mockito.any()))
+                .thenReturn(organizationMock);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock))
+                .thenReturn(REPO_STAT_1);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository2Mock))
+                .thenReturn(REPO_STAT_2);
+
+        assertEquals(LANGUAGE_STATS, languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
+    }
+
+    @Test
+    void testLanguagesAreFetchedBeforeListingFinishes() {
+        final CountDownLatch firstPageFetched = new CountDownLatch(1);
+        Mockito.when(gitHubDaoMock.getOrg(Mockito.any()))
+                .thenReturn(organizationMock);
+        final Iterator<List<GHRepository>> pages = new Iterator<>() {
+            private int page;
+
+            @Override
+            public boolean hasNext() {
+                if (page == 1) {
+                    // the last page arrives only once languages of the first one are fetched
+                    try {
+                        assertTrue(firstPageFetched.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return page < 2;
+            }
+
+            @Override
+            public List<GHRepository> next() {
+                return List.of(page++ == 0 ? repository1Mock : repository2Mock);
+            }
+        };
+        Mockito.when(gitHubDaoMock.listOrgRepoPages(organizationMock)).thenReturn(pages);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock)).thenAnswer(invocation -> {
+            firstPageFetched.countDown();
+            return REPO_STAT_1;
+        });
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository2Mock))
+                .thenReturn(REPO_STAT_2);
+
+        assertEquals(LANGUAGE_STATS, languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
+    }
+
+    @Test
+    void testIoExceptionWhenGettingLaterPage() {
+        Mockito.when(gitHubDaoMock.getOrg(Mockito.any()))
+                .thenReturn(organizationMock);
+        final Iterator<List<GHRepository>> failing = failingPages();
+        final Iterator<List<GHRepository>> pages = new Iterator<>() {
+            private boolean first = true;
+
+            @Override
+            public boolean hasNext() {
+                return first || failing.hasNext();
+            }
+
+            @Override
+            public List<GHRepository> next() {
+                first = false;
+                return List.of(repository1Mock);
+            }
+        };
+        Mockito.when(gitHubDaoMock.listOrgRepoPages(organizationMock)).thenReturn(pages);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock))
+                .thenReturn(REPO_STAT_1);
+
+        assertThrows(GitHubIoErrorException.class,
+                () -> languageStatsComputeUtil.fetchFreshLanguageStatsForOrg(PRODUCTBOARD));
+    }
+
+    /**
+     * Every listing of the org's repos returns the given pages.
+     */
+    @SafeVarargs
+    private void stubPages(final List<GHRepository>... pages) {
+        Mockito.when(gitHubDaoMock.listOrgRepoPages(organizationMock))
+                .thenAnswer(invocation -> List.of(pages).iterator());
+    }
+
+    private static Iterator<List<GHRepository>> failingPages() {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                throw new GitHubIoErrorException();
+            }
+
+            @Override
+            public List<GHRepository> next() {
+                throw new GitHubIoErrorException();
+            }
+        };
+    }
+
+    private static void stubRepo(final GHRepository repoMock, final Date pushedAt) {
+        // unique names, so that snapshots stored by other tests don't interfere
+        Mockito.when(repoMock.getName()).thenReturn(UUID.randomUUID().toString());
+        Mockito.when(repoMock.getPushedAt()).thenReturn(pushedAt);
+    }
 }
\ No newline at end of file
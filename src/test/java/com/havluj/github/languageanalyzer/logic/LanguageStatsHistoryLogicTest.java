@@ -0,0 +1,86 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.BaseTest;
+import com.havluj.github.languageanalyzer.dao.StatsHistoryDao;
+import com.havluj.github.languageanalyzer.exceptions.InvalidHistoryRangeException;
+import com.havluj.github.languageanalyzer.model.HistoryResolution;
+import com.havluj.github.languageanalyzer.model.StatsView;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LanguageStatsHistoryLogicTest extends BaseTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 1, 1);
+
+    @MockBean
+    private StatsHistoryDao statsHistoryDaoMock;
+
+    @Autowired
+    private LanguageStatsHistoryLogic languageStatsHistoryLogic;
+
+    @Test
+    void testHistoryIsProjected() {
+        final TreeMap<LocalDate, Map<String, Long>> history = new TreeMap<>(Map.of(
+                DAY, LANGUAGE_BYTE_COUNTS,
+                DAY.plusDays(1), Map.of(JAVA, 20L)));
+        Mockito.when(statsHistoryDaoMock.getHistory(PRODUCTBOARD.getOrgName(), DAY, DAY.plusDays(1),
+                HistoryResolution.DAY)).thenReturn(history);
+
+        final Map<String, Map<String, Object>> res = languageStatsHistoryLogic.getHistory(PRODUCTBOARD, DAY,
+                DAY.plusDays(1), null, StatsView.DEFAULT);
+
+        assertEquals(Map.of("2024-01-01", LANGUAGE_STAT_MAP, "2024-01-02", Map.of(JAVA, "1.00")), res);
+        assertEquals(List.of("2024-01-01", "2024-01-02"), List.copyOf(res.keySet()));
+    }
+
+    @Test
+    void testDefaultRange() {
+        Mockito.when(statsHistoryDaoMock.getHistory(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(new TreeMap<>());
+        final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+        assertTrue(languageStatsHistoryLogic.getHistory(PRODUCTBOARD, null, null, null, StatsView.DEFAULT).isEmpty());
+        Mockito.verify(statsHistoryDaoMock, Mockito.times(1)).getHistory(PRODUCTBOARD.getOrgName(),
+                today.minusDays(LanguageStatsHistoryLogic.DEFAULT_DAYS), today, HistoryResolution.DAY);
+    }
+
+    @Test
+    void testResolutionIsPickedByRange() {
+        // at most 120 points by default
+        assertEquals(HistoryResolution.DAY, languageStatsHistoryLogic.resolutionFor(DAY, DAY.plusDays(119)));
+        assertEquals(HistoryResolution.WEEK, languageStatsHistoryLogic.resolutionFor(DAY, DAY.plusDays(120)));
+        assertEquals(HistoryResolution.WEEK, languageStatsHistoryLogic.resolutionFor(DAY, DAY.plusYears(2)));
+        assertEquals(HistoryResolution.MONTH, languageStatsHistoryLogic.resolutionFor(DAY, DAY.plusYears(5)));
+        assertEquals(HistoryResolution.MONTH, languageStatsHistoryLogic.resolutionFor(DAY, DAY.plusYears(50)));
+    }
+
+    @Test
+    void testInvalidRanges() {
+        assertThrows(InvalidHistoryRangeException.class, () -> languageStatsHistoryLogic.getHistory(PRODUCTBOARD,
+                DAY.plusDays(1), DAY, null, StatsView.DEFAULT));
+        assertThrows(InvalidHistoryRangeException.class, () -> languageStatsHistoryLogic.getHistory(PRODUCTBOARD,
+                DAY, DAY, "hour", StatsView.DEFAULT));
+        assertThrows(InvalidHistoryRangeException.class, () -> languageStatsHistoryLogic.getHistory(PRODUCTBOARD,
+                DAY, DAY.plusYears(1), "day", StatsView.DEFAULT));
+        assertThrows(InvalidHistoryRangeException.class, () -> languageStatsHistoryLogic.getHistory(PRODUCTBOARD,
+                DAY, DAY.plusYears(50), null, StatsView.DEFAULT));
+        Mockito.verifyNoInteractions(statsHistoryDaoMock);
+    }
+
+    @Test
+    void testFailedRecordIsLogged() {
+        Mockito.doThrow(new IllegalStateException()).when(statsHistoryDaoMock).record(Mockito.any(), Mockito.any());
+
+        assertDoesNotThrow(() -> languageStatsHistoryLogic.record(PRODUCTBOARD, LANGUAGE_STATS));
+    }
+}
@@ -1,15 +1,28 @@
 package com.havluj.github.languageanalyzer.logic;
 
 import com.havluj.github.languageanalyzer.BaseTest;
+import com.havluj.github.languageanalyzer.dao.GitHubRequestScheduler;
+import com.havluj.github.languageanalyzer.dao.GitHubRequestScheduler.Priority;
 import com.havluj.github.languageanalyzer.dao.StorageDao;
+import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
 import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
 import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class LanguageStatsLogicTest extends BaseTest {
@@ -21,19 +34,27 @@ class LanguageStatsLogicTest extends BaseTest {
 
     @Autowired
     private LanguageStatsLogic languageStatsLogic;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        // stored as they are
+        Mockito.when(storageDaoMock.updateLanguageStats(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+    }
 
     @Test
     void testRefreshStatsInvocations() {
         ArgumentCaptor<SupportedOrg> valueCapture = ArgumentCaptor.forClass(SupportedOrg.class);
-        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrg(valueCapture.capture()))
-                .thenReturn(LANGUAGE_STATS);
-        Mockito.doNothing().when(storageDaoMock).updateLanguageStats(Mockito.any(), Mockito.any());
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(valueCapture.capture()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
 
-        languageStatsLogic.refreshStats(SupportedOrg.PRODUCTBOARD);
+        languageStatsLogic.refreshStats(PRODUCTBOARD);
 
-        assertEquals(SupportedOrg.PRODUCTBOARD, valueCapture.getValue());
+        assertEquals(PRODUCTBOARD, valueCapture.getValue());
         Mockito.verify(languageStatsComputeUtilMock, Mockito.times(1))
-                .fetchFreshLanguageStatsForOrg(valueCapture.getValue());
+                .fetchFreshLanguageStatsForOrgAsync(valueCapture.getValue());
         Mockito.verifyNoMoreInteractions(languageStatsComputeUtilMock);
         Mockito.verify(storageDaoMock, Mockito.times(1))
                 .updateLanguageStats(valueCapture.getValue().getOrgName(), LANGUAGE_STATS);
@@ -44,11 +65,11 @@ class LanguageStatsLogicTest extends BaseTest {
     void testGetStatsDbHit() {
         ArgumentCaptor<String> valueCapture = ArgumentCaptor.forClass(String.class);
         Mockito.when(storageDaoMock.getLanguageStats(valueCapture.capture()))
-                .thenReturn(LANGUAGE_STAT_MAP);
+                .thenReturn(new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, System.currentTimeMillis()));
 
-        LanguageStats res = languageStatsLogic.getLanguageStatsForOrg(SupportedOrg.PRODUCTBOARD);
+        LanguageStats res = languageStatsLogic.getLanguageStatsForOrg(PRODUCTBOARD);
 
-        assertEquals(SupportedOrg.PRODUCTBOARD.getOrgName(), valueCapture.getValue());
+        assertEquals(PRODUCTBOARD.getOrgName(), valueCapture.getValue());
         assertEquals(LANGUAGE_STATS, res);
 
         Mockito.verify(storageDaoMock, Mockito.times(1))
@@ -64,22 +85,290 @@ class LanguageStatsLogicTest extends BaseTest {
         ArgumentCaptor<String> valueCapture = ArgumentCaptor.forClass(String.class);
         Mockito.when(storageDaoMock.getLanguageStats(valueCapture.capture()))
                 .thenReturn(null);
-        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrg(Mockito.any()))
-                .thenReturn(LANGUAGE_STATS);
-        Mockito.doNothing().when(storageDaoMock).updateLanguageStats(Mockito.any(), Mockito.any());
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
 
-        LanguageStats res = languageStatsLogic.getLanguageStatsForOrg(SupportedOrg.PRODUCTBOARD);
+        LanguageStats res = languageStatsLogic.getLanguageStatsForOrg(PRODUCTBOARD);
 
-        assertEquals(SupportedOrg.PRODUCTBOARD.getOrgName(), valueCapture.getValue());
+        assertEquals(PRODUCTBOARD.getOrgName(), valueCapture.getValue());
         assertEquals(LANGUAGE_STATS, res);
 
         Mockito.verify(storageDaoMock, Mockito.times(1))
                 .getLanguageStats(valueCapture.getValue());
         Mockito.verify(languageStatsComputeUtilMock, Mockito.times(1))
-                .fetchFreshLanguageStatsForOrg(SupportedOrg.fromName(valueCapture.getValue()));
+                .fetchFreshLanguageStatsForOrgAsync(new SupportedOrg(valueCapture.getValue()));
         Mockito.verify(storageDaoMock, Mockito.times(1))
                 .updateLanguageStats(valueCapture.getValue(), LANGUAGE_STATS);
         Mockito.verifyNoMoreInteractions(storageDaoMock);
         Mockito.verifyNoMoreInteractions(languageStatsComputeUtilMock);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testConcurrentDbMissesAreCoalesced() {
+        final CompletableFuture<LanguageStats> fetch = new CompletableFuture<>();
+        Mockito.when(storageDaoMock.getLanguageStats(Mockito.any()))
+                .thenReturn(null);
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(fetch);
+        final long coalescedBefore = languageStatsLogic.getCoalescedFetchCount();
+
+        final CompletableFuture<LanguageStats> first = languageStatsLogic.getLanguageStatsForOrgAsync(PRODUCTBOARD);
+        final CompletableFuture<LanguageStats> second = languageStatsLogic.getLanguageStatsForOrgAsync(PRODUCTBOARD);
+        assertEquals(1, languageStatsLogic.getInFlightFetchCount());
+        fetch.complete(LANGUAGE_STATS);
+
+        assertEquals(LANGUAGE_STATS, first.join());
+        assertEquals(LANGUAGE_STATS, second.join());
+        assertEquals(coalescedBefore + 1, languageStatsLogic.getCoalescedFetchCount());
+        assertEquals(0, languageStatsLogic.getInFlightFetchCount());
+        Mockito.verify(languageStatsComputeUtilMock, Mockito.times(1))
+                .fetchFreshLanguageStatsForOrgAsync(PRODUCTBOARD);
+        Mockito.verify(storageDaoMock, Mockito.times(1))
+                .updateLanguageStats(PRODUCTBOARD.getOrgName(), LANGUAGE_STATS);
+    }
+
+    @Test
+    void testInteractiveCallerPromotesBackgroundRefresh() {
+        final CompletableFuture<LanguageStats> fetch = new CompletableFuture<>();
+        final List<Priority> priorities = new ArrayList<>();
+        Mockito.when(storageDaoMock.getLanguageStats(Mockito.any()))
+                .thenReturn(null);
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(PRODUCTBOARD))
+                .thenAnswer(invocation -> {
+                    priorities.add(GitHubRequestScheduler.currentPriority());
+                    return fetch;
+                });
+        final long interactive = refreshCount(PRODUCTBOARD, "INTERACTIVE", "SUCCESS");
+
+        final CompletableFuture<LanguageStats> refresh = languageStatsLogic.refreshStatsAsync(PRODUCTBOARD);
+        final CompletableFuture<LanguageStats> waiting = languageStatsLogic.getLanguageStatsForOrgAsync(PRODUCTBOARD);
+        fetch.complete(LANGUAGE_STATS);
+
+        assertEquals(LANGUAGE_STATS, refresh.join());
+        assertEquals(LANGUAGE_STATS, waiting.join());
+        // a single fetch, started as a background one and finished as an interactive one
+        assertEquals(List.of(Priority.BACKGROUND), priorities);
+        assertEquals(interactive + 1, refreshCount(PRODUCTBOARD, "INTERACTIVE", "SUCCESS"));
+    }
+
+    @Test
+    void testFetchesAreMetered() {
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(PRODUCTBOARD))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(DN))
+                .thenReturn(CompletableFuture.failedFuture(new GitHubIoErrorException()));
+        // the registry is shared by all tests in the context
+        final long succeeded = refreshCount(PRODUCTBOARD, "SUCCESS");
+        final long failed = refreshCount(DN, "ERROR");
+
+        languageStatsLogic.refreshStats(PRODUCTBOARD);
+        assertThrows(GitHubIoErrorException.class, () -> languageStatsLogic.refreshStats(DN));
+
+        assertEquals(succeeded + 1, refreshCount(PRODUCTBOARD, "SUCCESS"));
+        assertEquals(failed + 1, refreshCount(DN, "ERROR"));
+        assertEquals(languageStatsLogic.getStartedFetchCount(),
+                meterRegistry.get("stats.fetches.started").functionCounter().count());
+        assertEquals(languageStatsLogic.getCoalescedFetchCount(),
+                meterRegistry.get("stats.fetches.coalesced").functionCounter().count());
+        assertEquals(0, meterRegistry.get("stats.fetches.in.flight").gauge().value());
+    }
+
+    @Test
+    void testGetStatsPastSoftTtl() {
+        final CompletableFuture<LanguageStats> fetch = new CompletableFuture<>();
+        Mockito.when(storageDaoMock.getLanguageStats(Mockito.any()))
+                .thenReturn(new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS,
+                        System.currentTimeMillis() - Duration.ofHours(26).toMillis()));
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(fetch);
+
+        // stale stats are returned right away, even though the refresh didn't finish yet
+        assertEquals(LANGUAGE_STATS, languageStatsLogic.getLanguageStatsForOrg(PRODUCTBOARD));
+        Mockito.verify(languageStatsComputeUtilMock, Mockito.times(1))
+                .fetchFreshLanguageStatsForOrgAsync(PRODUCTBOARD);
+        Mockito.verify(storageDaoMock, Mockito.never())
+                .updateLanguageStats(Mockito.any(), Mockito.any());
+
+        fetch.complete(EMPTY_LANGUAGE_STATS);
+        Mockito.verify(storageDaoMock, Mockito.times(1))
+                .updateLanguageStats(PRODUCTBOARD.getOrgName(), EMPTY_LANGUAGE_STATS);
+    }
+
+    @Test
+    void testGetStatsWithUnknownAge() {
+        Mockito.when(storageDaoMock.getLanguageStats(Mockito.any()))
+                .thenReturn(LANGUAGE_STATS);
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(EMPTY_LANGUAGE_STATS));
+
+        assertEquals(LANGUAGE_STATS, languageStatsLogic.getLanguageStatsForOrg(PRODUCTBOARD));
+        Mockito.verify(languageStatsComputeUtilMock, Mockito.times(1))
+                .fetchFreshLanguageStatsForOrgAsync(PRODUCTBOARD);
+    }
+
+    @Test
+    void testGetStatsPastHardTtl() {
+        Mockito.when(storageDaoMock.getLanguageStats(Mockito.any()))
+                .thenReturn(new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS,
+                        System.currentTimeMillis() - Duration.ofDays(8).toMillis()));
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(EMPTY_LANGUAGE_STATS));
+
+        // too old to serve, fresh stats are returned instead
+        assertEquals(EMPTY_LANGUAGE_STATS, languageStatsLogic.getLanguageStatsForOrg(PRODUCTBOARD));
+        Mockito.verify(storageDaoMock, Mockito.times(1))
+                .updateLanguageStats(PRODUCTBOARD.getOrgName(), EMPTY_LANGUAGE_STATS);
+    }
+
+    @Test
+    void testGetStatsWithByteCounts() {
+        final LanguageStats stored = new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS,
+                System.currentTimeMillis());
+        Mockito.when(storageDaoMock.getLanguageStats(PRODUCTBOARD.getOrgName())).thenReturn(stored);
+
+        assertSame(stored, languageStatsLogic.getLanguageStatsWithByteCountsForOrg(PRODUCTBOARD));
+        Mockito.verifyNoInteractions(languageStatsComputeUtilMock);
+    }
+
+    @Test
+    void testGetStatsWithoutByteCounts() {
+        // stored by an older version, fresh otherwise
+        final LanguageStats legacy = new LanguageStats(LANGUAGE_STAT_MAP, System.currentTimeMillis());
+        final LanguageStats refreshed = new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS,
+                System.currentTimeMillis());
+        Mockito.when(storageDaoMock.getLanguageStats(PRODUCTBOARD.getOrgName())).thenReturn(legacy, refreshed);
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        assertSame(refreshed, languageStatsLogic.getLanguageStatsWithByteCountsForOrg(PRODUCTBOARD));
+        Mockito.verify(storageDaoMock, Mockito.times(1))
+                .updateLanguageStats(PRODUCTBOARD.getOrgName(), LANGUAGE_STATS);
+    }
+
+    @Test
+    void testGetStatsJsonHit() {
+        final LanguageStatsJson json = LanguageStatsJson.of(
+                new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, System.currentTimeMillis()));
+        Mockito.when(storageDaoMock.getLanguageStatsJson(PRODUCTBOARD.getOrgName())).thenReturn(json);
+
+        assertSame(json, languageStatsLogic.getLanguageStatsJsonForOrg(PRODUCTBOARD));
+        Mockito.verify(storageDaoMock, Mockito.times(1))
+                .getLanguageStatsJson(PRODUCTBOARD.getOrgName());
+        Mockito.verifyNoMoreInteractions(storageDaoMock);
+        Mockito.verifyNoInteractions(languageStatsComputeUtilMock);
+    }
+
+    @Test
+    void testGetStatsJsonMiss() {
+        final LanguageStatsJson json = LanguageStatsJson.of(LANGUAGE_STATS);
+        Mockito.when(storageDaoMock.getLanguageStatsJson(PRODUCTBOARD.getOrgName())).thenReturn(null);
+        Mockito.when(storageDaoMock.getLanguageStatsJson(PRODUCTBOARD.getOrgName(), LANGUAGE_STATS)).thenReturn(json);
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        assertSame(json, languageStatsLogic.getLanguageStatsJsonForOrg(PRODUCTBOARD));
+        Mockito.verify(storageDaoMock, Mockito.times(1))
+                .updateLanguageStats(PRODUCTBOARD.getOrgName(), LANGUAGE_STATS);
+        // counted as a single access
+        Mockito.verify(storageDaoMock, Mockito.times(1))
+                .getLanguageStatsJson(PRODUCTBOARD.getOrgName());
+    }
+
+    @Test
+    void testGetStatsJsonPastSoftTtl() {
+        final LanguageStatsJson json = LanguageStatsJson.of(new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS,
+                System.currentTimeMillis() - Duration.ofHours(26).toMillis()));
+        Mockito.when(storageDaoMock.getLanguageStatsJson(Mockito.any())).thenReturn(json);
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(new CompletableFuture<>());
+
+        assertSame(json, languageStatsLogic.getLanguageStatsJsonForOrg(PRODUCTBOARD));
+        Mockito.verify(languageStatsComputeUtilMock, Mockito.times(1))
+                .fetchFreshLanguageStatsForOrgAsync(PRODUCTBOARD);
+    }
+
+    @Test
+    void testGetStatsJsonPastHardTtl() {
+        final LanguageStatsJson stale = LanguageStatsJson.of(new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS,
+                System.currentTimeMillis() - Duration.ofDays(8).toMillis()));
+        final LanguageStatsJson fresh = LanguageStatsJson.of(EMPTY_LANGUAGE_STATS);
+        Mockito.when(storageDaoMock.getLanguageStatsJson(Mockito.any())).thenReturn(stale);
+        Mockito.when(storageDaoMock.getLanguageStatsJson(PRODUCTBOARD.getOrgName(), EMPTY_LANGUAGE_STATS))
+                .thenReturn(fresh);
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(EMPTY_LANGUAGE_STATS));
+
+        assertSame(fresh, languageStatsLogic.getLanguageStatsJsonForOrg(PRODUCTBOARD));
+        Mockito.verify(storageDaoMock, Mockito.times(1))
+                .updateLanguageStats(PRODUCTBOARD.getOrgName(), EMPTY_LANGUAGE_STATS);
+        Mockito.verify(storageDaoMock, Mockito.times(1)).getLanguageStatsJson(PRODUCTBOARD.getOrgName());
+    }
+
+    @Test
+    void testGetStatsJsonForOrgsHitsAndMisses() {
+        final LanguageStatsJson stored = LanguageStatsJson.of(
+                new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, System.currentTimeMillis()));
+        final LanguageStatsJson fetched = LanguageStatsJson.of(EMPTY_LANGUAGE_STATS);
+        Mockito.when(storageDaoMock.getLanguageStatsJsonBatch(List.of(PRODUCTBOARD.getOrgName(), DN.getOrgName())))
+                .thenReturn(Map.of(PRODUCTBOARD.getOrgName(), stored));
+        Mockito.when(storageDaoMock.getLanguageStatsJson(DN.getOrgName(), EMPTY_LANGUAGE_STATS)).thenReturn(fetched);
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(DN))
+                .thenReturn(CompletableFuture.completedFuture(EMPTY_LANGUAGE_STATS));
+
+        final Map<SupportedOrg, LanguageStatsJson> res =
+                languageStatsLogic.getLanguageStatsJsonForOrgs(List.of(PRODUCTBOARD, DN));
+
+        assertEquals(List.of(PRODUCTBOARD, DN), new ArrayList<>(res.keySet()));
+        assertSame(stored, res.get(PRODUCTBOARD));
+        assertSame(fetched, res.get(DN));
+        Mockito.verify(storageDaoMock, Mockito.times(1)).updateLanguageStats(DN.getOrgName(), EMPTY_LANGUAGE_STATS);
+        Mockito.verify(languageStatsComputeUtilMock, Mockito.never()).fetchFreshLanguageStatsForOrgAsync(PRODUCTBOARD);
+        // fetched stats are not read (and counted) again
+        Mockito.verify(storageDaoMock, Mockito.times(1)).getLanguageStatsJsonBatch(Mockito.any());
+    }
+
+    @Test
+    void testGetStatsJsonForOrgsFetchesMissesConcurrently() {
+        final CompletableFuture<LanguageStats> productboardFetch = new CompletableFuture<>();
+        final CompletableFuture<LanguageStats> dnFetch = new CompletableFuture<>();
+        Mockito.when(storageDaoMock.getLanguageStatsJsonBatch(Mockito.any())).thenReturn(Map.of());
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(PRODUCTBOARD))
+                .thenReturn(productboardFetch);
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(DN)).thenReturn(dnFetch);
+
+        final CompletableFuture<Map<SupportedOrg, LanguageStatsJson>> res = CompletableFuture.supplyAsync(
+                () -> languageStatsLogic.getLanguageStatsJsonForOrgs(List.of(PRODUCTBOARD, DN)));
+
+        // both fetches start before either of them finishes
+        Mockito.verify(languageStatsComputeUtilMock, Mockito.timeout(5000)).fetchFreshLanguageStatsForOrgAsync(PRODUCTBOARD);
+        Mockito.verify(languageStatsComputeUtilMock, Mockito.timeout(5000)).fetchFreshLanguageStatsForOrgAsync(DN);
+        assertFalse(res.isDone());
+
+        productboardFetch.complete(LANGUAGE_STATS);
+        dnFetch.complete(LANGUAGE_STATS);
+        res.join();
+    }
+
+    @Test
+    void testGetStatsJsonForOrgsFailedFetch() {
+        Mockito.when(storageDaoMock.getLanguageStatsJsonBatch(Mockito.any())).thenReturn(Map.of());
+        Mockito.when(languageStatsComputeUtilMock.fetchFreshLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.failedFuture(new GitHubIoErrorException()));
+
+        assertThrows(GitHubIoErrorException.class,
+                () -> languageStatsLogic.getLanguageStatsJsonForOrgs(List.of(PRODUCTBOARD, DN)));
+    }
+
+    private long refreshCount(final SupportedOrg org, final String outcome) {
+        return refreshCount(org, "BACKGROUND", outcome);
+    }
+
+    private long refreshCount(final SupportedOrg org, final String priority, final String outcome) {
+        final Timer timer = meterRegistry.find("stats.refresh")
+                .tag("org", org.getOrgName())
+                .tag("priority", priority)
+                .tag("outcome", outcome)
+                .timer();
+        return timer == null ? 0 : timer.count();
+    }
+}
@@ -0,0 +1,131 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.BaseTest;
+import com.havluj.github.languageanalyzer.exceptions.InvalidStatsViewException;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.LanguageStatsJson;
+import com.havluj.github.languageanalyzer.model.StatsView;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LanguageStatsViewLogicTest extends BaseTest {
+
+    @MockBean
+    private LanguageStatsLogic languageStatsLogicMock;
+
+    @Autowired
+    private LanguageStatsViewLogic languageStatsViewLogic;
+
+    @Test
+    void testDefaultViewIsServedAsStored() {
+        final LanguageStatsJson json = LanguageStatsJson.of(LANGUAGE_STATS);
+        Mockito.when(languageStatsLogicMock.getLanguageStatsJsonForOrg(PRODUCTBOARD)).thenReturn(json);
+
+        assertSame(json, languageStatsViewLogic.getLanguageStatsJsonForOrg(PRODUCTBOARD, StatsView.DEFAULT));
+        assertSame(json, languageStatsViewLogic.getLanguageStatsJsonForOrg(PRODUCTBOARD,
+                StatsView.of("percent", null, 2)));
+        Mockito.verify(languageStatsLogicMock, Mockito.never()).getLanguageStatsWithByteCountsForOrg(Mockito.any());
+    }
+
+    @Test
+    void testProjectedView() {
+        Mockito.when(languageStatsLogicMock.getLanguageStatsWithByteCountsForOrg(PRODUCTBOARD))
+                .thenReturn(new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 1234L));
+
+        final LanguageStatsJson json = languageStatsViewLogic.getLanguageStatsJsonForOrg(PRODUCTBOARD,
+                StatsView.of("bytes", 1, null));
+
+        assertEquals("{\"Typescript\":60}", new String(json.getBody(), StandardCharsets.UTF_8));
+        assertEquals(1234L, json.getUpdatedAt());
+        Mockito.verify(languageStatsLogicMock, Mockito.never()).getLanguageStatsJsonForOrg(Mockito.any());
+    }
+
+    @Test
+    void testViewIsCachedUntilStatsChange() {
+        final LanguageStats stats = new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 1L);
+        final LanguageStats changed = new LanguageStats(Map.of(JAVA, "1.00"), Map.of(JAVA, 20L), 2L);
+        Mockito.when(languageStatsLogicMock.getLanguageStatsWithByteCountsForOrg(DN))
+                .thenReturn(stats, stats, changed);
+        final StatsView view = StatsView.of(null, null, 4);
+
+        final LanguageStatsJson first = languageStatsViewLogic.getLanguageStatsJsonForOrg(DN, view);
+        assertSame(first, languageStatsViewLogic.getLanguageStatsJsonForOrg(DN, view));
+
+        final LanguageStatsJson updated = languageStatsViewLogic.getLanguageStatsJsonForOrg(DN, view);
+        assertNotEquals(first.getEtag(), updated.getEtag());
+        assertEquals("{\"Java\":\"1.0000\"}", new String(updated.getBody(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testViewIsCachedForReloadedStats() {
+        // e.g. evicted from memory and read from disk again
+        Mockito.when(languageStatsLogicMock.getLanguageStatsWithByteCountsForOrg(DN))
+                .thenReturn(new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 3L),
+                        new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 3L));
+        final StatsView view = StatsView.of("bytes", 1, null);
+
+        final LanguageStatsJson first = languageStatsViewLogic.getLanguageStatsJsonForOrg(DN, view);
+        assertSame(first, languageStatsViewLogic.getLanguageStatsJsonForOrg(DN, view));
+    }
+
+    @Test
+    void testTopOfAllLanguagesIsTheSameView() {
+        final LanguageStats stats = new LanguageStats(LANGUAGE_STAT_MAP, LANGUAGE_BYTE_COUNTS, 1L);
+        Mockito.when(languageStatsLogicMock.getLanguageStatsWithByteCountsForOrg(DN)).thenReturn(stats);
+
+        final LanguageStatsJson all = languageStatsViewLogic.getLanguageStatsJsonForOrg(DN,
+                StatsView.of("bytes", null, null));
+
+        assertSame(all, languageStatsViewLogic.getLanguageStatsJsonForOrg(DN, StatsView.of("bytes", 2, null)));
+        assertSame(all, languageStatsViewLogic.getLanguageStatsJsonForOrg(DN, StatsView.of("BYTES", 10, null)));
+    }
+
+    @Test
+    void testProjectingPercentages() {
+        assertEquals(LANGUAGE_STAT_MAP, LanguageStatsViewLogic.project(LANGUAGE_STATS, StatsView.of(null, 10, null)));
+        assertEquals(Map.of(JAVA, "0.4000", TYPESCRIPT, "0.6000"),
+                LanguageStatsViewLogic.project(LANGUAGE_STATS, StatsView.of("percent", null, 4)));
+        assertEquals(Map.of(JAVA, "0", TYPESCRIPT, "1"),
+                LanguageStatsViewLogic.project(LANGUAGE_STATS, StatsView.of(null, null, 0)));
+    }
+
+    @Test
+    void testProjectingBytes() {
+        assertEquals(Map.of(JAVA, 40L, TYPESCRIPT, 60L),
+                LanguageStatsViewLogic.project(LANGUAGE_STATS, StatsView.of("bytes", null, null)));
+    }
+
+    @Test
+    void testTopLanguages() {
+        final LanguageStats stats = new LanguageStats(Map.of(), Map.of("C", 10L, "B", 30L, "A", 30L, "D", 30L), 0);
+
+        // ties are broken by name
+        assertEquals(Map.of("A", 30L, "B", 30L),
+                LanguageStatsViewLogic.project(stats, StatsView.of("bytes", 2, null)));
+        // percentages are shares of all languages, not just of the top ones
+        assertEquals(Map.of("A", "0.30"), LanguageStatsViewLogic.project(stats, StatsView.of(null, 1, null)));
+    }
+
+    @Test
+    void testProjectingEmptyStats() {
+        assertEquals(Map.of(), LanguageStatsViewLogic.project(EMPTY_LANGUAGE_STATS, StatsView.of(null, null, 4)));
+        assertEquals(Map.of(), LanguageStatsViewLogic.project(EMPTY_LANGUAGE_STATS, StatsView.of("bytes", 3, null)));
+    }
+
+    @Test
+    void testInvalidViews() {
+        assertThrows(InvalidStatsViewException.class, () -> StatsView.of("lines", null, null));
+        assertThrows(InvalidStatsViewException.class, () -> StatsView.of(null, 0, null));
+        assertThrows(InvalidStatsViewException.class, () -> StatsView.of(null, null, -1));
+        assertThrows(InvalidStatsViewException.class, () -> StatsView.of(null, null, StatsView.MAX_PRECISION + 1));
+        // precision doesn't apply to bytes
+        assertEquals(StatsView.of("bytes", null, null), StatsView.of("bytes", null, 5));
+    }
+}
@@ -0,0 +1,90 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.exceptions.InvalidOrgNameException;
+import com.havluj.github.languageanalyzer.exceptions.OrgNotFoundException;
+import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrgRegistryTest {
+
+    private final OrgRegistry orgRegistry = new OrgRegistry(new String[]{"productboard", " Deepnote-Classroom ", ""});
+
+    @Test
+    void testSeededFromConfig() {
+        assertEquals(List.of(new SupportedOrg("productboard"), new SupportedOrg("deepnote-classroom")),
+                orgRegistry.getOrgs());
+        assertEquals(2, orgRegistry.size());
+    }
+
+    @Test
+    void testLookupIgnoresCase() {
+        final SupportedOrg org = orgRegistry.fromName("productboard");
+
+        assertEquals("productboard", org.getOrgName());
+        assertSame(org, orgRegistry.fromName("ProductBoard"));
+        assertSame(org, orgRegistry.fromName("PRODUCTBOARD"));
+    }
+
+    @Test
+    void testUnknownOrg() {
+        assertThrows(OrgNotFoundException.class, () -> orgRegistry.fromName("invalid"));
+        assertThrows(OrgNotFoundException.class, () -> orgRegistry.fromName("INVALID"));
+    }
+
+    @Test
+    void testRegister() {
+        final List<SupportedOrg> added = orgRegistry.register(List.of("New-Org", "productboard", "new-org"));
+
+        assertEquals(List.of(new SupportedOrg("new-org")), added);
+        assertEquals(new SupportedOrg("new-org"), orgRegistry.fromName("new-org"));
+        assertEquals(3, orgRegistry.size());
+    }
+
+    @Test
+    void testRegisterInvalidNameRegistersNothing() {
+        assertThrows(InvalidOrgNameException.class, () -> orgRegistry.register(List.of("valid", "-invalid")));
+        assertThrows(InvalidOrgNameException.class, () -> orgRegistry.register(List.of("in valid")));
+        assertThrows(InvalidOrgNameException.class, () -> orgRegistry.register(List.of("a".repeat(40))));
+
+        assertThrows(OrgNotFoundException.class, () -> orgRegistry.fromName("valid"));
+        assertEquals(2, orgRegistry.size());
+    }
+
+    @Test
+    void testUnregister() {
+        assertEquals(List.of(new SupportedOrg("productboard")),
+                orgRegistry.unregister(List.of("ProductBoard", "unknown")));
+
+        assertThrows(OrgNotFoundException.class, () -> orgRegistry.fromName("productboard"));
+        assertEquals(List.of(new SupportedOrg("deepnote-classroom")), orgRegistry.getOrgs());
+        assertEquals(List.of(), orgRegistry.unregister(List.of("productboard")));
+    }
+
+    @Test
+    void testIterationIsNotAffectedByChanges() {
+        final List<SupportedOrg> orgs = orgRegistry.getOrgs();
+
+        orgRegistry.register(List.of("new-org"));
+        orgRegistry.unregister(List.of("productboard"));
+
+        assertEquals(2, orgs.size());
+        assertThrows(UnsupportedOperationException.class, () -> orgs.add(new SupportedOrg("other")));
+    }
+
+    @Test
+    void testManyOrgs() {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            names.add("org-" + i);
+        }
+
+        assertEquals(10_000, orgRegistry.register(names).size());
+        assertEquals(10_002, orgRegistry.size());
+        assertEquals("org-9999", orgRegistry.fromName("ORG-9999").getOrgName());
+    }
+}
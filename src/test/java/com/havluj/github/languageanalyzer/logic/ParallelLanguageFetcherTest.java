@@ -0,0 +1,134 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.BaseTest;
+import com.havluj.github.languageanalyzer.dao.AsyncGitHubDao;
+import com.havluj.github.languageanalyzer.dao.GitHubDao;
+import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHRepository;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelLanguageFetcherTest extends BaseTest {
+
+    private static final int PARALLELISM = 4;
+
+    @Mock private GitHubDao gitHubDaoMock;
+    @Mock private GHRepository repository1Mock;
+    @Mock private GHRepository repository2Mock;
+
+    private ExecutorService executor;
+    private AsyncGitHubDao asyncGitHubDao;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+        asyncGitHubDao = new AsyncGitHubDao(gitHubDaoMock, executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testNoRepositories() {
+        final ParallelLanguageFetcher fetcher = new ParallelLanguageFetcher(asyncGitHubDao, PARALLELISM, 1000);
+
+        assertEquals(List.of(), fetcher.fetchRepoLanguages(List.of()));
+        Mockito.verifyNoInteractions(gitHubDaoMock);
+    }
+
+    @Test
+    void testFetchesAllRepositoriesInOrder() {
+        final ParallelLanguageFetcher fetcher = new ParallelLanguageFetcher(asyncGitHubDao, PARALLELISM, 1000);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock)).thenReturn(REPO_STAT_1);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository2Mock)).thenReturn(REPO_STAT_2);
+
+        assertEquals(List.of(REPO_STAT_1, REPO_STAT_2),
+                fetcher.fetchRepoLanguages(List.of(repository1Mock, repository2Mock)));
+        Mockito.verify(gitHubDaoMock, Mockito.times(1)).listRepoLanguages(repository1Mock);
+        Mockito.verify(gitHubDaoMock, Mockito.times(1)).listRepoLanguages(repository2Mock);
+        Mockito.verifyNoMoreInteractions(gitHubDaoMock);
+    }
+
+    @Test
+    void testParallelismIsBounded() {
+        final ParallelLanguageFetcher fetcher = new ParallelLanguageFetcher(asyncGitHubDao, PARALLELISM, 5000);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        Mockito.when(gitHubDaoMock.listRepoLanguages(Mockito.any())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(10);
+            inFlight.decrementAndGet();
+            return REPO_STAT_2;
+        });
+
+        final List<GHRepository> repos = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            repos.add(Mockito.mock(GHRepository.class));
+        }
+
+        assertEquals(Collections.nCopies(50, REPO_STAT_2), fetcher.fetchRepoLanguages(repos));
+        assertTrue(maxInFlight.get() <= PARALLELISM);
+        Mockito.verify(gitHubDaoMock, Mockito.times(50)).listRepoLanguages(Mockito.any());
+    }
+
+    @Test
+    void testRepoReadFailure() {
+        final ParallelLanguageFetcher fetcher = new ParallelLanguageFetcher(asyncGitHubDao, PARALLELISM, 1000);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock)).thenReturn(REPO_STAT_1);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository2Mock)).thenThrow(GitHubIoErrorException.class);
+
+        assertThrows(GitHubIoErrorException.class,
+                () -> fetcher.fetchRepoLanguages(List.of(repository1Mock, repository2Mock)));
+    }
+
+    @Test
+    void testTimeout() {
+        final ParallelLanguageFetcher fetcher = new ParallelLanguageFetcher(asyncGitHubDao, PARALLELISM, 50);
+        Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock)).thenAnswer(invocation -> {
+            Thread.sleep(1000);
+            return REPO_STAT_1;
+        });
+
+        final GitHubIoErrorException e = assertThrows(GitHubIoErrorException.class,
+                () -> fetcher.fetchRepoLanguages(List.of(repository1Mock)));
+        assertTrue(e.getCause() instanceof TimeoutException);
+    }
+
+    @Test
+    void testFailureCancelsQueuedRequests() {
+        // a single thread, so the second lane's request is still queued when the first one fails
+        final ExecutorService singleThread = Executors.newSingleThreadExecutor();
+        try {
+            final ParallelLanguageFetcher fetcher = new ParallelLanguageFetcher(
+                    new AsyncGitHubDao(gitHubDaoMock, singleThread), PARALLELISM, 1000);
+            Mockito.when(gitHubDaoMock.listRepoLanguages(repository1Mock)).thenThrow(GitHubIoErrorException.class);
+            Mockito.when(gitHubDaoMock.listRepoLanguages(repository2Mock)).thenReturn(REPO_STAT_2);
+
+            assertThrows(GitHubIoErrorException.class,
+                    () -> fetcher.fetchRepoLanguages(List.of(repository1Mock, repository2Mock)));
+            Mockito.verify(gitHubDaoMock, Mockito.never()).listRepoLanguages(repository2Mock);
+        } finally {
+            singleThread.shutdownNow();
+        }
+    }
+
+    @Test
+    void testInvalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new ParallelLanguageFetcher(asyncGitHubDao, 0, 1000));
+    }
+}
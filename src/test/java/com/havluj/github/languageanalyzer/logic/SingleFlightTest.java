@@ -0,0 +1,111 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private static final String KEY = "test";
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+    @Test
+    void testConcurrentCallersShareComputation() {
+        final AtomicInteger started = new AtomicInteger();
+        final CompletableFuture<String> computation = new CompletableFuture<>();
+
+        final CompletableFuture<String> first = singleFlight.execute(KEY, () -> {
+            started.incrementAndGet();
+            return computation;
+        });
+        final CompletableFuture<String> second = singleFlight.execute(KEY, () -> {
+            started.incrementAndGet();
+            return computation;
+        });
+
+        assertEquals(1, started.get());
+        assertEquals(1, singleFlight.getInFlightCount());
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        computation.complete("done");
+
+        assertEquals("done", first.join());
+        assertEquals("done", second.join());
+        assertEquals(1, singleFlight.getExecutionCount());
+        assertEquals(1, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    void testDifferentKeysAreNotCoalesced() {
+        final CompletableFuture<String> computation = new CompletableFuture<>();
+
+        singleFlight.execute(KEY, () -> computation);
+        singleFlight.execute("other", () -> computation);
+
+        assertEquals(2, singleFlight.getExecutionCount());
+        assertEquals(0, singleFlight.getCoalescedCount());
+        assertEquals(2, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    void testCompletedComputationIsNotCached() {
+        assertEquals("first", singleFlight.execute(KEY, () -> CompletableFuture.completedFuture("first")).join());
+        assertEquals("second", singleFlight.execute(KEY, () -> CompletableFuture.completedFuture("second")).join());
+
+        assertEquals(2, singleFlight.getExecutionCount());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    void testFailureIsSharedAndForgotten() {
+        final CompletableFuture<String> computation = new CompletableFuture<>();
+        final CompletableFuture<String> first = singleFlight.execute(KEY, () -> computation);
+        final CompletableFuture<String> second = singleFlight.execute(KEY, () -> computation);
+
+        computation.completeExceptionally(new GitHubIoErrorException());
+
+        assertTrue(assertThrows(CompletionException.class, first::join).getCause() instanceof GitHubIoErrorException);
+        assertTrue(assertThrows(CompletionException.class, second::join).getCause() instanceof GitHubIoErrorException);
+        assertEquals(0, singleFlight.getInFlightCount());
+        assertEquals("retry", singleFlight.execute(KEY, () -> CompletableFuture.completedFuture("retry")).join());
+    }
+
+    @Test
+    void testJoiningCallersGetContextOfComputation() {
+        final CompletableFuture<String> computation = new CompletableFuture<>();
+        final AtomicReference<String> started = new AtomicReference<>();
+        final AtomicReference<String> joined = new AtomicReference<>();
+
+        singleFlight.execute(KEY, "first", context -> {
+            started.set(context);
+            return computation;
+        }, joined::set);
+        singleFlight.execute(KEY, "second", context -> {
+            started.set(context);
+            return computation;
+        }, joined::set);
+
+        assertEquals("first", started.get());
+        assertEquals("first", joined.get());
+        assertEquals(1, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    void testComputationThrowing() {
+        final CompletableFuture<String> res = singleFlight.execute(KEY, () -> {
+            throw new GitHubIoErrorException();
+        });
+
+        assertTrue(res.isCompletedExceptionally());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+}
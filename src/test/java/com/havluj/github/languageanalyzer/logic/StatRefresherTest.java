@@ -1,44 +1,203 @@
 package com.havluj.github.languageanalyzer.logic;
 
 import com.havluj.github.languageanalyzer.BaseTest;
-import com.havluj.github.languageanalyzer.model.SupportedOrg;
+import com.havluj.github.languageanalyzer.dao.StorageDao;
+import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.boot.test.mock.mockito.MockBean;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
 class StatRefresherTest extends BaseTest {
 
+    private static final long NEXT_SLOT_AT = 60_000;
+
     @MockBean
     private LanguageStatsLogic statsLogicMock;
+    @MockBean
+    private StorageDao storageDaoMock;
+    @MockBean
+    private RefreshLeaderElection leaderElectionMock;
+    @MockBean
+    private StatsRefreshEngine refreshEngineMock;
 
+    private OrgRegistry orgRegistry;
+    private WarmupHealthIndicator warmupHealthIndicator;
     private StatRefresher statRefresher;
 
     @BeforeEach
     void setUp() {
-        statRefresher = new StatRefresher(statsLogicMock);
+        orgRegistry = new OrgRegistry(new String[]{PRODUCTBOARD.getOrgName(), DN.getOrgName()});
+        warmupHealthIndicator = new WarmupHealthIndicator();
+        // slot 0 at startup, slot 1 a minute later
+        Mockito.when(refreshEngineMock.slotAt(Mockito.anyLong())).thenReturn(0);
+        Mockito.when(refreshEngineMock.slotAt(NEXT_SLOT_AT)).thenReturn(1);
+        statRefresher = new StatRefresher(statsLogicMock, refreshEngineMock, orgRegistry, storageDaoMock,
+                warmupHealthIndicator, leaderElectionMock, 1);
+        Mockito.when(leaderElectionMock.renew()).thenReturn(true);
+        Mockito.when(leaderElectionMock.isLeader()).thenReturn(true);
+        Mockito.when(storageDaoMock.loadAllLanguageStats()).thenReturn(Set.of());
+        Mockito.when(storageDaoMock.getAccessCounts()).thenReturn(Map.of());
     }
 
     @Test
     void testStartupInvocations() {
-        Mockito.when(statsLogicMock.getLanguageStatsForOrg(Mockito.any()))
-                .thenReturn(LANGUAGE_STATS);
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        statRefresher.updateDataOnStartup();
+
+        Mockito.verify(storageDaoMock, Mockito.times(1)).loadAllLanguageStats();
+        Mockito.verify(statsLogicMock, Mockito.times(1)).getLanguageStatsForOrgAsync(PRODUCTBOARD);
+        Mockito.verify(statsLogicMock, Mockito.times(1)).getLanguageStatsForOrgAsync(DN);
+        Mockito.verifyNoMoreInteractions(statsLogicMock);
+    }
+
+    @Test
+    void testStartupSkipsOrgsLoadedFromDisk() {
+        Mockito.when(storageDaoMock.loadAllLanguageStats()).thenReturn(Set.of(PRODUCTBOARD.getOrgName()));
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        statRefresher.updateDataOnStartup();
+
+        Mockito.verify(statsLogicMock, Mockito.times(1)).getLanguageStatsForOrgAsync(DN);
+        Mockito.verifyNoMoreInteractions(statsLogicMock);
+    }
+
+    @Test
+    void testStartupFetchesMostRequestedOrgsFirst() {
+        Mockito.when(storageDaoMock.getAccessCounts()).thenReturn(Map.of(DN.getOrgName(), 10L));
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        statRefresher.updateDataOnStartup();
+
+        final InOrder inOrder = Mockito.inOrder(statsLogicMock);
+        inOrder.verify(statsLogicMock).getLanguageStatsForOrgAsync(DN);
+        inOrder.verify(statsLogicMock).getLanguageStatsForOrgAsync(PRODUCTBOARD);
+    }
+
+    @Test
+    void testStartupLimitsParallelFetches() {
+        final CompletableFuture<LanguageStats> first = new CompletableFuture<>();
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(PRODUCTBOARD)).thenReturn(first);
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(DN))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        statRefresher.updateDataOnStartup();
+
+        // a single lane: DN waits for productboard
+        Mockito.verify(statsLogicMock, Mockito.never()).getLanguageStatsForOrgAsync(DN);
+        first.completeExceptionally(new GitHubIoErrorException());
+        Mockito.verify(statsLogicMock, Mockito.times(1)).getLanguageStatsForOrgAsync(DN);
+    }
+
+    @Test
+    void testReadyOnceHotSetIsLoaded() {
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(Mockito.any())).thenReturn(new CompletableFuture<>());
+        assertEquals(Status.OUT_OF_SERVICE, warmupHealthIndicator.health().getStatus());
+
+        statRefresher.updateDataOnStartup();
+
+        // missing orgs are still being fetched
+        assertEquals(Status.UP, warmupHealthIndicator.health().getStatus());
+    }
+
+    @Test
+    void testStartupLeavesMissingOrgsToLeader() {
+        Mockito.when(leaderElectionMock.renew()).thenReturn(false);
+
+        statRefresher.updateDataOnStartup();
+
+        Mockito.verify(storageDaoMock, Mockito.times(1)).loadAllLanguageStats();
+        Mockito.verifyNoInteractions(statsLogicMock);
+        assertEquals(Status.UP, warmupHealthIndicator.health().getStatus());
+    }
+
+    @Test
+    void testStartupWarmsUpRuntimeRegisteredOrgs() {
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+        orgRegistry.unregister(List.of(DN.getOrgName()));
+        orgRegistry.register(List.of("another-org"));
+
+        statRefresher.updateDataOnStartup();
+
+        Mockito.verify(statsLogicMock, Mockito.times(1)).getLanguageStatsForOrgAsync(PRODUCTBOARD);
+        Mockito.verify(statsLogicMock, Mockito.times(1)).getLanguageStatsForOrgAsync(orgRegistry.fromName("another-org"));
+        Mockito.verifyNoMoreInteractions(statsLogicMock);
+    }
+
+    @Test
+    void testStartupDoesNotFailOnFailedWarmup() {
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(PRODUCTBOARD))
+                .thenReturn(CompletableFuture.failedFuture(new GitHubIoErrorException()));
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(DN))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
 
         statRefresher.updateDataOnStartup();
 
-        for (SupportedOrg org : SupportedOrg.values()) {
-            Mockito.verify(statsLogicMock, Mockito.times(1)).getLanguageStatsForOrg(org);
-        }
+        Mockito.verify(statsLogicMock, Mockito.times(1)).getLanguageStatsForOrgAsync(DN);
+    }
+
+    @Test
+    void testStartupDoesNotFailOnThrowingWarmup() {
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(PRODUCTBOARD))
+                .thenThrow(new GitHubIoErrorException());
+        Mockito.when(statsLogicMock.getLanguageStatsForOrgAsync(DN))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        statRefresher.updateDataOnStartup();
+
+        Mockito.verify(statsLogicMock, Mockito.times(1)).getLanguageStatsForOrgAsync(DN);
+    }
+
+    @Test
+    void testUpdateRefreshesEverySlotOnce() {
+        Mockito.when(refreshEngineMock.refreshSlot(Mockito.anyInt())).thenReturn(CompletableFuture.completedFuture(0));
+
+        // the slot of the startup is refreshed too, warmup only fetches missing orgs
+        statRefresher.updateData(0);
+        statRefresher.updateData(0);
+        Mockito.verify(refreshEngineMock, Mockito.times(1)).refreshSlot(0);
+
+        statRefresher.updateData(NEXT_SLOT_AT);
+        statRefresher.updateData(NEXT_SLOT_AT);
+        Mockito.verify(refreshEngineMock, Mockito.times(1)).refreshSlot(1);
+        Mockito.verifyNoInteractions(statsLogicMock);
+    }
+
+    @Test
+    void testUpdateIsSkippedWhenNotLeader() {
+        Mockito.when(leaderElectionMock.isLeader()).thenReturn(false);
+
+        statRefresher.updateData(NEXT_SLOT_AT);
+
+        Mockito.verify(refreshEngineMock, Mockito.never()).refreshSlot(Mockito.anyInt());
     }
 
     @Test
-    void testForceUpdateInvocations() {
-        Mockito.doNothing().when(statsLogicMock).refreshStats(Mockito.any());
+    void testNewLeaderRefreshesCurrentSlot() {
+        Mockito.when(refreshEngineMock.refreshSlot(Mockito.anyInt())).thenReturn(CompletableFuture.completedFuture(0));
+        Mockito.when(leaderElectionMock.isLeader()).thenReturn(false, true);
 
-        statRefresher.updateData();
+        statRefresher.updateData(NEXT_SLOT_AT);
+        Mockito.verify(refreshEngineMock, Mockito.never()).refreshSlot(Mockito.anyInt());
 
-        for (SupportedOrg org : SupportedOrg.values()) {
-            Mockito.verify(statsLogicMock, Mockito.times(1)).refreshStats(org);
-        }
+        // took over in the middle of the slot
+        statRefresher.updateData(NEXT_SLOT_AT);
+        statRefresher.updateData(NEXT_SLOT_AT);
+        Mockito.verify(refreshEngineMock, Mockito.times(1)).refreshSlot(1);
     }
-}
\ No newline at end of file
+}
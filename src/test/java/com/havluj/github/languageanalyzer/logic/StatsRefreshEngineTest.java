@@ -0,0 +1,182 @@
+package com.havluj.github.languageanalyzer.logic;
+
+import com.havluj.github.languageanalyzer.BaseTest;
+import com.havluj.github.languageanalyzer.dao.StatsHistoryDao;
+import com.havluj.github.languageanalyzer.dao.StorageDao;
+import com.havluj.github.languageanalyzer.exceptions.GitHubIoErrorException;
+import com.havluj.github.languageanalyzer.model.LanguageStats;
+import com.havluj.github.languageanalyzer.model.RefreshTask;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatsRefreshEngineTest extends BaseTest {
+
+    @MockBean
+    private LanguageStatsLogic statsLogicMock;
+    @MockBean
+    private StorageDao storageDaoMock;
+    @MockBean
+    private StatsHistoryDao statsHistoryDaoMock;
+
+    private OrgRegistry orgRegistry;
+
+    @BeforeEach
+    void setUp() {
+        orgRegistry = new OrgRegistry(new String[]{PRODUCTBOARD.getOrgName(), DN.getOrgName()});
+    }
+
+    @Test
+    void testRefreshAllContinuesAfterFailure() {
+        final StatsRefreshEngine refreshEngine = engine(4, 2);
+        Mockito.when(statsLogicMock.refreshStatsAsync(PRODUCTBOARD))
+                .thenReturn(CompletableFuture.failedFuture(new GitHubIoErrorException("unavailable")));
+        Mockito.when(statsLogicMock.refreshStatsAsync(DN))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        assertEquals(1, refreshEngine.refreshAll().join());
+
+        Mockito.verify(statsLogicMock, Mockito.times(2)).refreshStatsAsync(PRODUCTBOARD);
+        Mockito.verify(statsLogicMock, Mockito.times(1)).refreshStatsAsync(DN);
+        // the run is committed once, at its end, and written into the snapshot file
+        Mockito.verify(storageDaoMock, Mockito.times(1)).commit();
+        Mockito.verify(statsHistoryDaoMock, Mockito.times(1)).commit();
+        Mockito.verify(storageDaoMock, Mockito.times(1)).writeSnapshotFile();
+
+        final RefreshTask failed = task(refreshEngine, PRODUCTBOARD.getOrgName());
+        assertEquals(RefreshTask.State.FAILED, failed.getState());
+        assertEquals(2, failed.getAttempts());
+        assertEquals("unavailable", failed.getError());
+        assertTrue(failed.getFinishedAt() >= failed.getStartedAt());
+        final RefreshTask succeeded = task(refreshEngine, DN.getOrgName());
+        assertEquals(RefreshTask.State.SUCCEEDED, succeeded.getState());
+        assertEquals(1, succeeded.getAttempts());
+        assertNull(succeeded.getError());
+    }
+
+    @Test
+    void testFailedRefreshIsRetried() {
+        final StatsRefreshEngine refreshEngine = engine(4, 3);
+        Mockito.when(statsLogicMock.refreshStatsAsync(PRODUCTBOARD))
+                .thenReturn(CompletableFuture.failedFuture(new GitHubIoErrorException("unavailable")))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+        Mockito.when(statsLogicMock.refreshStatsAsync(DN))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        assertEquals(0, refreshEngine.refreshAll().join());
+
+        Mockito.verify(statsLogicMock, Mockito.times(2)).refreshStatsAsync(PRODUCTBOARD);
+        final RefreshTask task = task(refreshEngine, PRODUCTBOARD.getOrgName());
+        assertEquals(RefreshTask.State.SUCCEEDED, task.getState());
+        assertEquals(2, task.getAttempts());
+        assertEquals("unavailable", task.getError());
+    }
+
+    @Test
+    void testThrowingRefreshIsIsolated() {
+        final StatsRefreshEngine refreshEngine = engine(1, 1);
+        Mockito.when(statsLogicMock.refreshStatsAsync(PRODUCTBOARD)).thenThrow(new GitHubIoErrorException());
+        Mockito.when(statsLogicMock.refreshStatsAsync(DN))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        assertEquals(1, refreshEngine.refreshAll().join());
+        Mockito.verify(statsLogicMock, Mockito.times(1)).refreshStatsAsync(DN);
+    }
+
+    @Test
+    void testRefreshLimitsParallelOrgs() {
+        final StatsRefreshEngine refreshEngine = engine(1, 1);
+        final CompletableFuture<LanguageStats> first = new CompletableFuture<>();
+        Mockito.when(statsLogicMock.refreshStatsAsync(PRODUCTBOARD)).thenReturn(first);
+        Mockito.when(statsLogicMock.refreshStatsAsync(DN))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        final CompletableFuture<Integer> run = refreshEngine.refreshAll();
+
+        // a single lane: DN waits for productboard
+        Mockito.verify(statsLogicMock, Mockito.never()).refreshStatsAsync(DN);
+        assertEquals(RefreshTask.State.RUNNING, task(refreshEngine, PRODUCTBOARD.getOrgName()).getState());
+        assertEquals(RefreshTask.State.QUEUED, task(refreshEngine, DN.getOrgName()).getState());
+        first.complete(LANGUAGE_STATS);
+        assertEquals(0, run.join());
+        Mockito.verify(statsLogicMock, Mockito.times(1)).refreshStatsAsync(DN);
+    }
+
+    @Test
+    void testRefreshInProgressIsNotRepeated() {
+        final StatsRefreshEngine refreshEngine = engine(4, 1);
+        final CompletableFuture<LanguageStats> first = new CompletableFuture<>();
+        Mockito.when(statsLogicMock.refreshStatsAsync(PRODUCTBOARD)).thenReturn(first);
+        Mockito.when(statsLogicMock.refreshStatsAsync(DN))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+
+        final CompletableFuture<Integer> run = refreshEngine.refreshAll();
+        assertEquals(0, refreshEngine.refreshAll().join());
+        first.complete(LANGUAGE_STATS);
+        assertEquals(0, run.join());
+
+        Mockito.verify(statsLogicMock, Mockito.times(1)).refreshStatsAsync(PRODUCTBOARD);
+        Mockito.verify(statsLogicMock, Mockito.times(2)).refreshStatsAsync(DN);
+    }
+
+    @Test
+    void testSlots() {
+        final StatsRefreshEngine refreshEngine = engine(4, 1);
+
+        assertEquals(0, refreshEngine.slotAt(0));
+        assertEquals(12, refreshEngine.slotAt(TimeUnit.HOURS.toMillis(12)));
+        assertEquals(23, refreshEngine.slotAt(TimeUnit.DAYS.toMillis(1) - 1));
+        assertEquals(0, refreshEngine.slotAt(TimeUnit.DAYS.toMillis(1)));
+        final int slot = refreshEngine.slotOf(PRODUCTBOARD);
+        assertTrue(slot >= 0 && slot < 24);
+        assertEquals(slot, refreshEngine.slotOf(PRODUCTBOARD));
+    }
+
+    @Test
+    void testRefreshSlotRefreshesOrgsOfTheSlot() {
+        final StatsRefreshEngine refreshEngine = engine(4, 1);
+        Mockito.when(statsLogicMock.refreshStatsAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+        final int slot = refreshEngine.slotOf(PRODUCTBOARD);
+
+        refreshEngine.refreshSlot(slot).join();
+
+        Mockito.verify(statsLogicMock, Mockito.times(1)).refreshStatsAsync(PRODUCTBOARD);
+        Mockito.verify(statsLogicMock, Mockito.times(refreshEngine.slotOf(DN) == slot ? 1 : 0))
+                .refreshStatsAsync(DN);
+        assertEquals(slot, task(refreshEngine, PRODUCTBOARD.getOrgName()).getSlot());
+    }
+
+    @Test
+    void testTasksOfUnregisteredOrgsAreHidden() {
+        final StatsRefreshEngine refreshEngine = engine(4, 1);
+        Mockito.when(statsLogicMock.refreshStatsAsync(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(LANGUAGE_STATS));
+        refreshEngine.refreshAll().join();
+
+        orgRegistry.unregister(List.of(DN.getOrgName()));
+
+        assertEquals(1, refreshEngine.getTasks().size());
+        assertEquals(PRODUCTBOARD.getOrgName(), refreshEngine.getTasks().get(0).getOrgName());
+    }
+
+    private StatsRefreshEngine engine(final int parallelism, final int maxAttempts) {
+        return new StatsRefreshEngine(statsLogicMock, orgRegistry, storageDaoMock, statsHistoryDaoMock, 24, parallelism,
+                maxAttempts, Duration.ZERO);
+    }
+
+    private static RefreshTask task(final StatsRefreshEngine refreshEngine, final String orgName) {
+        return refreshEngine.getTasks().stream()
+                .filter(task -> task.getOrgName().equals(orgName))
+                .findFirst()
+                .orElseThrow();
+    }
+}